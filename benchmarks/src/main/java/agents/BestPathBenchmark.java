@@ -0,0 +1,85 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route comparison done by BestPath when the collection of the paths ends, for a growing number of
+ * replies. The paths have random costs and lengths, generated once with a fixed seed.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BestPathBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int replies;
+
+    private List<JSONObject> paths;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        paths = new ArrayList<>();
+        for (int i = 0; i < replies; i++) {
+            int length = 2 + random.nextInt(20);
+            JSONObject path = new JSONObject();
+            path.put("request_type", "routed_transfer");
+            path.put("source", "CNV1");
+            path.put("destination", "CNV" + length);
+            path.put("viaPoints", ViaPointsBenchmark.route(length));
+            path.put("cost", (long) (length * (1 + random.nextInt(8))));
+            paths.add(path);
+        }
+    }
+
+    @Benchmark
+    public JSONObject compare() {
+        return ConveyorAgent.cheapestPath(paths);
+    }
+}
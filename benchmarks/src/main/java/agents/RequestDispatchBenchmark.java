@@ -0,0 +1,201 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.wrapper.AgentController;
+import jade.wrapper.ContainerController;
+import jade.wrapper.StaleProxyException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the handling of one request by a conveyor, as TransferControlBehaviour.action() does it once the
+ * message is received: decoding of the content (JSON text or binary), lookup of the request type, check of
+ * the required fields, the handler and the reply. The conveyor runs in the benchmark JVM and is suspended
+ * once set up, so the benchmark thread is the only one calling ConveyorAgent.dispatch(); its replies go to
+ * an agent that drops them.
+ * The same message is dispatched over and over, so the requests changing the state (load, set_status,
+ * reserve) measure the steady state: the conveyor already busy, the status already set, the slot booked.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestDispatchBenchmark {
+
+    @Param({"get_info", "load", "set_status", "transfer", "routed_transfer", "reserve", "route_update"})
+    public String requestType;
+
+    @Param({"json", "binary"})
+    public String codec;
+
+    private ContainerController container;
+    private ConveyorAgent conveyor;
+    private ACLMessage msg;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StaleProxyException, InterruptedException {
+        Runtime runtime = Runtime.instance();
+        runtime.setCloseVM(false);
+        Profile profile = new ProfileImpl();
+        profile.setParameter(Profile.GUI, "false");
+        container = runtime.createMainContainer(profile);
+        // the handlers log at INFO on every request
+        java.util.logging.Logger.getLogger("").setLevel(java.util.logging.Level.SEVERE);
+
+        container.createNewAgent("CNV1", ReplySink.class.getName(), null).start();
+        // CNV1 is the next conveyor, so that its route updates are accepted
+        BlockingQueue<ConveyorAgent> started = new ArrayBlockingQueue<>(1);
+        AgentController controller = container.createNewAgent("CNV2", DispatchedConveyor.class.getName(),
+                new Object[]{new Object[]{"CNV1"}, new Object[]{1}, new Object[]{1}, started});
+        controller.start();
+        conveyor = started.poll(30, TimeUnit.SECONDS);
+        if (conveyor == null) {
+            throw new IllegalStateException("CNV2 did not start");
+        }
+        controller.suspend();
+
+        JSONObject request = sampleRequest(requestType);
+        // the route updates are advertisements, not requests
+        msg = new ACLMessage(requestType.equals("route_update") ? ACLMessage.PROPAGATE : ACLMessage.REQUEST);
+        msg.setSender(new AID("CNV1", AID.ISLOCALNAME));
+        msg.addReceiver(new AID("CNV2", AID.ISLOCALNAME));
+        if ("binary".equals(codec)) {
+            msg.setLanguage(ConveyorCodec.LANGUAGE);
+            msg.setEncoding(ConveyorCodec.ENCODING);
+            msg.setByteSequenceContent(ConveyorCodec.encode(request));
+        }
+        else {
+            msg.setContent(request.toString());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws StaleProxyException {
+        container.kill();
+        Runtime.instance().shutDown();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        conveyor.dispatch(msg);
+    }
+
+    // a complete request of the given type, as the conveyors receive it
+    static JSONObject sampleRequest(String requestType) {
+        JSONObject request = new JSONObject();
+        request.put("request_type", requestType);
+        switch (requestType) {
+            case "load":
+                request.put("pallet_id", "CNV1-P1");
+                break;
+            case "set_status":
+                request.put("status", "Busy");
+                break;
+            case "transfer":
+                request.put("source", "CNV1");
+                request.put("destination", "CNV12");
+                break;
+            case "routed_transfer":
+                request.put("source", "CNV1");
+                request.put("destination", "CNV12");
+                request.put("viaPoints", ViaPointsBenchmark.route(6));
+                request.put("reroute", "true");
+                break;
+            case "reserve":
+                request.put("pallet_id", "CNV1-P1");
+                request.put("arrival_ms", 1700000000000L);
+                break;
+            case "route_update":
+                JSONObject routes = new JSONObject();
+                for (int length = 2; length <= 8; length++) {
+                    JSONArray path = ViaPointsBenchmark.route(length);
+                    JSONObject route = new JSONObject();
+                    route.put("cost", 5L * length);
+                    route.put("seq", 0L);
+                    routes.put(path.get(path.size() - 1), route);
+                }
+                request.put("routes", routes);
+                request.put("withdrawn", new JSONArray());
+                break;
+            default:
+                break;
+        }
+        return request;
+    }
+
+    /**
+     * A conveyor that hands itself to the benchmark thread through the queue after its arguments, once set up.
+     */
+    public static class DispatchedConveyor extends ConveyorAgent {
+        protected void setup() {
+            super.setup();
+            ((BlockingQueue<ConveyorAgent>) getArguments()[3]).offer(this);
+        }
+    }
+
+    /**
+     * Drops the messages it receives: the replies and the subscriptions of the conveyor.
+     */
+    public static class ReplySink extends Agent {
+        protected void setup() {
+            addBehaviour(new CyclicBehaviour(this) {
+                public void action() {
+                    if (myAgent.receive() == null) {
+                        block();
+                    }
+                }
+            });
+        }
+    }
+}
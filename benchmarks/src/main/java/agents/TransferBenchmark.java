@@ -0,0 +1,265 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.wrapper.AgentController;
+import jade.wrapper.ContainerController;
+import jade.wrapper.StaleProxyException;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end transfer on a layout of conveyors running in the benchmark JVM: a probe agent loads a pallet,
+ * asks for its transfer, waits for the transfer_finished notification and unloads the pallet.
+ * The conveyors run on the simulated clock, so the time measured is the work of the agents along the route
+ * (routing, hand-offs, messages) and not the transfer times of the conveyors.
+ * Conveyor i is followed by i + 1 and i + sqrt(n), on a ring, so the routes are about 2 * sqrt(n) hops long.
+ * The measure starts once the source knows a route to every conveyor; a layout whose routing tables do not
+ * settle within settleTimeoutMs fails in the set-up with "Routing did not settle", and is reported as such.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Dconveyor.clock=simulated"})
+public class TransferBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int conveyors;
+
+    // time left to the routing tables to converge after the layout is started, and pause between two checks
+    private static final long settleTimeoutMs = 30000L;
+    private static final long settlePerConveyorMs = 100L;
+    private static final long settlePollMs = 500L;
+    private static final long settleReplyS = 2L;
+    private static final long transferTimeoutS = 120L;
+
+    private ContainerController container;
+    private AgentController probe;
+    private final BlockingQueue<String> results = new ArrayBlockingQueue<>(1);
+    private int palletCounter = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws StaleProxyException, InterruptedException {
+        Runtime runtime = Runtime.instance();
+        runtime.setCloseVM(false);
+        Profile profile = new ProfileImpl();
+        profile.setParameter(Profile.GUI, "false");
+        container = runtime.createMainContainer(profile);
+
+        int stride = (int) Math.ceil(Math.sqrt(conveyors));
+        for (int i = 0; i < conveyors; i++) {
+            List<String> neighbours = new ArrayList<>();
+            neighbours.add("CNV" + ((i + 1) % conveyors));
+            String shortcut = "CNV" + ((i + stride) % conveyors);
+            if (!neighbours.contains(shortcut) && !shortcut.equals("CNV" + i)) {
+                neighbours.add(shortcut);
+            }
+            container.createNewAgent("CNV" + i, "agents.ConveyorAgent",
+                    new Object[][]{neighbours.toArray(), {1}}).start();
+        }
+        probe = container.createNewAgent("probe", TransferProbe.class.getName(), new Object[]{results});
+        probe.start();
+        waitForRoutes("CNV0");
+    }
+
+    // waits until the conveyor knows a route to every conveyor of the layout. A question put before the probe
+    // takes the O2A objects is lost, so an unanswered one is simply asked again
+    private void waitForRoutes(String conveyor) throws StaleProxyException, InterruptedException {
+        long deadline = System.currentTimeMillis() + settleTimeoutMs + settlePerConveyorMs * conveyors;
+        String routes = null;
+        while (System.currentTimeMillis() < deadline) {
+            probe.putO2AObject(conveyor, AgentController.ASYNC);
+            String answer = results.poll(settleReplyS, TimeUnit.SECONDS);
+            routes = (answer != null) ? answer : routes;
+            if (String.valueOf(conveyors).equals(routes)) {
+                results.clear();
+                return;
+            }
+            Thread.sleep(settlePollMs);
+        }
+        throw new IllegalStateException("Routing did not settle: " + conveyor + " knows " + routes + " routes of " + conveyors);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws StaleProxyException {
+        container.kill();
+        Runtime.instance().shutDown();
+    }
+
+    @Benchmark
+    public String transfer() throws StaleProxyException, InterruptedException {
+        // from the first conveyor to the one halfway round the ring
+        String[] transfer = {"P" + (++palletCounter), "CNV0", "CNV" + (conveyors / 2)};
+        probe.putO2AObject(transfer, AgentController.ASYNC);
+        String result = results.poll(transferTimeoutS, TimeUnit.SECONDS);
+        if (result == null) {
+            throw new IllegalStateException("Transfer of " + transfer[0] + " timed out");
+        }
+        if (!result.equals("unloaded")) {
+            throw new IllegalStateException("Transfer of " + transfer[0] + " failed: " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the transfers asked by the benchmark thread through the O2A queue ({pallet id, source, destination})
+     * and puts the outcome of each one in the queue given as argument. A conveyor name alone in the O2A queue
+     * asks for the number of routes it knows, put in the queue too.
+     */
+    public static class TransferProbe extends Agent {
+        private final JSONParser jsonParser = new JSONParser();
+        private BlockingQueue<String> results;
+        private String[] current;
+
+        protected void setup() {
+            results = (BlockingQueue<String>) getArguments()[0];
+            setEnabledO2ACommunication(true, 0);
+            addBehaviour(new CyclicBehaviour(this) {
+                public void action() {
+                    Object transfer = getO2AObject();
+                    if (transfer instanceof String) {
+                        askRoutes((String) transfer);
+                        return;
+                    }
+                    if (transfer != null) {
+                        current = (String[]) transfer;
+                        send("load", current[1]);
+                        return;
+                    }
+                    ACLMessage msg = receive();
+                    if (msg == null) {
+                        block();
+                        return;
+                    }
+                    if ("routes".equals(msg.getConversationId())) {
+                        results.offer(String.valueOf(routes(msg)));
+                        return;
+                    }
+                    // the notification of the destination has no conversation, the pallet is in the content
+                    String palletId = (msg.getPerformative() == ACLMessage.INFORM) ? finishedPallet(msg) : msg.getConversationId();
+                    if (current == null || !current[0].equals(palletId)) {
+                        return;
+                    }
+                    switch (msg.getPerformative()) {
+                        case ACLMessage.AGREE:
+                            // the load on the source, then the unload on the destination
+                            if (msg.getSender().getLocalName().equals(current[1])) {
+                                send("transfer", current[1]);
+                            }
+                            else {
+                                finish("unloaded");
+                            }
+                            break;
+                        case ACLMessage.INFORM:
+                            send("unload", current[2]);
+                            break;
+                        default:
+                            finish(ACLMessage.getPerformative(msg.getPerformative()) + " " + msg.getContent());
+                            break;
+                    }
+                }
+            });
+        }
+
+        private void askRoutes(String conveyor) {
+            JSONObject request = new JSONObject();
+            request.put("request_type", "get_info");
+            ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+            msg.addReceiver(new AID(conveyor, AID.ISLOCALNAME));
+            msg.setConversationId("routes");
+            msg.setContent(request.toString());
+            send(msg);
+        }
+
+        private Object routes(ACLMessage msg) {
+            try {
+                return ((JSONObject) jsonParser.parse(msg.getContent())).get("Routes");
+            } catch (ParseException | ClassCastException e) {
+                return null;
+            }
+        }
+
+        private String finishedPallet(ACLMessage msg) {
+            try {
+                JSONObject event = (JSONObject) jsonParser.parse(msg.getContent());
+                return "transfer_finished".equals(event.get("event")) ? (String) event.get("pallet_id") : null;
+            } catch (ParseException | ClassCastException e) {
+                return null;
+            }
+        }
+
+        private void send(String requestType, String receiver) {
+            JSONObject request = new JSONObject();
+            request.put("request_type", requestType);
+            request.put("pallet_id", current[0]);
+            if (requestType.equals("transfer")) {
+                request.put("source", current[1]);
+                request.put("destination", current[2]);
+                request.put("notify", getLocalName());
+            }
+            ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+            msg.addReceiver(new AID(receiver, AID.ISLOCALNAME));
+            msg.setConversationId(current[0]);
+            msg.setContent(request.toString());
+            send(msg);
+        }
+
+        private void finish(String result) {
+            current = null;
+            results.offer(result);
+        }
+    }
+}
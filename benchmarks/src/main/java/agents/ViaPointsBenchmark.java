@@ -0,0 +1,125 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialisation of a routed_transfer message as its viaPoints array grows: every conveyor of the route
+ * writes and parses the whole message again, so this cost is paid once per hop.
+ * The envelope benchmarks write and parse the message sent between conveyors sharing the RouteStore, with the
+ * route id and the hop instead of the route.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViaPointsBenchmark {
+
+    @Param({"2", "10", "100", "1000"})
+    public int routeLength;
+
+    private final JSONParser jsonParser = new JSONParser();
+    private JSONObject message;
+    private String json;
+    private byte[] binary;
+    private JSONObject routed;
+    private String envelopeJson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        message = new JSONObject();
+        message.put("request_type", "routed_transfer");
+        message.put("source", "CNV1");
+        message.put("destination", "CNV" + routeLength);
+        message.put("viaPoints", route(routeLength));
+        message.put("reroute", "true");
+        json = message.toString();
+        binary = ConveyorCodec.encode(message);
+        routed = new JSONObject(message);
+        routed.put("route_id", "CNV1-route-1");
+        envelopeJson = RouteStore.envelope(routed, routeLength / 2, false).toString();
+    }
+
+    @Benchmark
+    public String writeJson() {
+        return message.toString();
+    }
+
+    @Benchmark
+    public Object parseJson() throws ParseException {
+        return jsonParser.parse(json);
+    }
+
+    @Benchmark
+    public byte[] writeBinary() {
+        return ConveyorCodec.encode(message);
+    }
+
+    @Benchmark
+    public JSONObject parseBinary() {
+        return ConveyorCodec.decode(binary);
+    }
+
+    @Benchmark
+    public String writeEnvelope() {
+        return RouteStore.envelope(routed, routeLength / 2, false).toString();
+    }
+
+    @Benchmark
+    public Object parseEnvelope() throws ParseException {
+        return jsonParser.parse(envelopeJson);
+    }
+
+    // the route CNV1, CNV2, ... CNVlength
+    static JSONArray route(int length) {
+        JSONArray viaPoints = new JSONArray();
+        for (int i = 1; i <= length; i++) {
+            viaPoints.add("CNV" + i);
+        }
+        return viaPoints;
+    }
+}
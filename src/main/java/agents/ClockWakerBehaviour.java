@@ -0,0 +1,59 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.Agent;
+import jade.core.behaviours.SimpleBehaviour;
+
+/**
+ * One-shot behaviour run at a given time of the ConveyorClock, the clock-aware version of WakerBehaviour.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public abstract class ClockWakerBehaviour extends SimpleBehaviour {
+    private final long wakeUpTime;
+    private boolean finished = false;
+
+    public ClockWakerBehaviour(Agent a, long timeout) {
+        super(a);
+        wakeUpTime = ConveyorClock.getInstance().now() + timeout;
+    }
+
+    public void action() {
+        ConveyorClock clock = ConveyorClock.getInstance();
+        if (clock.now() < wakeUpTime) {
+            clock.wakeUpAt(this, wakeUpTime);
+            return;
+        }
+        onWake();
+        finished = true;
+    }
+
+    public boolean done() {
+        return finished;
+    }
+
+    protected abstract void onWake();
+}
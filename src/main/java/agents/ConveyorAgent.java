@@ -22,32 +22,34 @@
  Boston, MA  02111-1307, USA.
  *****************************************************************/
 
+
 package agents;
 
 import jade.core.AID;
 import jade.core.Agent;
-import jade.core.behaviours.Behaviour;
 import jade.core.behaviours.CyclicBehaviour;
-import jade.core.behaviours.WakerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.FIPAManagementVocabulary;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
-import jade.domain.FIPAException;
 import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
 import jade.util.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
  * This agent implements a model of a conveyor belt. It knows the following conveyor(s).
  * The agent is capable of driving a package through a network of conveyor belts.
+ * The conveyor itself is a ConveyorCore, the same one a ConveyorShardAgent runs for each conveyor it hosts:
+ * the agent registers it with the DF and hands it its messages.
  *
  * @author Luigi Catello, Mario Valentino
  */
@@ -59,17 +61,84 @@ public class ConveyorAgent extends Agent{
         Down
     }
 
-    // status of the conveyor
-    private Status conveyor_status;
-    public Status getConveyor_status() {return conveyor_status;}
-    // names of the conveyors following the agent
-    private List<String> neighbours = new ArrayList<>();
-    // seconds it takes the conveyor to transfer the pallet
-    private int transfer_time;
-    // whether the pallet is currently loaded
-    private boolean pallet_loaded;
+    // the requests understood by the conveyor, with the fields they must contain
+    enum RequestType {
+        GET_INFO("get_info"),
+        GET_ETA("get_eta"),
+        GET_METRICS("get_metrics"),
+        LOAD("load"),
+        UNLOAD("unload"),
+        SET_STATUS("set_status", "status"),
+        // the route is given by viaPoints, or by the route_id of a route already in the RouteStore
+        ROUTED_TRANSFER("routed_transfer", "source", "destination"),
+        TRANSFER("transfer", "source", "destination"),
+        RESERVE("reserve", "pallet_id", "arrival_ms"),
+        RELEASE("release", "pallet_id"),
+        DEADLOCK_PROBE("deadlock_probe", "initiator", "cycle", "exits"),
+        RESOLVE_DEADLOCK("resolve_deadlock", "cycle"),
+        ROUTE_UPDATE("route_update"),
+        ROUTE_REFRESH("route_refresh", "destination", "seq"),
+        ROUTE_INVALIDATE("route_invalidate", "conveyor", "origin", "seq"),
+        STATUS_EVENT("status_event", "status"),
+        HEARTBEAT("heartbeat", "status"),
+        ADD_NEIGHBOUR("add_neighbour", "neighbour"),
+        REMOVE_NEIGHBOUR("remove_neighbour", "neighbour"),
+        SET_TRANSFER_TIME("set_transfer_time", "transfer_time"),
+        DRAIN("drain");
+
+        private static final Map<String, RequestType> byName = new HashMap<>();
+        static {
+            for (RequestType type : values()) {
+                byName.put(type.requestName, type);
+            }
+        }
+
+        // value of the request_type field
+        final String requestName;
+        final String[] requiredFields;
+
+        RequestType(String requestName, String... requiredFields) {
+            this.requestName = requestName;
+            this.requiredFields = requiredFields;
+        }
+
+        // decodes the request_type field, null if the request is unknown
+        static RequestType of(Object requestName) {
+            return (requestName instanceof String) ? byName.get(requestName) : null;
+        }
+
+        // first required field missing from the request, null if the request is complete
+        String missingField(JSONObject request) {
+            for (String field : requiredFields) {
+                if (request.get(field) == null) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+
+    // failure detection: every conveyor sends a heartbeat to its predecessors each heartbeatMs (-Dconveyor.heartbeatMs,
+    // 0 turns it off), and a neighbour is suspected when the phi of its detector reaches phiThreshold
+    // (-Dconveyor.phiThreshold), after a silence of at least heartbeatPauseMs (-Dconveyor.heartbeatPauseMs).
+    // Shorter values detect sooner, with more false suspicions when the agents are loaded
+    static final long heartbeatMs = Long.getLong("conveyor.heartbeatMs", 1000L);
+    static final double phiThreshold = Double.parseDouble(System.getProperty("conveyor.phiThreshold", "8"));
+    static final long heartbeatPauseMs = Long.getLong("conveyor.heartbeatPauseMs", 3000L);
+    // load hand-off: time to wait for the answer of the next conveyor, pause between two tries, number of tries
+    static final long firstReplyTimeoutMs = 1000L;
+    static final long replyTimeoutMs = 2000L;
+    static final long retryDelayMs = 5000L;
+    static final long minRetryDelayMs = 200L;
+    static final int maxLoadAttempts = 3;
+    // conversation with the DF for the registration
+    private static final String dfRegistration = "-df-register";
 
     private Logger myLogger = Logger.getMyLogger(getClass().getName());
+    private ConveyorCore core;
+    // the agent gives a new copy of the DF AID on every call, and the answer of the DF is looked for in every message
+    private AID df;
 
     private class TransferControlBehaviour extends CyclicBehaviour {
 
@@ -77,304 +146,41 @@ public class ConveyorAgent extends Agent{
             super(a);
         }
 
+        // messages of the open conversations belong to other behaviours
+        private final MessageTemplate notInOpenConversation = new MessageTemplate(aclMessage -> !core.owns(aclMessage));
+
         public void action() {
-            ACLMessage msg = myAgent.receive();
-
-            if (msg != null){
-                ACLMessage reply = msg.createReply();
-
-                if (msg.getPerformative() == ACLMessage.NOT_UNDERSTOOD ||
-                         msg.getPerformative() == ACLMessage.AGREE ||
-                        (msg.getPerformative() == ACLMessage.INFORM && msg.getContent().contains("Transfer finished")) ||
-                        (msg.getPerformative() == ACLMessage.INFORM && msg.getContent().contains("viaPoints")) ||
-                         msg.getPerformative() == ACLMessage.FAILURE) {
-                    // do nothing
-                    // this check is done to prevent an infinite NOT_UNDERSTOOD loop conversation between two agents
-                }
-                else {
-                    if (msg.getPerformative() == ACLMessage.REQUEST) {
-                        String content = msg.getContent();
-                        try {
-                            JSONParser jsonParser = new JSONParser();
-                            JSONObject parsedRequest = (JSONObject) jsonParser.parse(content);
-                            // Replies with info on the agent
-                            if ((content != null) && ((parsedRequest.get("request_type"))).equals("get_info")) {
-                                JSONObject replyObject = new JSONObject();
-                                replyObject.put("Neighbours", neighbours);
-                                replyObject.put("TransferTime", transfer_time);
-                                replyObject.put("PalletLoaded", pallet_loaded);
-                                replyObject.put("Status", conveyor_status);
-
-                                reply.setPerformative(ACLMessage.INFORM);
-                                reply.setContent(replyObject.toString());
-                                send(reply);
-                            }
-                            // Load the pallet on the conveyor
-                            else if ((content != null) && ((parsedRequest.get("request_type"))).equals("load")) {
-                                if (conveyor_status == Status.Busy || pallet_loaded) {
-                                    reply.setPerformative(ACLMessage.FAILURE);
-                                    reply.setContent("Conveyor busy, cannot load!");
-                                    send(reply);
-                                    myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Busy, cannot load");
-                                }
-                                else if (conveyor_status == Status.Down) {
-                                    reply.setPerformative(ACLMessage.FAILURE);
-                                    reply.setContent("Conveyor down, cannot load!");
-                                    send(reply);
-                                    myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Down, cannot load");
-                                }
-                                else {
-                                    // Load the pallet, update the status
-                                    conveyor_status = Status.Busy;
-                                    pallet_loaded = true;
-                                    reply.setPerformative(ACLMessage.AGREE);
-                                    reply.setContent("Pallet loaded");
-                                    send(reply);
-                                    myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Pallet loaded");
-                                }
-                            }
-                            // Unload the pallet from the conveyor
-                            else if ((content != null) && ((parsedRequest.get("request_type"))).equals("unload")) {
-                                if (pallet_loaded && conveyor_status != Status.Down) {
-                                    reply.setPerformative(ACLMessage.AGREE);
-                                    reply.setContent("Pallet unloaded");
-                                    send(reply);
-                                    conveyor_status = Status.Idle;
-                                    pallet_loaded = false;
-                                    myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Pallet unloaded");
-                                }
-                                else {
-                                    reply.setPerformative(ACLMessage.FAILURE);
-                                    reply.setContent("Pallet not unloaded");
-                                    send(reply);
-                                    myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Pallet not unloaded");
-                                }
-                            }
-                            // Set the status of the conveyor
-                            else if ((content != null) && ((parsedRequest.get("request_type"))).equals("set_status")) {
-                                if (parsedRequest.get("status").equals("Idle")) {
-                                    reply.setPerformative(ACLMessage.AGREE);
-                                    reply.setContent("Setting status to Idle");
-                                    send(reply);
-                                    conveyor_status = Status.Idle;
-                                }
-                                else if (parsedRequest.get("status").equals("Busy")) {
-                                    reply.setPerformative(ACLMessage.AGREE);
-                                    reply.setContent("Setting status to Busy");
-                                    send(reply);
-                                    conveyor_status = Status.Busy;
-                                }
-                                else if (parsedRequest.get("status").equals("Down")) {
-                                    reply.setPerformative(ACLMessage.AGREE);
-                                    reply.setContent("Setting status to Down\nBravo six, going dark");
-                                    send(reply);
-                                    conveyor_status = Status.Down;
-                                }
-                                else {
-                                    reply.setPerformative(ACLMessage.FAILURE);
-                                    reply.setContent("Selected status is not valid");
-                                    send(reply);
-                                }
-                            }
-                            // Transfer a pallet knowing the route in advance
-                            // The request must contain the ordered array of the via points
-                            else if ((content != null) && ((parsedRequest.get("request_type"))).equals("routed_transfer")) {
-                                // the transfer can only occur if the pallet is loaded on the cnv
-                                if (pallet_loaded) {
-                                    JSONArray route = (JSONArray) parsedRequest.get("viaPoints");
-                                    myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Received route: " + route);
-                                    // Finds itself in the route and sends the pallet to the next one
-                                    for (int i = 0; i < route.size(); i++) {
-                                        if (((String) route.get(i)).equals(myAgent.getLocalName())) {
-                                            // If I am the last -> I don't have to transfer
-                                            if (i == (route.size() - 1)) {
-                                                myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Transfer finished");
-                                                // Inform the first conveyor that the transfer has finished.
-                                                ACLMessage transferFinishedMessage = new ACLMessage(ACLMessage.INFORM);
-                                                transferFinishedMessage.addReceiver(new AID((String) route.get(0), AID.ISLOCALNAME));
-                                                transferFinishedMessage.setContent("Transfer finished");
-                                                send(transferFinishedMessage);
-                                            }
-                                            else {
-                                                myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Transfer continuing");
-                                                // Transfer to the next conveyor (after waiting for transfer time)
-                                                // get next cnv
-                                                String nextCnv = (String) route.get(i + 1);
-                                                // while waiting for the transfer_time to pass, the cnv is busy
-                                                conveyor_status = Status.Busy;
-                                                int finalI = i; // Java :)
-
-                                                addBehaviour(new WakerBehaviour(myAgent, transfer_time*1000L) {
-                                                    protected void handleElapsedTimeout() {
-                                                        // Simulation: pallet unloaded and loaded on the following conveyor
-                                                        ACLMessage loadNextConveyor = new ACLMessage(ACLMessage.REQUEST);
-                                                        JSONObject loadMessage = new JSONObject();
-                                                        loadMessage.put("request_type", "load");
-                                                        loadNextConveyor.setContent(loadMessage.toString());
-                                                        // check that next conveyor in the route is actually a neighbour
-                                                        if (!neighbours.contains((String) route.get(finalI +1))){
-                                                            myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Next conveyor is not a neighbour");
-                                                            reply.setPerformative(ACLMessage.FAILURE);
-                                                            reply.setContent("Next conveyor is not a neighbour");
-                                                            send(reply);
-                                                        }
-                                                        else {
-                                                            loadNextConveyor.addReceiver(new AID((String) route.get(finalI + 1), AID.ISLOCALNAME));
-                                                            send(loadNextConveyor);
-                                                            myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Transferring the pallet to " + route.get(finalI + 1));
-
-                                                            // if the next cnv loads the pallet, send the transfer instruction
-                                                            long replyTimeoutMs = 1000L;
-
-                                                            // checking if the transfer was successful
-                                                            // message template for the reply
-                                                            MessageTemplate.MatchExpression agreeMessage = aclMessage ->
-                                                                    (aclMessage.getPerformative() == ACLMessage.AGREE) || (aclMessage.getPerformative() == ACLMessage.REFUSE);  // lambda expression D:
-                                                            // wait for an AGREE or REFUSE for replyTimeoutMs
-                                                            ACLMessage replyToLoad = myAgent.blockingReceive(new MessageTemplate(agreeMessage), replyTimeoutMs);
-                                                            // if the load was successful
-                                                            if ((replyToLoad != null) && (replyToLoad.getPerformative() == ACLMessage.AGREE)) {
-                                                                conveyor_status = Status.Idle;
-                                                                pallet_loaded = false;
-                                                                // After sending the pallet, send the route to the next conveyor
-                                                                ACLMessage truthSpreader = new ACLMessage(ACLMessage.REQUEST);
-                                                                truthSpreader.addReceiver(new AID((String) route.get(finalI + 1), AID.ISLOCALNAME));
-                                                                truthSpreader.setContent(msg.getContent());
-                                                                myAgent.send(truthSpreader);
-                                                                myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Spreading the truth...");
-                                                            }
-                                                            else {
-                                                                // load refused, try again three times
-                                                                boolean pallet_sent = false;
-                                                                for(int i=0; i<2;i++){
-                                                                    // wait 5s
-                                                                    doWait(5000L);
-                                                                    // the code is the same as above
-                                                                    send(loadNextConveyor);
-                                                                    MessageTemplate.MatchExpression agreeMessage2 = aclMessage ->
-                                                                            (aclMessage.getPerformative() == ACLMessage.AGREE) || (aclMessage.getPerformative() == ACLMessage.REFUSE);  // lambda expression D:
-                                                                    ACLMessage replyToLoad2 = myAgent.blockingReceive(new MessageTemplate(agreeMessage2), 2000L);
-                                                                   if ((replyToLoad2 != null) && (replyToLoad2.getPerformative() == ACLMessage.AGREE)) {
-                                                                       conveyor_status = Status.Idle;
-                                                                       pallet_loaded = false;
-                                                                       ACLMessage truthSpreader = new ACLMessage(ACLMessage.REQUEST);
-                                                                       truthSpreader.addReceiver(new AID((String) route.get(finalI + 1), AID.ISLOCALNAME));
-                                                                       truthSpreader.setContent(msg.getContent());
-                                                                       myAgent.send(truthSpreader);
-                                                                       myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Spreading the truth...");
-                                                                       // if the transfer is successful the agent can stop trying
-                                                                       pallet_sent = true;
-                                                                       break;
-                                                                   }
-                                                                }
-                                                                // if the transfer still is failing after 3 times
-                                                                if(!pallet_sent) {
-                                                                    // if we have rerouting permission, try to find a new route
-                                                                    if ((parsedRequest.get("reroute") != null) && (parsedRequest.get("reroute").equals("true"))) {
-                                                                        // sending a transfer message to itself with pathfinding request
-                                                                        JSONObject newTransferRequestObj = new JSONObject();
-                                                                        newTransferRequestObj.put("request_type", "transfer");
-                                                                        newTransferRequestObj.put("source", myAgent.getLocalName());
-                                                                        newTransferRequestObj.put("destination", parsedRequest.get("destination"));
-                                                                        ACLMessage newTransferRequestMsg = new ACLMessage(ACLMessage.REQUEST);
-                                                                        newTransferRequestMsg.setContent(newTransferRequestObj.toString());
-                                                                        newTransferRequestMsg.addReceiver(myAgent.getAID());
-                                                                        send(newTransferRequestMsg);
-                                                                        myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Trying to reroute...");
-
-                                                                    }
-                                                                }
-                                                            }
-                                                        }
-                                                    }
-                                                });
-                                                // exit from the loop that finds the agent in the route
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                                // if the pallet is not loaded
-                                else {
-                                    reply.setPerformative(ACLMessage.FAILURE);
-                                    reply.setContent("Cannot proceed, pallet not loaded");
-                                    myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Cannot proceed, pallet not loaded");
-                                    send(reply);
-                                }
-                            }
-                            //Transfer the pallet via the best path, knowing only the source and the destination
-                            else if ((content != null) && ((parsedRequest.get("request_type"))).equals("transfer")) {
-                                if (pallet_loaded && parsedRequest.get("source").equals(myAgent.getLocalName())) {
-                                    // add empty viaPoints array to parsedRequest
-                                    JSONArray viaPoints = new JSONArray();
-                                    parsedRequest.put("viaPoints", viaPoints);
-                                    // call BestPath and transfer automatically after finding the route
-                                    addBehaviour(new BestPath(myAgent, parsedRequest, myAgent.getAID(), true, true));
-                                }
-                                // if the pallet is not loaded
-                                else {
-                                    reply.setPerformative(ACLMessage.FAILURE);
-                                    if(parsedRequest.get("source").equals(myAgent.getLocalName())) {
-                                        reply.setContent("Cannot proceed, request sent to wrong agent");
-                                    }
-                                    else{
-                                        reply.setContent("Cannot proceed, pallet not loaded");
-                                    }
-                                    myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Cannot proceed, pallet not loaded");
-                                    send(reply);
-                                }
-                            }
-                            else {
-                                reply.setPerformative(ACLMessage.FAILURE);
-                                reply.setContent("Could not understand the request");
-                                send(reply);
-                            }
-                        } catch (ParseException e) {
-                            myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Request not understood - received from " + msg.getSender().getLocalName());
-                            reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
-                            reply.setContent("Request not understood");
-                            //e.printStackTrace();
-                            send(reply);
-                        } catch (NullPointerException e) {
-                            // exception that happens when the JSON message does not contain the right attributes
-                            myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - syntax error in message content");
-                            // e.printStackTrace();
-                        }
-
-                    }
-                    // either starting a Pathfinding or participating in a pathfinding
-                    else if ((msg.getPerformative() == ACLMessage.CFP) || (msg.getPerformative() == ACLMessage.PROPAGATE)) {
-                        try {
-                            String content = msg.getContent();
-                            JSONParser jsonParser = new JSONParser();
-                            JSONObject jsonObject = (JSONObject) jsonParser.parse(content);
-                            // start the BestPath behaviour. If the performative is CFP, then it's the first message (SOC = true)
-                            addBehaviour(new BestPath(myAgent, jsonObject, msg.getSender(), (msg.getPerformative() == ACLMessage.CFP)));
-                            myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Received path finding request: " + jsonObject.toString());
-                        } catch (ParseException e) {
-                            e.printStackTrace();
-                        }
-
-                    }
-                    // if the performative is none of the above
-                    else {
-                        //myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Unexpected message [" + ACLMessage.getPerformative(msg.getPerformative()) + "] received from "+msg.getSender().getLocalName());
-                        reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
-                        reply.setContent("( (Unexpected-act " + ACLMessage.getPerformative(msg.getPerformative()) + ") )");
-                        send(reply);
-                    }
-                }
-            }
-            else {
+            ACLMessage msg = receive(notInOpenConversation);
+            if (msg == null) {
                 // wait for a message to arrive
                 block();
+                return;
             }
+            core.count(msg);
+            dispatch(msg);
         }
     }
 
+    // handles a message that belongs to no open conversation: TransferControlBehaviour calls it for each one it
+    // receives, the dispatch benchmark calls it directly
+    void dispatch(ACLMessage msg) {
+        // the answer of the DF to the registration
+        if ((getLocalName() + dfRegistration).equals(msg.getConversationId()) && msg.getSender().equals(df)) {
+            if (msg.getPerformative() == ACLMessage.FAILURE || msg.getPerformative() == ACLMessage.REFUSE) {
+                myLogger.log(Logger.SEVERE, "Agent " + getLocalName() + " - Cannot register with DF: " + msg.getContent());
+                doDelete();
+            }
+            return;
+        }
+        core.dispatch(msg);
+    }
+
+    public Status getConveyor_status() {return core.getConveyor_status();}
 
     protected void setup() {
-        // Registration with the DF
+        df = getDefaultDF();
+        // Registration with the DF. The request is sent without waiting for the answer: the conveyors of a
+        // large layout do not start one DF round trip after the other
         DFAgentDescription dfd = new DFAgentDescription();
         ServiceDescription sd = new ServiceDescription();
         sd.setType("ConveyorAgent");
@@ -382,233 +188,107 @@ public class ConveyorAgent extends Agent{
         sd.setOwnership("Group 15");
         dfd.setName(getAID());
         dfd.addServices(sd);
-        try {
-            DFService.register(this,dfd);
-
-            TransferControlBehaviour ConveyorBehaviour = new TransferControlBehaviour(this);
-            addBehaviour(ConveyorBehaviour);
-
-        } catch (FIPAException e) {
-            myLogger.log(Logger.SEVERE, "Agent " + getLocalName()+" - Cannot register with DF", e);
-            doDelete();
-        }
-
-        // agent starts as idling
-        conveyor_status = Status.Idle;
-        pallet_loaded = false;
-        // getting the neighbours and the transfer time from the args
+        ACLMessage registerMsg = DFService.createRequestMessage(this, df, FIPAManagementVocabulary.REGISTER, dfd, null);
+        registerMsg.setConversationId(getLocalName() + dfRegistration);
+        send(registerMsg);
+
+        // getting the neighbours, the transfer time and the capacity (1 if missing) from the args
+        List<String> neighbours = new ArrayList<>();
+        int transferTime = 0;
+        int capacity = 1;
         Object[] args = getArguments();
         if (args != null && args.length > 0) {
-            for(int i = 0; i< ((Object[])args[0]).length; i++){
-                neighbours.add( ((Object[])args[0])[i].toString());
+            for (Object neighbour : (Object[]) args[0]) {
+                neighbours.add(neighbour.toString());
+            }
+            transferTime = (int) ((Object[]) args[1])[0];
+            if (args.length > 2) {
+                capacity = (int) ((Object[]) args[2])[0];
             }
-            transfer_time = (int) ((Object[])args[1])[0];
         }
-    }
-
-
-
-    // -------------------------------------------------------------------------------------------------- //
-
+        // the conveyor is the only one of the agent, and follows its neighbours through the DF
+        core = new ConveyorCore(this, new ConveyorCore.Host() {
+            public void send(ACLMessage msg) {
+                ConveyorAgent.this.send(msg);
+            }
 
-    // behaviour to ask look for the best path
-    private class BestPath extends Behaviour {
-        // message containing the information about the path: source, destination and viaPoints
-        JSONObject msg;
-        // sender of the original message. Used to communicate the best path and instantiate transfer request
-        AID sender = null;
-        // internal variable for Done() method
-        private boolean isDone = false;
-        // StartOfCommunication flag. Distinguish between the original pathfinding request and the propagation of the message
-        private boolean SOC = false;
-        // flag to request for transfer after finding the best path
-        private boolean transferAfterFindingRoute = false;
+            public boolean hosts(String conveyor) {
+                return false;
+            }
 
-        public BestPath(Agent a, JSONObject s) {
-            super(a);
-            msg = s;
-        }
+            public boolean watchesDirectory() {
+                return true;
+            }
+        }, new Layout.ConveyorSpec(getLocalName(), neighbours, transferTime, capacity));
+        addBehaviour(new TransferControlBehaviour(this));
+        core.start();
+    }
 
-        public BestPath(Agent a, JSONObject s, boolean SOC) {
-            this(a,s);
-            this.SOC = SOC;
-        }
+    protected void takeDown() {
+        core.stop();
+        // the neighbours learn from the DF that this conveyor is gone
+        DFAgentDescription dfd = new DFAgentDescription();
+        dfd.setName(getAID());
+        send(DFService.createRequestMessage(this, df, FIPAManagementVocabulary.DEREGISTER, dfd, null));
+    }
 
-        public BestPath(Agent a, JSONObject s, AID sender, boolean SOC) {
-            this(a,s,SOC);
-            this.sender = sender;
-        }
+    static long longField(JSONObject request, String field) {
+        Object value = request.get(field);
+        return (value instanceof Number) ? ((Number) value).longValue() : 0;
+    }
 
-        public BestPath(Agent a, JSONObject s, AID sender, boolean SOC, boolean transferAfterFindingRoute) {
-            this(a,s,sender,SOC);
-            this.transferAfterFindingRoute = transferAfterFindingRoute;
+    // notice of a transfer that will not reach its destination, sent to the agent to notify. conveyor is where the
+    // pallet stopped, null if it is not known
+    static JSONObject transferFailedEvent(JSONObject request, String conveyor, String reason) {
+        JSONObject failedObj = new JSONObject();
+        failedObj.put("event", "transfer_failed");
+        failedObj.put("pallet_id", request.get("pallet_id"));
+        failedObj.put("destination", request.get("destination"));
+        if (conveyor != null) {
+            failedObj.put("conveyor", conveyor);
         }
+        failedObj.put("reason", reason);
+        return failedObj;
+    }
 
-        // @unused variable for timeout
-//        boolean timeoutElapsed = false;
-
-        public void action() {
-            //Check the format of the message
-            if ((msg.get("source") == null) || (msg.get("destination") == null) || (msg.get("viaPoints") == null)) {
-                myLogger.log(Logger.WARNING, myAgent.getLocalName() + " - Wrong format");
-                isDone = true;
-                return;
-            }
 
 
-            // Start of conversation: the received message is a CFP
-            if (SOC) {
-                // If I am the source, I can proceed with the algorithm
-                if (msg.get("source").equals(myAgent.getLocalName())) {
-                    // start timer
-                    long timeoutMs = 1000L;
-
-                    // propagate message to neighbours
-                    // add myself to viaPoints array
-                    ((JSONArray) msg.get("viaPoints")).add(myAgent.getLocalName());
-                    ACLMessage propagateMsg = new ACLMessage(ACLMessage.PROPAGATE);
-                    // add receivers to message
-                    for (String n : neighbours) {
-                        propagateMsg.addReceiver(new AID(n, AID.ISLOCALNAME));
-                    }
-                    // set the content
-                    propagateMsg.setContent(msg.toString());
-                    // send the message
-                    myAgent.send(propagateMsg);
-
-                    // busy waiting for the incoming messages
-                    List<JSONObject> messages = new ArrayList<>();
-                    conveyor_status = Status.Busy;
-                    // WakerBehaviour didn't work
-//                  WakerBehaviour wakerBehaviour = new WakerBehaviour(myAgent, timeoutMs) {
-//                    @Override
-//                    protected void handleElapsedTimeout() {
-//                        timeoutElapsed = true;
-//                        myLogger.log(Logger.INFO, myAgent.getLocalName() + " - Timeout elapsed, it's time to take a look at the answers!");
-//                    }
-//                };
-//                addBehaviour(wakerBehaviour);
-                    long wakeUpTime = System.currentTimeMillis() + timeoutMs;
-                    myLogger.log(Logger.INFO, myAgent.getLocalName() + " - Polling paths...");
-
-                    while (System.currentTimeMillis() < wakeUpTime) {
-                        // filter only INFORM messages
-                        MessageTemplate.MatchExpression recvMessage = aclMessage -> (aclMessage.getPerformative() == ACLMessage.INFORM);  // lambda expression D:
-
-                        ACLMessage rec = myAgent.receive(new MessageTemplate(recvMessage));
-                        if (rec != null && rec.getPerformative() == ACLMessage.INFORM) {
-                            try {
-                                JSONParser jsonParser = new JSONParser();
-                                // add the path found to the messages list
-                                messages.add((JSONObject) jsonParser.parse(rec.getContent()));
-                            } catch (ParseException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                    }
-                    // if no replies
-                    if (messages.isEmpty()) {
-                        if(sender != null) {
-                            ACLMessage noPathMsg = new ACLMessage(ACLMessage.FAILURE);
-                            noPathMsg.setContent("Failed to find a path for the request\n" + msg);
-                            noPathMsg.addReceiver(sender);
-                            myAgent.send(noPathMsg);
-                        }
-                        myLogger.log(Logger.WARNING, myAgent.getLocalName() + " - Received no replies while looking for path from " + msg.get("source") + " to " + msg.get("destination"));
-                    }
-                    else {
-                        // compare all the possible path
-                        JSONObject bestPath = (JSONObject) messages.get(0);
-                        int minLength = ((JSONArray) messages.get(0).get("viaPoints")).size();
-                        for (JSONObject path : messages) {
-                            int pathLength = ((JSONArray) path.get("viaPoints")).size();
-                            if (pathLength < minLength) {
-                                bestPath = path;
-                                minLength = pathLength;
-                            }
-                        }
-                        // best path found, if we know who is the sender, we inform it of the result
-                        if (sender != null) {
-                            ACLMessage pathFound = new ACLMessage();
-                            pathFound.addReceiver(sender);
-                            // if requested, we ask the sender to start the transfer
-                            if (transferAfterFindingRoute) {
-                                pathFound.setPerformative(ACLMessage.REQUEST);
-                                bestPath.replace("request_type", "routed_transfer");
-                                bestPath.put("reroute","true");
-                            }
-                            else {
-                                pathFound.setPerformative(ACLMessage.INFORM);
-                                bestPath.remove("request_type");
-                            }
-                            pathFound.setContent(bestPath.toString());
-                            send(pathFound);
-                        }
-                        myLogger.log(Logger.INFO, myAgent.getLocalName() + " - found best path (with lenght " + minLength + "): " + bestPath.toString());
-                    }
-                    conveyor_status = Status.Idle;
-                    isDone = true;
-                }
-                // SOC was sent to a CNV that is not the source, forward the message to the right agent
-                else {
-                    ACLMessage forward = new ACLMessage(ACLMessage.CFP);
-                    forward.setContent(msg.toString());
-                    forward.addReceiver(new AID(msg.get("source").toString(), AID.ISLOCALNAME));
-                    send(forward);
-                    myLogger.log(Logger.WARNING, myAgent.getLocalName() + " - The PathFinding request was sent to the wrong agent - Rerouting request ...");
-                    isDone = true;
-                }
+    // the conveyors of the cycle having a neighbour out of it, in name order
+    static List<String> deadlockCandidates(JSONArray cycle, Map<?, ?> exits) {
+        List<String> candidates = new ArrayList<>();
+        for (Map.Entry<?, ?> entry : exits.entrySet()) {
+            if (!cycle.contains(entry.getKey())) {
+                continue;
             }
-            // I am destination
-            else if (msg.get("destination").equals(myAgent.getLocalName())) {
-                // Propagate only if the conveyor is idle, if not the path is not valid
-                if (((ConveyorAgent) myAgent).getConveyor_status() == Status.Idle) {
-                    // destination cnv is added to viaPoints
-                    ((JSONArray) msg.get("viaPoints")).add(myAgent.getLocalName());
-                    // send full list to source
-                    // create message
-                    ACLMessage fullList = new ACLMessage(ACLMessage.INFORM);
-                    // find target
-                    AID targetAID = new AID((String) msg.get("source"), AID.ISLOCALNAME);
-                    // send the message
-                    fullList.addReceiver(targetAID);
-                    fullList.setContent(msg.toString());
-                    send(fullList);
-
-                    myLogger.log(Logger.INFO, myAgent.getLocalName() + " - I am the destination. Sending the full list to source.");
-                    isDone = true;
-                }
-            }
-            // I am part of the path
-            else {
-                // Propagate only if the conveyor is idle, if not the path is not valid
-                if (((ConveyorAgent) myAgent).getConveyor_status() == Status.Idle) {
-                    // let's check if the CNV is already in the viaPoints array
-                    if (((JSONArray) msg.get("viaPoints")).contains(myAgent.getLocalName())) {
-                        // already in the array -> pathfinder is stuck in a loop
-                        isDone = true;
-                        return;
-                        // do not send any message
-                    }
-                    // add myself to viaPoints array
-                    ((JSONArray) msg.get("viaPoints")).add(myAgent.getLocalName());
-                    // propagate the message
-                    ACLMessage propagateMsg = new ACLMessage(ACLMessage.PROPAGATE);
-                    // send the message to all the neighbours
-                    for (String n : neighbours) {
-                        propagateMsg.addReceiver(new AID(n, AID.ISLOCALNAME));
-                    }
-                    propagateMsg.setContent(msg.toString());
-                    myAgent.send(propagateMsg);
-                    myLogger.log(Logger.INFO, myAgent.getLocalName() + " - Adding myself to the list and propagating the message.");
-                    isDone = true;
+            for (Object n : (List<?>) entry.getValue()) {
+                if (!cycle.contains(n)) {
+                    candidates.add(entry.getKey().toString());
+                    break;
                 }
             }
         }
+        Collections.sort(candidates);
+        return candidates;
+    }
+
 
-        public boolean done() {
-            return isDone;
+    // the path that takes the least time among the ones collected, the first one on a tie
+    static JSONObject cheapestPath(List<JSONObject> paths) {
+        JSONObject bestPath = paths.get(0);
+        long minCost = costOf(bestPath);
+        for (JSONObject path : paths) {
+            long pathCost = costOf(path);
+            if (pathCost < minCost) {
+                bestPath = path;
+                minCost = pathCost;
+            }
         }
+        return bestPath;
+    }
+
+    // total transfer time of a (partial) path
+    static long costOf(JSONObject path) {
+        Object cost = path.get("cost");
+        return (cost == null) ? 0 : ((Number) cost).longValue();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,66 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.behaviours.Behaviour;
+
+/**
+ * Source of time for the conveyors. All the timing of the conveyors (transfer times, waits between two
+ * tries, reply timeouts) goes through the clock, so the same agents can run on the wall clock or in a
+ * discrete-event simulation where the time jumps from one event to the next.
+ * The clock is shared by all the agents of the JVM and chosen with -Dconveyor.clock={real, simulated}.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public abstract class ConveyorClock {
+
+    private static ConveyorClock instance;
+
+    public static synchronized ConveyorClock getInstance() {
+        if (instance == null) {
+            instance = "simulated".equals(System.getProperty("conveyor.clock")) ? new SimulatedClock() : new RealTimeClock();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the current time in milliseconds.
+     */
+    public abstract long now();
+
+    /**
+     * Blocks the behaviour until the given time. As with block(), the behaviour is also woken up
+     * by the messages arriving before that time, so it must check the time again when it runs.
+     * Must be called by the behaviour itself, from its action().
+     */
+    public abstract void wakeUpAt(Behaviour behaviour, long time);
+
+    /**
+     * Tells the clock that an agent is working, e.g. handling a message. The simulated time only moves
+     * forward when the agents have nothing left to do at the current time.
+     */
+    public void activity() {
+    }
+}
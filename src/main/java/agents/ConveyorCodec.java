@@ -0,0 +1,399 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary encoding of the conveyor messages, used between conveyors instead of the JSON text.
+ * The well known fields (request type, source, destination, route, costs...) have a fixed slot announced
+ * by a presence bitmap; conveyor names are written once in a table at the head of the message and
+ * referenced by their index, so a route costs one byte per hop. Any other field is kept as JSON text.
+ * Decoding produces the same JSONObject the JSON parser would, so the request handlers do not change.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class ConveyorCodec {
+    // value of the ACL language slot for the messages encoded by this class
+    public static final String LANGUAGE = "conveyor-binary";
+    // value of the ACL encoding slot, bumped when the layout changes
+    public static final String ENCODING = "v2";
+    // user defined ACL parameter announcing the languages a conveyor accepts
+    public static final String ACCEPT_PARAMETER = "accept-language";
+
+    private static final int VERSION = 2;
+
+    // fields with a fixed slot: the position in the array is the bit in the presence bitmap
+    private static final String[] FIELDS = {
+            "request_type", "source", "destination", "viaPoints", "cost", "reroute", "bound",
+            "heuristic", "avoid", "status", "eta_ms", "routes", "withdrawn"
+    };
+    private enum Kind {NAME, NAME_LIST, NUMBER, FLAG, ROUTES}
+    private static final Kind[] KINDS = {
+            Kind.NAME, Kind.NAME, Kind.NAME, Kind.NAME_LIST, Kind.NUMBER, Kind.FLAG, Kind.NUMBER,
+            Kind.FLAG, Kind.NAME_LIST, Kind.NAME, Kind.NUMBER, Kind.ROUTES, Kind.NAME_LIST
+    };
+    private static final Map<String, Integer> FIELD_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < FIELDS.length; i++) {
+            FIELD_INDEX.put(FIELDS[i], i);
+        }
+    }
+
+    // canonical instance of the decoded names, shared by all the agents of the JVM. The table is bounded, so that
+    // messages full of made-up names cannot fill the memory: once full, the new names are not shared
+    private static final int MAX_INTERNED_NAMES = 1 << 16;
+    private static final Map<String, String> internedNames = new ConcurrentHashMap<>();
+
+    private ConveyorCodec() {
+    }
+
+    public static byte[] encode(JSONObject message) {
+        // names first: they are written before the fields that reference them
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> nameIds = new HashMap<>();
+        int presence = 0;
+        List<Map.Entry<?, ?>> extras = new ArrayList<>();
+        for (Object o : message.entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            Integer index = FIELD_INDEX.get(entry.getKey());
+            if (index != null && fits(KINDS[index], entry.getValue())) {
+                presence |= 1 << index;
+                collectNames(KINDS[index], entry.getValue(), names, nameIds);
+            }
+            else {
+                extras.add(entry);
+            }
+        }
+
+        Buffer out = new Buffer();
+        out.writeByte(VERSION);
+        out.writeVarint(names.size());
+        for (String name : names) {
+            out.writeString(name);
+        }
+        out.writeVarint(presence);
+        for (int i = 0; i < FIELDS.length; i++) {
+            if ((presence & (1 << i)) == 0) {
+                continue;
+            }
+            Object value = message.get(FIELDS[i]);
+            switch (KINDS[i]) {
+                case NAME:
+                    out.writeVarint(nameIds.get(value));
+                    break;
+                case NAME_LIST:
+                    writeNameList(out, (List<?>) value, nameIds);
+                    break;
+                case NUMBER:
+                    out.writeSignedVarint(((Number) value).longValue());
+                    break;
+                case FLAG:
+                    out.writeByte("true".equals(value) ? 1 : 0);
+                    break;
+                case ROUTES:
+                    Map<?, ?> routes = (Map<?, ?>) value;
+                    out.writeVarint(routes.size());
+                    for (Map.Entry<?, ?> route : routes.entrySet()) {
+                        out.writeVarint(nameIds.get(route.getKey()));
+                        out.writeSignedVarint(((Number) ((Map<?, ?>) route.getValue()).get("cost")).longValue());
+                        out.writeSignedVarint(((Number) ((Map<?, ?>) route.getValue()).get("seq")).longValue());
+                    }
+                    break;
+            }
+        }
+        out.writeVarint(extras.size());
+        for (Map.Entry<?, ?> entry : extras) {
+            out.writeString(String.valueOf(entry.getKey()));
+            out.writeString(JSONValue.toJSONString(entry.getValue()));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a message built by encode().
+     *
+     * @throws IllegalArgumentException if the content is not a valid message
+     */
+    public static JSONObject decode(byte[] content) {
+        if (content == null || content.length == 0) {
+            throw new IllegalArgumentException("Empty content");
+        }
+        try {
+            Reader in = new Reader(content);
+            if (in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Unknown version");
+            }
+            String[] names = new String[in.readCount()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = intern(in.readString());
+            }
+            int presence = in.readVarint();
+            JSONObject message = new JSONObject();
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((presence & (1 << i)) == 0) {
+                    continue;
+                }
+                switch (KINDS[i]) {
+                    case NAME:
+                        message.put(FIELDS[i], names[in.readVarint()]);
+                        break;
+                    case NAME_LIST:
+                        message.put(FIELDS[i], readNameList(in, names));
+                        break;
+                    case NUMBER:
+                        message.put(FIELDS[i], in.readSignedVarint());
+                        break;
+                    case FLAG:
+                        message.put(FIELDS[i], in.readByte() == 1 ? "true" : "false");
+                        break;
+                    case ROUTES:
+                        JSONObject routes = new JSONObject();
+                        int count = in.readCount();
+                        for (int r = 0; r < count; r++) {
+                            String destination = names[in.readVarint()];
+                            JSONObject route = new JSONObject();
+                            route.put("cost", in.readSignedVarint());
+                            route.put("seq", in.readSignedVarint());
+                            routes.put(destination, route);
+                        }
+                        message.put(FIELDS[i], routes);
+                        break;
+                }
+            }
+            int extras = in.readCount();
+            for (int i = 0; i < extras; i++) {
+                String key = in.readString();
+                message.put(key, JSONValue.parse(in.readString()));
+            }
+            return message;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated content", e);
+        }
+    }
+
+    // whether the value can be written in the fixed slot of the field
+    private static boolean fits(Kind kind, Object value) {
+        switch (kind) {
+            case NAME:
+                return value instanceof String;
+            case NAME_LIST:
+                return isNameList(value);
+            case NUMBER:
+                return (value instanceof Long) || (value instanceof Integer);
+            case FLAG:
+                return "true".equals(value) || "false".equals(value);
+            case ROUTES:
+                if (!(value instanceof Map)) {
+                    return false;
+                }
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    if (!(entry.getValue() instanceof Map)) {
+                        return false;
+                    }
+                    Map<?, ?> route = (Map<?, ?>) entry.getValue();
+                    if (!(entry.getKey() instanceof String) || !fits(Kind.NUMBER, route.get("cost"))
+                            || !fits(Kind.NUMBER, route.get("seq"))) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isNameList(Object value) {
+        if (!(value instanceof List)) {
+            return false;
+        }
+        for (Object name : (List<?>) value) {
+            if (!(name instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void collectNames(Kind kind, Object value, List<String> names, Map<String, Integer> nameIds) {
+        switch (kind) {
+            case NAME:
+                addName((String) value, names, nameIds);
+                break;
+            case NAME_LIST:
+                for (Object name : (List<?>) value) {
+                    addName((String) name, names, nameIds);
+                }
+                break;
+            case ROUTES:
+                for (Object destination : ((Map<?, ?>) value).keySet()) {
+                    addName((String) destination, names, nameIds);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void addName(String name, List<String> names, Map<String, Integer> nameIds) {
+        if (!nameIds.containsKey(name)) {
+            nameIds.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    private static void writeNameList(Buffer out, List<?> list, Map<String, Integer> nameIds) {
+        out.writeVarint(list.size());
+        for (Object name : list) {
+            out.writeVarint(nameIds.get(name));
+        }
+    }
+
+    private static JSONArray readNameList(Reader in, String[] names) {
+        int size = in.readCount();
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            list.add(names[in.readVarint()]);
+        }
+        return list;
+    }
+
+    private static String intern(String name) {
+        String interned = internedNames.get(name);
+        if (interned != null) {
+            return interned;
+        }
+        if (internedNames.size() >= MAX_INTERNED_NAMES) {
+            return name;
+        }
+        interned = internedNames.putIfAbsent(name, name);
+        return (interned != null) ? interned : name;
+    }
+
+    // growable output buffer, no synchronisation (unlike ByteArrayOutputStream)
+    private static class Buffer {
+        private byte[] bytes = new byte[64];
+        private int size = 0;
+
+        void writeByte(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        // zig-zag encoding, so that -1 takes one byte
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String s) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            for (byte b : utf8) {
+                writeByte(b);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            return bytes[position++] & 0xFF;
+        }
+
+        int readVarint() {
+            long value = readUnsignedVarint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Value out of range");
+            }
+            return (int) value;
+        }
+
+        // number of elements following, each one taking at least a byte: a larger count is a forged length
+        int readCount() {
+            int count = readVarint();
+            if (count > bytes.length - position) {
+                throw new IllegalArgumentException("Length out of range");
+            }
+            return count;
+        }
+
+        long readSignedVarint() {
+            long value = readUnsignedVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = readVarint();
+            if (position + length > bytes.length) {
+                throw new IllegalArgumentException("Truncated content");
+            }
+            String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        private long readUnsignedVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,2583 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.Behaviour;
+import jade.core.behaviours.TickerBehaviour;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAException;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.util.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * One conveyor belt: its pallets, routing table, reservations, hand-offs, path finding and metrics, and the
+ * handlers of every request and notification of the conveyor protocol. A ConveyorAgent runs a single core;
+ * a ConveyorShardAgent runs one core per hosted conveyor on its own thread, so a hosted conveyor answers
+ * exactly like a conveyor agent.
+ * The behaviours of the core are added to the agent running it, and every message it sends carries the
+ * name of the conveyor as sender. The agent hands the core the messages addressed to the conveyor that
+ * belong to none of its open conversations (see owns()); the answers of its conversations are received by
+ * the behaviours waiting for them.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class ConveyorCore {
+
+    /**
+     * What a conveyor needs from the agent running it.
+     */
+    interface Host {
+        // delivers a message of the conveyor, its sender already set
+        void send(ACLMessage msg);
+
+        // true if the conveyor is run by the same agent: it cannot fail on its own, so it gets no heartbeats
+        boolean hosts(String conveyor);
+
+        // whether the conveyor follows its neighbours through the DF too, besides their heartbeats
+        boolean watchesDirectory();
+    }
+
+    // executes a request. The reply is already addressed to the sender of the request
+    private interface RequestHandler {
+        void handle(ACLMessage msg, JSONObject request, ACLMessage reply);
+    }
+
+    // handles a notification (PROPAGATE) from another conveyor, no reply is expected
+    private interface NotificationHandler {
+        void handle(String sender, JSONObject notification);
+    }
+
+    // a pallet on the conveyor, with the route it follows once known
+    private static class Pallet {
+        final String id;
+        final long loadTime;
+        // routed_transfer request of the pallet, with its route and hop, and its reply. Null until the route is known
+        JSONObject request;
+        ACLMessage reply;
+        String nextCnv;
+
+        Pallet(String id, long loadTime) {
+            this.id = id;
+            this.loadTime = loadTime;
+        }
+    }
+
+    // agent running the behaviours of the conveyor, and delivering its messages
+    private final Agent agent;
+    private final Host host;
+    // the DF, whose notifications are looked for in every message dispatched
+    private final AID df;
+    // name of the conveyor, and its address: the AID of the agent, or an alias of the shard
+    private final String name;
+    private final AID aid;
+    // status of the conveyor
+    private ConveyorAgent.Status conveyor_status = ConveyorAgent.Status.Idle;
+    // names of the conveyors following this one
+    private List<String> neighbours = new ArrayList<>();
+    // seconds it takes the conveyor to transfer the pallet
+    private int transfer_time;
+    // pallets on the conveyor in arrival order, the first one is the next to leave
+    private Deque<Pallet> pallets = new ArrayDeque<>();
+    // number of pallets the conveyor can hold at the same time
+    private int capacity = 1;
+    private int palletCounter = 0;
+    // pipelined mode (-Dconveyor.entryZone=0.5): a new pallet can enter as soon as the last one has covered
+    // this fraction of the conveyor, even if the first one is still waiting to leave. Read when the conveyor
+    // is created, so that the conveyors started later can run in another mode
+    private final double entryZone = Double.parseDouble(System.getProperty("conveyor.entryZone", "0"));
+    private final boolean pipelined = (entryZone > 0) && (entryZone < 1);
+    // when the last pallet left the conveyor, the following one leaves at least one entry zone later
+    private long lastDepartureTime = 0;
+    // slots booked by the pallets that will cross the conveyor, with a margin for the hand-off
+    private final SlotCalendar calendar = new SlotCalendar();
+    private static final long slotMarginMs = 500L;
+    // a source tries to book the whole route this many times before starting without reservation
+    private static final int maxReservationAttempts = 3;
+    // hand-off of the first pallet, null while it is not moving, and when it will try to move it to the next conveyor
+    private HandOffBehaviour activeHandOff;
+    private long handOffTime;
+    // answer to the drain request of the layout builder, sent once the last pallet is unloaded
+    private ACLMessage drainReply;
+    // best routes towards every reachable conveyor, built from the advertisements of the neighbours
+    private final RoutingTable routingTable;
+    // AIDs of the neighbours and of the conveyors preceding this one, which receive its routing advertisements
+    private final NeighbourDirectory directory = new NeighbourDirectory();
+    // conversations with the DF: the subscription to each neighbour
+    static final String dfSubscriptionPrefix = "-df-";
+    // neighbours that did not answer to the routing subscription yet, and the behaviour asking them again
+    private Set<String> pendingSubscriptions = new HashSet<>();
+    private TickerBehaviour subscriptionTicker;
+    // neighbours followed through the DF
+    private Set<String> watchedNeighbours = new HashSet<>();
+    // status pushed by the neighbours and their heartbeats, and the status this conveyor last pushed to its predecessors
+    private final NeighbourMonitor monitor = new NeighbourMonitor();
+    private ConveyorAgent.Status publishedStatus = ConveyorAgent.Status.Idle;
+    private HeartbeatBehaviour heartbeat;
+    // full paths traced or flooded for the recent transfers started by this conveyor, dropped when a conveyor on
+    // them changes status or the table changes the next hop
+    private static final int routeCacheSize = 64;
+    private final RouteCache routeCache = new RouteCache(routeCacheSize);
+    // sequence number of the route invalidations sent by this conveyor, and last one received from every conveyor
+    private long invalidationSeq = 0;
+    private Map<String, Long> lastInvalidation = new HashMap<>();
+    // sequence number of the last route refresh forwarded towards each destination
+    private Map<String, Long> refreshesForwarded = new HashMap<>();
+    // destinations whose route changed and is not advertised yet, and the behaviour that will advertise them
+    private static final long advertiseDelayMs = 50L;
+    private final Set<String> changedRoutes = new HashSet<>();
+    private ClockWakerBehaviour advertiser;
+    // conversations whose messages are received by a dedicated behaviour and not handed to dispatch()
+    private Set<String> openConversations = new HashSet<>();
+    // pathfinding searches started by this conveyor and still collecting paths
+    private List<BestPath> activeSearches = new ArrayList<>();
+    private int conversationCounter = 0;
+    // maximum time spent collecting paths, and silence after the last path that ends the collection
+    private static final long timeoutMs = 1000L;
+    private static final long quietPeriodMs = 200L;
+    // lowest cost forwarded for the recent pathfinding conversations, a more expensive partial path is dropped
+    private Map<String, Long> forwardedCosts = new LinkedHashMap<String, Long>() {
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > 1024;
+        }
+    };
+    // in a bounded flood, paths costing more than (1 + heuristicSlack) times the table estimate are not explored
+    private static final double heuristicSlack = 0.5;
+
+    private Logger myLogger = Logger.getMyLogger(getClass().getName());
+    // wall clock, or virtual clock of the simulation (-Dconveyor.clock=simulated)
+    private final ConveyorClock clock = ConveyorClock.getInstance();
+    // the agent runs one behaviour at a time, so a single parser serves all the messages of the conveyor
+    private final JSONParser jsonParser = new JSONParser();
+    // whether the messages to the other conveyors use the compact binary content (-Dconveyor.codec=binary)
+    private final boolean binaryContent = "binary".equals(System.getProperty("conveyor.codec"));
+    // conveyors that announced they accept the binary content
+    private Set<String> binaryPeers = new HashSet<>();
+    // conveyors that announced they share the RouteStore of this JVM: the routed_transfer sent to them has no route
+    private Set<String> sharedStorePeers = new HashSet<>();
+    // handler of each request type
+    private final Map<ConveyorAgent.RequestType, RequestHandler> requestHandlers = new EnumMap<>(ConveyorAgent.RequestType.class);
+    // handler of each notification type, the other PROPAGATE messages are path finding requests
+    private final Map<ConveyorAgent.RequestType, NotificationHandler> notificationHandlers = new EnumMap<>(ConveyorAgent.RequestType.class);
+    // metrics: requests received by type, and histograms of the transfers ending here, of the load hand-offs
+    // and of the path searches started here
+    private final long[] requestCounts = new long[ConveyorAgent.RequestType.values().length];
+    private long unknownRequests = 0;
+    // messages received from each agent, by full name, to measure the traffic crossing the containers. The counters
+    // of the neighbours are created with the core, the other senders get theirs with their first message
+    private final Map<String, long[]> messagesFrom = new HashMap<>();
+    private final LatencyHistogram transferLatency = new LatencyHistogram();
+    private final LatencyHistogram loadHandshakeLatency = new LatencyHistogram();
+    private final LatencyHistogram pathFindingLatency = new LatencyHistogram();
+    private final LatencyHistogram transferRetries = new LatencyHistogram();
+    private final LatencyHistogram transferReroutes = new LatencyHistogram();
+    // time from the last heartbeat of a neighbour to its suspicion
+    private final LatencyHistogram failureDetectionLatency = new LatencyHistogram();
+
+    ConveyorCore(Agent agent, Host host, Layout.ConveyorSpec spec) {
+        this.agent = agent;
+        this.host = host;
+        df = agent.getDefaultDF();
+        name = spec.getName();
+        aid = directory.aid(name);
+        for (String neighbour : spec.getNeighbours()) {
+            neighbours.add(neighbour);
+            directory.addNeighbour(neighbour);
+            messagesFrom.put(directory.aid(neighbour).getName(), new long[1]);
+        }
+        transfer_time = spec.getTransferTime();
+        capacity = Math.max(1, spec.getCapacity());
+        // the cost of a route is the time spent by the pallet on the conveyors, so crossing this one costs transfer_time
+        routingTable = new RoutingTable(name, transfer_time);
+
+        requestHandlers.put(ConveyorAgent.RequestType.GET_INFO, this::handleGetInfo);
+        requestHandlers.put(ConveyorAgent.RequestType.GET_ETA, this::handleGetEta);
+        requestHandlers.put(ConveyorAgent.RequestType.GET_METRICS, this::handleGetMetrics);
+        requestHandlers.put(ConveyorAgent.RequestType.LOAD, this::handleLoad);
+        requestHandlers.put(ConveyorAgent.RequestType.UNLOAD, this::handleUnload);
+        requestHandlers.put(ConveyorAgent.RequestType.SET_STATUS, this::handleSetStatus);
+        requestHandlers.put(ConveyorAgent.RequestType.ROUTED_TRANSFER, this::handleRoutedTransfer);
+        requestHandlers.put(ConveyorAgent.RequestType.TRANSFER, this::handleTransfer);
+        requestHandlers.put(ConveyorAgent.RequestType.RESERVE, this::handleReserve);
+        requestHandlers.put(ConveyorAgent.RequestType.RELEASE, this::handleRelease);
+        requestHandlers.put(ConveyorAgent.RequestType.RESOLVE_DEADLOCK, this::handleResolveDeadlock);
+        requestHandlers.put(ConveyorAgent.RequestType.ADD_NEIGHBOUR, this::handleAddNeighbour);
+        requestHandlers.put(ConveyorAgent.RequestType.REMOVE_NEIGHBOUR, this::handleRemoveNeighbour);
+        requestHandlers.put(ConveyorAgent.RequestType.SET_TRANSFER_TIME, this::handleSetTransferTime);
+        requestHandlers.put(ConveyorAgent.RequestType.DRAIN, this::handleDrain);
+        // routing advertisement from a neighbour
+        notificationHandlers.put(ConveyorAgent.RequestType.ROUTE_UPDATE, this::handleRouteUpdate);
+        // a conveyor upstream has no feasible route to a destination anymore
+        notificationHandlers.put(ConveyorAgent.RequestType.ROUTE_REFRESH, this::handleRouteRefresh);
+        // a conveyor downstream changed status: the cached routes crossing it are stale
+        notificationHandlers.put(ConveyorAgent.RequestType.ROUTE_INVALIDATE, (sender, notification) -> handleRouteInvalidate(notification));
+        // a neighbour changed status
+        notificationHandlers.put(ConveyorAgent.RequestType.STATUS_EVENT, this::handleStatusEvent);
+        // a neighbour is alive, and tells its status
+        notificationHandlers.put(ConveyorAgent.RequestType.HEARTBEAT, this::handleHeartbeat);
+        // a conveyor waiting for the next one is looking for a cycle of waiting conveyors
+        notificationHandlers.put(ConveyorAgent.RequestType.DEADLOCK_PROBE, (sender, notification) -> handleDeadlockProbe(notification));
+
+        // the messages sent to itself can always use the binary encoding
+        if (binaryContent) {
+            binaryPeers.add(name);
+        }
+    }
+
+    public String getName() {return name;}
+    public ConveyorAgent.Status getConveyor_status() {return conveyor_status;}
+
+    /**
+     * Starts the behaviours of the conveyor: the routing table is filled by the neighbours, which are asked for
+     * their routes until all of them answered.
+     */
+    public void start() {
+        pendingSubscriptions.addAll(neighbours);
+        watchNeighbours();
+    }
+
+    /**
+     * Stops the conveyor: the neighbours stop sending it their routes, and the behaviours it added to the agent
+     * are removed.
+     */
+    public void stop() {
+        unsubscribeFrom(neighbours);
+        for (BestPath search : new ArrayList<>(activeSearches)) {
+            search.cancel();
+        }
+        for (Behaviour behaviour : new Behaviour[]{subscriptionTicker, heartbeat, activeHandOff, advertiser}) {
+            if (behaviour != null) {
+                agent.removeBehaviour(behaviour);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the message answers a conversation of the conveyor: it is received by the behaviour
+     * waiting for it, and must not be dispatched.
+     */
+    public boolean owns(ACLMessage msg) {
+        return (msg.getConversationId() != null) && openConversations.contains(msg.getConversationId()) && isReceiver(msg);
+    }
+
+    private boolean isReceiver(ACLMessage msg) {
+        jade.util.leap.Iterator it = msg.getAllReceiver();
+        while (it.hasNext()) {
+            if (aid.equals(it.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the answers of a conversation of the conveyor. Two conveyors of the same agent can be in the same
+    // conversation (a hand-off between them), so the receiver tells whose answer it is
+    private MessageTemplate conversation(String conversationId) {
+        return MessageTemplate.and(MessageTemplate.MatchConversationId(conversationId),
+                MessageTemplate.MatchReceiver(new AID[]{aid}));
+    }
+
+    // sends a message of the conveyor, from its name
+    private void send(ACLMessage msg) {
+        msg.setSender(aid);
+        host.send(msg);
+    }
+
+    /**
+     * Handles a message sent to the conveyor that belongs to none of its open conversations.
+     */
+    public void dispatch(ACLMessage msg) {
+        // in simulation mode, the time does not move while the agents handle messages
+        clock.activity();
+        if (msg.getSender().equals(df)) {
+            handleDirectoryMessage(msg);
+            return;
+        }
+        if (binaryContent && ConveyorCodec.LANGUAGE.equals(msg.getUserDefinedParameter(ConveyorCodec.ACCEPT_PARAMETER))) {
+            binaryPeers.add(msg.getSender().getLocalName());
+        }
+        if (RouteStore.ID.equals(msg.getUserDefinedParameter(RouteStore.PARAMETER))) {
+            sharedStorePeers.add(msg.getSender().getLocalName());
+        }
+
+        switch (msg.getPerformative()) {
+            case ACLMessage.REQUEST:
+                handleRequest(msg);
+                break;
+            // either starting a Pathfinding or participating in a pathfinding, or a routing advertisement
+            case ACLMessage.CFP:
+            case ACLMessage.PROPAGATE:
+                JSONObject jsonObject = parseContent(msg);
+                if (jsonObject == null) {
+                    myLogger.log(Logger.WARNING, "Agent " + name + " - Path finding request not understood - received from " + msg.getSender().getLocalName());
+                    break;
+                }
+                ConveyorAgent.RequestType type = ConveyorAgent.RequestType.of(jsonObject.get("request_type"));
+                countRequest(type);
+                NotificationHandler notificationHandler = ((msg.getPerformative() == ACLMessage.PROPAGATE) && (type != null))
+                        ? notificationHandlers.get(type) : null;
+                if (notificationHandler != null) {
+                    notificationHandler.handle(msg.getSender().getLocalName(), jsonObject);
+                }
+                else {
+                    // start the BestPath behaviour. If the performative is CFP, then it's the first message (SOC = true)
+                    BestPath bestPath = new BestPath(agent, jsonObject, msg.getSender(), (msg.getPerformative() == ACLMessage.CFP));
+                    bestPath.conversationId = msg.getConversationId();
+                    bestPath.binaryRequest = isBinary(msg);
+                    agent.addBehaviour(bestPath);
+                    myLogger.log(Logger.INFO, "Agent " + name + " - Received path finding request: " + jsonObject.toString());
+                }
+                break;
+            // a conveyor preceding this one asks for its routes
+            case ACLMessage.SUBSCRIBE:
+                String predecessor = msg.getSender().getLocalName();
+                directory.addPredecessor(predecessor);
+                List<String> subscriber = new ArrayList<>();
+                subscriber.add(predecessor);
+                advertiseRoutes(new ArrayList<>(routingTable.routes().keySet()), subscriber);
+                // the new predecessor only hears of the next changes, it must know if this conveyor is not idle
+                if (conveyor_status != ConveyorAgent.Status.Idle) {
+                    ACLMessage statusMsg = new ACLMessage(ACLMessage.PROPAGATE);
+                    statusMsg.addReceiver(directory.aid(predecessor));
+                    setContent(statusMsg, statusEvent(), predecessor);
+                    send(statusMsg);
+                }
+                break;
+            // a former predecessor does not want the routes anymore
+            case ACLMessage.CANCEL:
+                directory.removePredecessor(msg.getSender().getLocalName());
+                break;
+            // answers and notifications (paths arriving late, transfer finished, ...) need no reply
+            // this check is done to prevent an infinite NOT_UNDERSTOOD loop conversation between two agents
+            case ACLMessage.NOT_UNDERSTOOD:
+            case ACLMessage.AGREE:
+            case ACLMessage.REFUSE:
+            case ACLMessage.FAILURE:
+            case ACLMessage.INFORM:
+                break;
+            // if the performative is none of the above
+            default:
+                ACLMessage reply = msg.createReply();
+                reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
+                reply.setContent("( (Unexpected-act " + ACLMessage.getPerformative(msg.getPerformative()) + ") )");
+                send(reply);
+                break;
+        }
+    }
+
+    // decodes the request once, checks it and runs the registered handler
+    private void handleRequest(ACLMessage msg) {
+        ACLMessage reply = msg.createReply();
+        // the text replies are not binary, even when the request is
+        reply.setLanguage(null);
+        reply.setEncoding(null);
+        JSONObject request = parseContent(msg);
+        if (request == null) {
+            myLogger.log(Logger.INFO, "Agent " + name + " - Request not understood - received from " + msg.getSender().getLocalName());
+            reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
+            reply.setContent("Request not understood");
+            send(reply);
+            return;
+        }
+        ConveyorAgent.RequestType type = ConveyorAgent.RequestType.of(request.get("request_type"));
+        countRequest(type);
+        RequestHandler handler = (type == null) ? null : requestHandlers.get(type);
+        if (handler == null) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Could not understand the request");
+            send(reply);
+            return;
+        }
+        String missingField = type.missingField(request);
+        if (missingField != null) {
+            myLogger.log(Logger.WARNING, "Agent " + name + " - syntax error in message content, missing " + missingField);
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Missing field: " + missingField);
+            send(reply);
+            return;
+        }
+        try {
+            handler.handle(msg, request, reply);
+        } catch (ClassCastException e) {
+            // a field has the wrong type, e.g. viaPoints is not an array
+            myLogger.log(Logger.WARNING, "Agent " + name + " - syntax error in message content");
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Malformed request");
+            send(reply);
+        }
+    }
+
+    // parses the content of a message, JSON or binary, null if it is not a valid object
+    private JSONObject parseContent(ACLMessage msg) {
+        if (isBinary(msg)) {
+            try {
+                return ConveyorCodec.decode(msg.getByteSequenceContent());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        String content = msg.getContent();
+        if (content == null) {
+            return null;
+        }
+        try {
+            Object parsed = jsonParser.parse(content);
+            return (parsed instanceof JSONObject) ? (JSONObject) parsed : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private boolean isBinary(ACLMessage msg) {
+        return ConveyorCodec.LANGUAGE.equals(msg.getLanguage());
+    }
+
+    // sets the content of a message: binary if all the receivers accept it, JSON text otherwise
+    private void setContent(ACLMessage out, JSONObject content, Collection<String> receivers) {
+        if (binaryContent && binaryPeers.containsAll(receivers)) {
+            setBinaryContent(out, content);
+        }
+        else {
+            out.setContent(content.toString());
+        }
+    }
+
+    private void setContent(ACLMessage out, JSONObject content, String receiver) {
+        setContent(out, content, Collections.singletonList(receiver));
+    }
+
+    private void setBinaryContent(ACLMessage out, JSONObject content) {
+        out.setLanguage(ConveyorCodec.LANGUAGE);
+        out.setEncoding(ConveyorCodec.ENCODING);
+        out.setByteSequenceContent(ConveyorCodec.encode(content));
+    }
+
+    // Replies with info on the agent
+    private void handleGetInfo(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        JSONObject replyObject = new JSONObject();
+        replyObject.put("Neighbours", neighbours);
+        replyObject.put("TransferTime", transfer_time);
+        replyObject.put("PalletLoaded", !pallets.isEmpty());
+        JSONArray palletIds = new JSONArray();
+        for (Pallet pallet : pallets) {
+            palletIds.add(pallet.id);
+        }
+        replyObject.put("Pallets", palletIds);
+        replyObject.put("Capacity", maxPallets());
+        replyObject.put("Status", conveyor_status.toString());
+        replyObject.put("RouteCacheHits", routeCache.getHits());
+        replyObject.put("RouteCacheMisses", routeCache.getMisses());
+        replyObject.put("Routes", (long) routingTable.routes().size());
+        // a conveyor hosted by a shard tells which one
+        if (!agent.getLocalName().equals(name)) {
+            replyObject.put("Shard", agent.getLocalName());
+        }
+
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(replyObject.toString());
+        send(reply);
+    }
+
+    // Tells how long the conveyor will stay busy
+    private void handleGetEta(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        JSONObject replyObject = NeighbourMonitor.statusEvent(null, conveyor_status, remainingBusyTime());
+        reply.setPerformative(ACLMessage.INFORM);
+        setContent(reply, replyObject, msg.getSender().getLocalName());
+        send(reply);
+    }
+
+    // Replies with the request counters and the latency histograms
+    private void handleGetMetrics(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        JSONObject requests = new JSONObject();
+        for (ConveyorAgent.RequestType type : ConveyorAgent.RequestType.values()) {
+            requests.put(type.requestName, requestCounts[type.ordinal()]);
+        }
+        requests.put("unknown", unknownRequests);
+        JSONObject replyObject = new JSONObject();
+        replyObject.put("requests", requests);
+        replyObject.put("transfer_ms", transferLatency.toJSON());
+        replyObject.put("load_handshake_ms", loadHandshakeLatency.toJSON());
+        replyObject.put("path_finding_ms", pathFindingLatency.toJSON());
+        replyObject.put("retries", transferRetries.toJSON());
+        replyObject.put("reroutes", transferReroutes.toJSON());
+        JSONObject messagesFromObj = new JSONObject();
+        for (Map.Entry<String, long[]> entry : messagesFrom.entrySet()) {
+            if (entry.getValue()[0] > 0) {
+                messagesFromObj.put(new AID(entry.getKey(), AID.ISGUID).getLocalName(), entry.getValue()[0]);
+            }
+        }
+        replyObject.put("messages_from", messagesFromObj);
+        replyObject.put("failure_detection_ms", failureDetectionLatency.toJSON());
+        JSONObject failureDetector = new JSONObject();
+        failureDetector.put("heartbeat_ms", ConveyorAgent.heartbeatMs);
+        failureDetector.put("phi_threshold", ConveyorAgent.phiThreshold);
+        failureDetector.put("pause_ms", ConveyorAgent.heartbeatPauseMs);
+        JSONArray suspectedArr = new JSONArray();
+        suspectedArr.addAll(monitor.getSuspected());
+        failureDetector.put("suspected", suspectedArr);
+        replyObject.put("failure_detector", failureDetector);
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(replyObject.toString());
+        send(reply);
+    }
+
+    // receives the next message matching the template, counting it by sender
+    private ACLMessage receiveCounted(MessageTemplate template) {
+        ACLMessage msg = agent.receive(template);
+        if (msg != null) {
+            count(msg);
+        }
+        return msg;
+    }
+
+    /**
+     * Counts a message received by the conveyor, by sender.
+     */
+    public void count(ACLMessage msg) {
+        // the full name is a field of the AID, the local name would be cut out of it on every message
+        long[] count = messagesFrom.get(msg.getSender().getName());
+        if (count == null) {
+            count = new long[1];
+            messagesFrom.put(msg.getSender().getName(), count);
+        }
+        count[0]++;
+    }
+
+    private void countRequest(ConveyorAgent.RequestType type) {
+        if (type == null) {
+            unknownRequests++;
+        }
+        else {
+            requestCounts[type.ordinal()]++;
+        }
+    }
+
+    // the statistics of a transfer travel with it: start time, load retries and reroutes so far
+    private static void carryTransferStats(JSONObject from, JSONObject to, long retries, long reroutes) {
+        if (from.get("started_ms") != null) {
+            to.put("started_ms", from.get("started_ms"));
+        }
+        to.put("retries", ConveyorAgent.longField(from, "retries") + retries);
+        to.put("reroutes", ConveyorAgent.longField(from, "reroutes") + reroutes);
+    }
+
+    // the transfer ends here without reaching the destination: the agent waiting for it must know
+    private void notifyTransferFailed(JSONObject request, boolean palletHere, String reason) {
+        if (request.get("notify") == null) {
+            return;
+        }
+        ACLMessage failedMsg = new ACLMessage(ACLMessage.INFORM);
+        failedMsg.addReceiver(directory.aid((String) request.get("notify")));
+        failedMsg.setContent(ConveyorAgent.transferFailedEvent(request, palletHere ? name : null, reason).toString());
+        send(failedMsg);
+    }
+
+    // Load the pallet on the conveyor
+    private void handleLoad(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        // a pallet that booked its slot only needs a free place, the others must not take the place of a booked one
+        Object palletId = request.get("pallet_id");
+        boolean booked = (palletId != null) && calendar.isBooked(palletId.toString());
+        boolean refused = booked ? (pallets.size() >= maxPallets()) : (conveyor_status == ConveyorAgent.Status.Busy || isFull() || placesBooked());
+        if (refused && conveyor_status != ConveyorAgent.Status.Down) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Conveyor busy, cannot load!");
+            send(reply);
+            myLogger.log(Logger.WARNING, "Agent " + name + " - Busy, cannot load");
+        }
+        else if (conveyor_status == ConveyorAgent.Status.Down) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Conveyor down, cannot load!");
+            send(reply);
+            myLogger.log(Logger.WARNING, "Agent " + name + " - Down, cannot load");
+        }
+        else {
+            // Load the pallet at the end of the queue, the conveyor is busy once full
+            Pallet pallet = new Pallet((palletId != null) ? palletId.toString() : name + "-P" + (++palletCounter),
+                    clock.now());
+            pallets.addLast(pallet);
+            updateOccupancy();
+            if (pipelined) {
+                // the entry is free again once the pallet has gone through the entry zone
+                agent.addBehaviour(new ClockWakerBehaviour(agent, entryFreeTime() - pallet.loadTime) {
+                    protected void onWake() {
+                        updateOccupancy();
+                    }
+                });
+            }
+            reply.setPerformative(ACLMessage.AGREE);
+            reply.setContent("Pallet loaded");
+            send(reply);
+            myLogger.log(Logger.INFO, "Agent " + name + " - Pallet loaded (" + pallet.id + ", " + pallets.size() + "/" + maxPallets() + ")");
+        }
+    }
+
+    // Unload the pallet from the conveyor
+    private void handleUnload(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        // the pallet asked for, or the first one
+        Pallet pallet = (request.get("pallet_id") != null) ? findPallet(request.get("pallet_id")) : pallets.peekFirst();
+        // a conveyor leaving the layout is down, but its pallets are still taken off it
+        if (pallet != null && (conveyor_status != ConveyorAgent.Status.Down || drainReply != null)) {
+            reply.setPerformative(ACLMessage.AGREE);
+            reply.setContent("Pallet unloaded");
+            send(reply);
+            pallets.remove(pallet);
+            calendar.release(pallet.id);
+            if ((activeHandOff != null) && (activeHandOff.pallet == pallet)) {
+                activeHandOff.stop();
+            }
+            updateOccupancy();
+            // the pallet is gone, there is nothing to transfer anymore
+            for (BestPath search : new ArrayList<>(activeSearches)) {
+                if (search.transferAfterFindingRoute && pallet.id.equals(search.msg.get("pallet_id"))) {
+                    search.cancel();
+                }
+            }
+            myLogger.log(Logger.INFO, "Agent " + name + " - Pallet unloaded (" + pallet.id + ")");
+            startNextHandOff();
+            drained();
+        }
+        else {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Pallet not unloaded");
+            send(reply);
+            myLogger.log(Logger.WARNING, "Agent " + name + " - Pallet not unloaded");
+        }
+    }
+
+    // Set the status of the conveyor
+    private void handleSetStatus(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        ConveyorAgent.Status previousStatus = conveyor_status;
+        boolean wasDown = (conveyor_status == ConveyorAgent.Status.Down);
+        Object status = request.get("status");
+        if (status.equals("Idle")) {
+            reply.setPerformative(ACLMessage.AGREE);
+            reply.setContent("Setting status to Idle");
+            send(reply);
+            conveyor_status = ConveyorAgent.Status.Idle;
+        }
+        else if (status.equals("Busy")) {
+            reply.setPerformative(ACLMessage.AGREE);
+            reply.setContent("Setting status to Busy");
+            send(reply);
+            conveyor_status = ConveyorAgent.Status.Busy;
+        }
+        else if (status.equals("Down")) {
+            reply.setPerformative(ACLMessage.AGREE);
+            reply.setContent("Setting status to Down\nBravo six, going dark");
+            send(reply);
+            conveyor_status = ConveyorAgent.Status.Down;
+        }
+        else {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Selected status is not valid");
+            send(reply);
+        }
+        // a conveyor going down withdraws all its routes, and advertises them again when it comes back
+        if (wasDown != (conveyor_status == ConveyorAgent.Status.Down)) {
+            advertiseRoutes(new ArrayList<>(routingTable.routes().keySet()), directory.getPredecessors());
+        }
+        if (previousStatus != conveyor_status) {
+            invalidateRoutesThrough(name);
+        }
+        publishStatus();
+    }
+
+    // Links the conveyor to a new neighbour: its routes are asked at once, and only the destinations it makes
+    // cheaper are advertised upstream
+    private void handleAddNeighbour(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        String neighbour = request.get("neighbour").toString();
+        if (neighbour.equals(name) || neighbours.contains(neighbour)) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent(neighbour + " cannot be added as neighbour");
+            send(reply);
+            return;
+        }
+        neighbours.add(neighbour);
+        directory.addNeighbour(neighbour);
+        pendingSubscriptions.add(neighbour);
+        watchNeighbours();
+        myLogger.log(Logger.INFO, "Agent " + name + " - New neighbour " + neighbour);
+        reply.setPerformative(ACLMessage.AGREE);
+        reply.setContent("Neighbour " + neighbour + " added");
+        send(reply);
+    }
+
+    // Removes the link to a neighbour: the routes through it are withdrawn upstream, and the pallet waiting for it
+    // looks for another route
+    private void handleRemoveNeighbour(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        String neighbour = request.get("neighbour").toString();
+        if (!neighbours.contains(neighbour)) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent(neighbour + " is not a neighbour");
+            send(reply);
+            return;
+        }
+        neighbours.remove(neighbour);
+        directory.removeNeighbour(neighbour);
+        pendingSubscriptions.remove(neighbour);
+        monitor.remove(neighbour);
+        // the former neighbour stops sending its routes and heartbeats
+        unsubscribeFrom(Collections.singletonList(neighbour));
+        reply.setPerformative(ACLMessage.AGREE);
+        reply.setContent("Neighbour " + neighbour + " removed");
+        send(reply);
+        myLogger.log(Logger.INFO, "Agent " + name + " - Neighbour " + neighbour + " removed");
+        routesChanged(routingTable.removeNeighbour(neighbour));
+        invalidateRoutesThrough(neighbour);
+        if ((activeHandOff != null) && activeHandOff.nextCnv.equals(neighbour)) {
+            activeHandOff.nextUnavailable("is no longer a neighbour");
+        }
+    }
+
+    // The conveyor leaves the layout: it goes down, so that no pallet is sent to it anymore, and the transfers of
+    // its pallets fail back to the agents waiting for them, which unload them. Answered once it is empty
+    private void handleDrain(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        drainReply = reply;
+        if (conveyor_status != ConveyorAgent.Status.Down) {
+            conveyor_status = ConveyorAgent.Status.Down;
+            advertiseRoutes(new ArrayList<>(routingTable.routes().keySet()), directory.getPredecessors());
+            invalidateRoutesThrough(name);
+            publishStatus();
+        }
+        // the searches started for the pallets here hold their transfer requests until the route is known
+        Map<String, JSONObject> transfers = new HashMap<>();
+        for (BestPath search : new ArrayList<>(activeSearches)) {
+            if (search.transferAfterFindingRoute && (search.msg.get("pallet_id") != null)) {
+                transfers.put(search.msg.get("pallet_id").toString(), search.msg);
+                search.cancel();
+            }
+        }
+        if (activeHandOff != null) {
+            activeHandOff.stop();
+        }
+        // the pallets without a transfer yet, or with one still on its way, are failed when it arrives
+        for (Pallet pallet : pallets) {
+            JSONObject transfer = (pallet.request != null) ? pallet.request : transfers.get(pallet.id);
+            pallet.request = null;
+            calendar.release(pallet.id);
+            if (transfer != null) {
+                notifyTransferFailed(transfer, true, removedReason());
+            }
+        }
+        myLogger.log(Logger.INFO, "Agent " + name + " - Draining, " + pallets.size() + " pallets to unload");
+        drained();
+    }
+
+    private String removedReason() {
+        return "Conveyor " + name + " removed from the layout";
+    }
+
+    // tells the layout builder that the conveyor being drained is empty
+    private void drained() {
+        if ((drainReply == null) || !pallets.isEmpty()) {
+            return;
+        }
+        drainReply.setPerformative(ACLMessage.INFORM);
+        drainReply.setContent("Conveyor drained");
+        send(drainReply);
+        drainReply = null;
+    }
+
+    // Changes the time needed to cross the conveyor. The pallets already on it keep their departure time
+    private void handleSetTransferTime(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        long transferTime = ConveyorAgent.longField(request, "transfer_time");
+        if (transferTime <= 0) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("transfer_time must be positive");
+            send(reply);
+            return;
+        }
+        transfer_time = (int) transferTime;
+        reply.setPerformative(ACLMessage.AGREE);
+        reply.setContent("Setting transfer time to " + transfer_time);
+        send(reply);
+        // all the routes crossing the conveyor change cost
+        routesChanged(routingTable.setLinkCost(transfer_time));
+        invalidateRoutesThrough(name);
+    }
+
+    // Transfer a pallet knowing the route in advance
+    // The request must contain the ordered array of the via points
+    private void handleRoutedTransfer(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        // the transfer can only occur if the pallet is loaded on the cnv
+        Pallet pallet = findPallet(request.get("pallet_id"));
+        if (pallet == null) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Cannot proceed, pallet not loaded");
+            myLogger.log(Logger.WARNING, "Agent " + name + " - Cannot proceed, pallet not loaded");
+            send(reply);
+            notifyTransferFailed(request, false, reply.getContent());
+            return;
+        }
+        // a route found while the conveyor was being drained
+        if (drainReply != null) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent(removedReason());
+            send(reply);
+            notifyTransferFailed(request, true, reply.getContent());
+            return;
+        }
+        // the route comes with the request, or is found in the store by its id
+        JSONArray route = RouteStore.route(request, name);
+        if (route == null) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent((request.get("route_id") != null) ? "Unknown route " + request.get("route_id") : "Missing field: viaPoints");
+            myLogger.log(Logger.WARNING, "Agent " + name + " - " + reply.getContent());
+            send(reply);
+            notifyTransferFailed(request, true, reply.getContent());
+            return;
+        }
+        // the hop of the request tells where this conveyor is in the route, the route is only scanned without it
+        int i = RouteStore.hopIndex(route, request, name);
+        if (i < 0) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Conveyor not in the route");
+            myLogger.log(Logger.WARNING, "Agent " + name + " - " + reply.getContent());
+            send(reply);
+            notifyTransferFailed(request, true, reply.getContent());
+            return;
+        }
+        request.put("viaPoints", route);
+        request.put("hop", i);
+        myLogger.log(Logger.INFO, "Agent " + name + " - Received route " + request.get("route_id") + ", hop " + i + " of " + (route.size() - 1));
+        // If I am the last -> I don't have to transfer
+        if (i == (route.size() - 1)) {
+            // the pallet stays on the conveyor, it can be transferred again or unloaded
+            pallet.request = null;
+            RouteStore.remove(request.get("route_id"));
+            // a pallet that left a deadlock through this conveyor goes on to its destination from here
+            Object finalDestination = request.get("final_destination");
+            if ((finalDestination != null) && !finalDestination.equals(name)) {
+                JSONObject onwardObj = new JSONObject();
+                onwardObj.put("request_type", "transfer");
+                onwardObj.put("source", name);
+                onwardObj.put("destination", finalDestination);
+                onwardObj.put("pallet_id", pallet.id);
+                carryTransferStats(request, onwardObj, 0, 0);
+                if (request.get("notify") != null) {
+                    onwardObj.put("notify", request.get("notify"));
+                }
+                ACLMessage onwardMsg = new ACLMessage(ACLMessage.REQUEST);
+                setContent(onwardMsg, onwardObj, name);
+                onwardMsg.addReceiver(aid);
+                send(onwardMsg);
+                myLogger.log(Logger.INFO, "Agent " + name + " - " + pallet.id + " going on to " + finalDestination);
+                return;
+            }
+            myLogger.log(Logger.INFO, "Agent " + name + " - Transfer finished");
+            if (request.get("started_ms") != null) {
+                transferLatency.record(clock.now() - ConveyorAgent.longField(request, "started_ms"));
+            }
+            transferRetries.record(ConveyorAgent.longField(request, "retries"));
+            transferReroutes.record(ConveyorAgent.longField(request, "reroutes"));
+            // Inform the first conveyor that the transfer has finished, and the agent that asked for the transfer
+            // if it wants to know
+            JSONObject finishedObj = new JSONObject();
+            finishedObj.put("event", "transfer_finished");
+            finishedObj.put("pallet_id", pallet.id);
+            finishedObj.put("destination", name);
+            finishedObj.put("route_id", request.get("route_id"));
+            ACLMessage transferFinishedMessage = new ACLMessage(ACLMessage.INFORM);
+            transferFinishedMessage.addReceiver(directory.aid((String) route.get(0)));
+            if (request.get("notify") != null) {
+                transferFinishedMessage.addReceiver(directory.aid((String) request.get("notify")));
+            }
+            transferFinishedMessage.setContent(finishedObj.toString());
+            send(transferFinishedMessage);
+        }
+        else {
+            myLogger.log(Logger.INFO, "Agent " + name + " - Transfer continuing");
+            // Transfer to the next conveyor (after waiting for transfer time, and for the pallets ahead to leave)
+            pallet.request = request;
+            pallet.reply = reply;
+            pallet.nextCnv = (String) route.get(i + 1);
+            if (pallet != pallets.peekFirst()) {
+                myLogger.log(Logger.INFO, "Agent " + name + " - " + pallet.id + " queued behind " + pallets.peekFirst().id);
+            }
+            startNextHandOff();
+        }
+    }
+
+    //Transfer the pallet via the best path, knowing only the source and the destination
+    private void handleTransfer(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        Pallet pallet = findPallet(request.get("pallet_id"));
+        if (pallet != null && drainReply != null) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent(removedReason());
+            send(reply);
+            notifyTransferFailed(request, true, reply.getContent());
+        }
+        else if (pallet != null && request.get("source").equals(name)) {
+            // the route found is sent back for this pallet
+            request.put("pallet_id", pallet.id);
+            // a rerouted transfer keeps its first start time
+            if (request.get("started_ms") == null) {
+                request.put("started_ms", clock.now());
+            }
+            // add empty viaPoints array to the request
+            JSONArray viaPoints = new JSONArray();
+            request.put("viaPoints", viaPoints);
+            // call BestPath and transfer automatically after finding the route
+            agent.addBehaviour(new BestPath(agent, request, aid, true, true));
+        }
+        // if the pallet is not loaded
+        else {
+            reply.setPerformative(ACLMessage.FAILURE);
+            if(!request.get("source").equals(name)) {
+                reply.setContent("Cannot proceed, request sent to wrong agent");
+            }
+            else{
+                reply.setContent("Cannot proceed, pallet not loaded");
+            }
+            myLogger.log(Logger.WARNING, "Agent " + name + " - " + reply.getContent());
+            send(reply);
+            // the failure of a rerouted transfer is only read by this conveyor
+            if (msg.getSender().equals(aid)) {
+                notifyTransferFailed(request, false, reply.getContent());
+            }
+        }
+    }
+
+
+    // Books the slot of a pallet arriving at arrival_ms
+    private void handleReserve(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        long arrival = ((Number) request.get("arrival_ms")).longValue();
+        long departure = reserveSlot(request.get("pallet_id").toString(), arrival, "true".equals(request.get("last")));
+        JSONObject replyObject = new JSONObject();
+        if (departure > 0) {
+            replyObject.put("departure_ms", departure);
+            reply.setPerformative(ACLMessage.AGREE);
+            watchBooking(arrival, "true".equals(request.get("last")) ? Long.MAX_VALUE : departure + slotMarginMs);
+        }
+        else {
+            // the source can try again when a place is freed
+            replyObject.put("free_ms", -departure);
+            reply.setPerformative(ACLMessage.REFUSE);
+        }
+        setContent(reply, replyObject, msg.getSender().getLocalName());
+        send(reply);
+    }
+
+    // Cancels the slot booked by a pallet
+    private void handleRelease(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        calendar.release(request.get("pallet_id").toString());
+        reply.setPerformative(ACLMessage.AGREE);
+        reply.setContent("Slot released");
+        send(reply);
+        updateOccupancy();
+    }
+
+    // a booked slot takes a place from the pallets without a booking one transfer time before the arrival,
+    // and gives it back at its end: the status pushed to the predecessors follows
+    private void watchBooking(long arrival, long end) {
+        updateOccupancy();
+        long now = clock.now();
+        long taken = arrival - transfer_time * 1000L;
+        if (taken > now) {
+            agent.addBehaviour(new ClockWakerBehaviour(agent, taken - now) {
+                protected void onWake() {
+                    updateOccupancy();
+                }
+            });
+        }
+        if (end != Long.MAX_VALUE) {
+            agent.addBehaviour(new ClockWakerBehaviour(agent, Math.max(0, end - now)) {
+                protected void onWake() {
+                    updateOccupancy();
+                }
+            });
+        }
+    }
+
+    // books the conveyor from the arrival of the pallet to its departure. The pallet stays on the last conveyor
+    // of its route, so that slot has no end. Returns the departure time, or minus the time a place is freed
+    // if the slot is taken (minus Long.MAX_VALUE if it will never be, or the conveyor is down)
+    private long reserveSlot(String palletId, long arrival, boolean last) {
+        calendar.purge(clock.now());
+        if (conveyor_status == ConveyorAgent.Status.Down) {
+            return -Long.MAX_VALUE;
+        }
+        long departure = arrival + transfer_time * 1000L;
+        long end = last ? Long.MAX_VALUE : departure + slotMarginMs;
+        if (calendar.book(palletId, arrival, departure, end, maxPallets())) {
+            myLogger.log(Logger.FINE, "Agent " + name + " - Slot booked for " + palletId + ": " + arrival + "-" + end);
+            return departure;
+        }
+        return -calendar.freeTime(arrival, end);
+    }
+
+    // the places left during the next transfer time are booked by pallets still to come
+    private boolean placesBooked() {
+        return bookedUntil() > clock.now();
+    }
+
+    // when a pallet without a booking can take one of the places left: now if one is free for the next
+    // transfer time, the end of the reservation blocking it otherwise (Long.MAX_VALUE if it is never freed)
+    private long bookedUntil() {
+        long now = clock.now();
+        calendar.purge(now);
+        List<String> loaded = new ArrayList<>();
+        for (Pallet pallet : pallets) {
+            loaded.add(pallet.id);
+        }
+        return calendar.freeFrom(now, transfer_time * 1000L, maxPallets() - pallets.size(), loaded);
+    }
+
+    // asks the conveyors of a route to forget the slots booked by the pallet
+    private void releaseSlots(String palletId, List<String> conveyors) {
+        if (conveyors.isEmpty()) {
+            return;
+        }
+        JSONObject releaseObj = new JSONObject();
+        releaseObj.put("request_type", "release");
+        releaseObj.put("pallet_id", palletId);
+        ACLMessage releaseMsg = new ACLMessage(ACLMessage.REQUEST);
+        for (String c : conveyors) {
+            if (c.equals(name)) {
+                calendar.release(palletId);
+                updateOccupancy();
+            }
+            else {
+                releaseMsg.addReceiver(directory.aid(c));
+            }
+        }
+        setContent(releaseMsg, releaseObj, conveyors);
+        send(releaseMsg);
+    }
+
+    // the pallet with the given id, or the first pallet without a route if no id is given. Null if there is none
+    private Pallet findPallet(Object palletId) {
+        for (Pallet pallet : pallets) {
+            if ((palletId != null) ? pallet.id.equals(palletId) : (pallet.request == null)) {
+                return pallet;
+            }
+        }
+        return null;
+    }
+
+    // the conveyor is busy while it is full or its places left are booked. Down is only changed by set_status
+    private void updateOccupancy() {
+        if (conveyor_status != ConveyorAgent.Status.Down) {
+            conveyor_status = (isFull() || placesBooked()) ? ConveyorAgent.Status.Busy : ConveyorAgent.Status.Idle;
+        }
+        publishStatus();
+    }
+
+    // pushes the status to the predecessors when it changed, so that they do not have to ask for it
+    private void publishStatus() {
+        if (conveyor_status != publishedStatus) {
+            publishedStatus = conveyor_status;
+            sendToPredecessors(statusEvent());
+        }
+    }
+
+    private JSONObject statusEvent() {
+        return statusEvent("status_event");
+    }
+
+    private JSONObject statusEvent(String requestType) {
+        return NeighbourMonitor.statusEvent(requestType, conveyor_status, remainingBusyTime());
+    }
+
+    // records the status pushed by a neighbour and wakes up the pallet waiting for it
+    private void handleStatusEvent(String neighbour, JSONObject event) {
+        if (!neighbours.contains(neighbour)) {
+            return;
+        }
+        ConveyorAgent.Status status = monitor.statusEvent(neighbour, event, clock.now());
+        if (status == null) {
+            myLogger.log(Logger.WARNING, "Agent " + name + " - Invalid status from " + neighbour);
+            return;
+        }
+        if ((activeHandOff != null) && activeHandOff.nextCnv.equals(neighbour)) {
+            activeHandOff.nextStatusChanged(status);
+        }
+    }
+
+    // a heartbeat feeds the detector of the neighbour and carries its status, in case a status_event was lost
+    private void handleHeartbeat(String neighbour, JSONObject heartbeat) {
+        if (!neighbours.contains(neighbour)) {
+            return;
+        }
+        if (monitor.heartbeat(neighbour, clock.now())) {
+            myLogger.log(Logger.INFO, "Agent " + name + " - Neighbour " + neighbour + " is responding again");
+            // its routes were dropped when it was suspected
+            if (pendingSubscriptions.contains(neighbour)) {
+                subscribeToNeighbours();
+            }
+        }
+        handleStatusEvent(neighbour, heartbeat);
+    }
+
+    // sends the heartbeats to the predecessors and suspects the neighbours whose heartbeats are late, every heartbeatMs
+    private class HeartbeatBehaviour extends Behaviour {
+        private long nextBeat = 0;
+
+        public HeartbeatBehaviour(Agent a) {
+            super(a);
+        }
+
+        public void action() {
+            long now = clock.now();
+            if (now < nextBeat) {
+                // woken up by a message
+                clock.wakeUpAt(this, nextBeat);
+                return;
+            }
+            nextBeat = now + ConveyorAgent.heartbeatMs;
+            // the conveyors of the same agent stop with this one, they do not need to watch it
+            List<String> watchers = new ArrayList<>();
+            for (String predecessor : directory.getPredecessors()) {
+                if (!host.hosts(predecessor)) {
+                    watchers.add(predecessor);
+                }
+            }
+            if (!watchers.isEmpty()) {
+                ACLMessage beat = new ACLMessage(ACLMessage.PROPAGATE);
+                directory.addReceivers(beat, watchers);
+                setContent(beat, statusEvent("heartbeat"), watchers);
+                send(beat);
+            }
+            for (Map.Entry<String, Long> late : monitor.suspectLate(now).entrySet()) {
+                failureDetectionLatency.record(late.getValue());
+                neighbourLost(late.getKey(), "not responding for " + late.getValue() + " ms");
+            }
+            clock.wakeUpAt(this, nextBeat);
+        }
+
+        public boolean done() {
+            return false;
+        }
+    }
+
+    // no more pallets can be loaded: no place left or, in pipelined mode, the entry zone is still occupied
+    private boolean isFull() {
+        return (pallets.size() >= maxPallets()) || (clock.now() < entryFreeTime());
+    }
+
+    // in pipelined mode the pallets only need an entry zone each, so more of them fit on the conveyor
+    private int maxPallets() {
+        return pipelined ? Math.max(capacity, (int) (1 / entryZone)) : capacity;
+    }
+
+    // when the last pallet loaded leaves the entry zone, 0 if the entry is free or the mode is not pipelined
+    private long entryFreeTime() {
+        Pallet last = pallets.peekLast();
+        return (pipelined && (last != null)) ? last.loadTime + (long) (entryZone * transfer_time * 1000L) : 0;
+    }
+
+    // pallets leave in order: the first one moves as soon as its route is known
+    private void startNextHandOff() {
+        Pallet first = pallets.peekFirst();
+        if ((activeHandOff == null) && (first != null) && (first.request != null)) {
+            activeHandOff = new HandOffBehaviour(agent, first);
+            agent.addBehaviour(activeHandOff);
+        }
+    }
+
+    // subscribes to the neighbours until all of them answered, then follows them through the DF and the heartbeats
+    private void watchNeighbours() {
+        subscribeToNeighbours();
+        if (subscriptionTicker != null) {
+            return;
+        }
+        subscriptionTicker = new TickerBehaviour(agent, 1000L) {
+            protected void onTick() {
+                // neighbours started after this conveyor did not receive the first subscription
+                if (pendingSubscriptions.isEmpty()) {
+                    subscribeToDirectory();
+                    // the heartbeats start with the routing, so that they do not slow down the start of the layout
+                    if (ConveyorAgent.heartbeatMs > 0 && heartbeat == null) {
+                        heartbeat = new HeartbeatBehaviour(myAgent);
+                        agent.addBehaviour(heartbeat);
+                    }
+                    subscriptionTicker = null;
+                    stop();
+                }
+                else {
+                    subscribeToNeighbours();
+                }
+            }
+        };
+        agent.addBehaviour(subscriptionTicker);
+    }
+
+    // milliseconds before the conveyor can accept a new pallet, -1 if it cannot be told
+    private long remainingBusyTime() {
+        if (conveyor_status == ConveyorAgent.Status.Down) {
+            return -1;
+        }
+        if (pallets.size() < maxPallets()) {
+            long now = clock.now();
+            // the places left may be booked: a pallet without a booking waits for the end of the reservation
+            long bookedUntil = bookedUntil();
+            if (bookedUntil == Long.MAX_VALUE) {
+                return -1;
+            }
+            long freeTime = Math.max(entryFreeTime(), bookedUntil);
+            if (now < freeTime) {
+                return freeTime - now;
+            }
+            // busy with room left: set by hand, nobody knows for how long
+            return (conveyor_status == ConveyorAgent.Status.Busy) ? -1 : 0;
+        }
+        // full: a place is freed when the first pallet leaves, after transfer_time or at the next try
+        // if the following conveyor refused it. Without a route nobody knows when it will leave
+        Pallet first = pallets.peekFirst();
+        if (first.request == null) {
+            return -1;
+        }
+        long freeTime = Math.max(first.loadTime + transfer_time * 1000L, handOffTime);
+        return Math.max(0, freeTime - clock.now());
+    }
+
+    // asks the DF to tell when a neighbour leaves the platform or comes back. This is done once all the
+    // neighbours answered, to keep the DF free for the registrations while the layout starts
+    private void subscribeToDirectory() {
+        if (!host.watchesDirectory()) {
+            return;
+        }
+        for (String n : neighbours) {
+            // a neighbour removed and added again is still followed
+            if (!watchedNeighbours.add(n)) {
+                continue;
+            }
+            DFAgentDescription template = new DFAgentDescription();
+            template.setName(directory.aid(n));
+            ACLMessage dfSubscription = DFService.createSubscriptionMessage(agent, df, template, null);
+            dfSubscription.setConversationId(name + dfSubscriptionPrefix + n);
+            send(dfSubscription);
+        }
+    }
+
+    // notifications of the DF: the neighbours registering or leaving
+    private void handleDirectoryMessage(ACLMessage msg) {
+        String conversationId = msg.getConversationId();
+        if (msg.getPerformative() != ACLMessage.INFORM || conversationId == null || !conversationId.startsWith(name + dfSubscriptionPrefix)) {
+            return;
+        }
+        DFAgentDescription[] descriptions;
+        try {
+            descriptions = DFService.decodeNotification(msg.getContent());
+        } catch (FIPAException e) {
+            myLogger.log(Logger.WARNING, "Agent " + name + " - DF notification not understood", e);
+            return;
+        }
+        for (DFAgentDescription description : descriptions) {
+            String name = description.getName().getLocalName();
+            if (!neighbours.contains(name)) {
+                continue;
+            }
+            if (description.getAllServices().hasNext()) {
+                directory.registered(description.getName());
+                // a neighbour coming back is asked for its routes as soon as it is there
+                if (pendingSubscriptions.contains(name)) {
+                    subscribeToNeighbours();
+                }
+            }
+            else if (directory.deregistered(name)) {
+                neighbourLost(name, "left the platform");
+            }
+        }
+    }
+
+    // the neighbour left or stopped answering: its routes are gone, the pallet waiting for it goes another way,
+    // and it is asked again for its routes if it comes back
+    private void neighbourLost(String neighbour, String reason) {
+        myLogger.log(Logger.WARNING, "Agent " + name + " - Neighbour " + neighbour + " " + reason);
+        pendingSubscriptions.add(neighbour);
+        routesChanged(routingTable.removeNeighbour(neighbour));
+        invalidateRoutesThrough(neighbour);
+        if ((activeHandOff != null) && activeHandOff.nextCnv.equals(neighbour)) {
+            activeHandOff.nextUnavailable(reason);
+        }
+    }
+
+    // tells the conveyors that this one does not need their routes anymore
+    private void unsubscribeFrom(List<String> receivers) {
+        if (receivers.isEmpty()) {
+            return;
+        }
+        ACLMessage unsubscribeMsg = new ACLMessage(ACLMessage.CANCEL);
+        directory.addReceivers(unsubscribeMsg, receivers);
+        JSONObject unsubscribeObj = new JSONObject();
+        unsubscribeObj.put("request_type", "route_unsubscribe");
+        unsubscribeMsg.setContent(unsubscribeObj.toString());
+        send(unsubscribeMsg);
+    }
+
+    // asks the neighbours that did not answer yet to advertise their routes
+    private void subscribeToNeighbours() {
+        if (pendingSubscriptions.isEmpty()) {
+            return;
+        }
+        ACLMessage subscribeMsg = new ACLMessage(ACLMessage.SUBSCRIBE);
+        directory.addReceivers(subscribeMsg, pendingSubscriptions);
+        JSONObject subscribeObj = new JSONObject();
+        subscribeObj.put("request_type", "route_subscribe");
+        subscribeMsg.setContent(subscribeObj.toString());
+        announceCodec(subscribeMsg);
+        send(subscribeMsg);
+    }
+
+    // sends the routes towards the destinations to the receivers. Unreachable destinations are withdrawn
+    private void advertiseRoutes(Collection<String> destinations, List<String> receivers) {
+        if (destinations.isEmpty() || receivers.isEmpty()) {
+            return;
+        }
+        List<RoutingTable.Route> routes = new ArrayList<>();
+        JSONArray withdrawn = new JSONArray();
+        for (String destination : destinations) {
+            RoutingTable.Route route = routingTable.lookup(destination);
+            // a conveyor that is down cannot be crossed, it has no route to offer
+            if (route == null || conveyor_status == ConveyorAgent.Status.Down) {
+                withdrawn.add(destination);
+            }
+            else {
+                routes.add(route);
+            }
+        }
+        JSONObject update = new JSONObject();
+        update.put("request_type", "route_update");
+        update.put("routes", RoutingTable.routesToJSON(routes));
+        update.put("withdrawn", withdrawn);
+        ACLMessage updateMsg = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addReceivers(updateMsg, receivers);
+        setContent(updateMsg, update, receivers);
+        announceCodec(updateMsg);
+        send(updateMsg);
+    }
+
+    // tells the receivers that this conveyor accepts the binary content, and which RouteStore it shares
+    private void announceCodec(ACLMessage out) {
+        if (binaryContent) {
+            out.addUserDefinedParameter(ConveyorCodec.ACCEPT_PARAMETER, ConveyorCodec.LANGUAGE);
+        }
+        out.addUserDefinedParameter(RouteStore.PARAMETER, RouteStore.ID);
+    }
+
+    // applies the advertisement of a neighbour and forwards the changes to the predecessors
+    private void handleRouteUpdate(String neighbour, JSONObject update) {
+        if (!neighbours.contains(neighbour)) {
+            myLogger.log(Logger.WARNING, "Agent " + name + " - Ignoring routes from " + neighbour + ", not a neighbour");
+            return;
+        }
+        pendingSubscriptions.remove(neighbour);
+        Map<String, RoutingTable.Route> routes = RoutingTable.routesFromJSON((JSONObject) update.get("routes"), neighbour);
+        List<String> withdrawn = new ArrayList<>();
+        JSONArray withdrawnArr = (JSONArray) update.get("withdrawn");
+        if (withdrawnArr != null) {
+            for (Object destination : withdrawnArr) {
+                withdrawn.add((String) destination);
+            }
+        }
+        Set<String> changed = routingTable.update(neighbour, routes, withdrawn);
+        if (!changed.isEmpty()) {
+            myLogger.log(Logger.FINE, "Agent " + name + " - Routes changed towards " + changed);
+        }
+        routesChanged(changed);
+    }
+
+    // the destinations whose best route changed are advertised to the predecessors together, advertiseDelayMs
+    // after the first change: the routes changing several times while the tables converge are sent once
+    private void routesChanged(Set<String> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        // the paths cached for these destinations may not follow the table any more
+        for (String destination : changed) {
+            routeCache.remove(destination);
+        }
+        changedRoutes.addAll(changed);
+        if (advertiser == null) {
+            advertiser = new ClockWakerBehaviour(agent, advertiseDelayMs) {
+                protected void onWake() {
+                    advertiser = null;
+                    advertiseChangedRoutes();
+                }
+            };
+            agent.addBehaviour(advertiser);
+        }
+    }
+
+    // advertises the routes that changed, and asks the destinations left without a feasible route for a newer one
+    private void advertiseChangedRoutes() {
+        List<String> changed = new ArrayList<>(changedRoutes);
+        changedRoutes.clear();
+        for (String destination : changed) {
+            List<String> from = routingTable.refreshFrom(destination);
+            if (!from.isEmpty()) {
+                requestRefresh(destination, routingTable.feasibleSeq(destination), from);
+            }
+        }
+        // while down the routes have already been withdrawn
+        if (conveyor_status != ConveyorAgent.Status.Down) {
+            advertiseRoutes(changed, directory.getPredecessors());
+        }
+    }
+
+    // asks for a route to the destination newer than seq: the request follows the routes of the receivers
+    // up to a conveyor with a newer route, or up to the destination, which gives its routes a new sequence number
+    private void requestRefresh(String destination, long seq, List<String> receivers) {
+        JSONObject refresh = new JSONObject();
+        refresh.put("request_type", "route_refresh");
+        refresh.put("destination", destination);
+        refresh.put("seq", seq);
+        ACLMessage refreshMsg = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addReceivers(refreshMsg, receivers);
+        setContent(refreshMsg, refresh, receivers);
+        send(refreshMsg);
+    }
+
+    private void handleRouteRefresh(String sender, JSONObject refresh) {
+        String destination = (String) refresh.get("destination");
+        long seq = ConveyorAgent.longField(refresh, "seq");
+        if (destination.equals(name)) {
+            // the new sequence number reaches every conveyor upstream with the route to this one
+            if (routingTable.newSeq(seq) && conveyor_status != ConveyorAgent.Status.Down) {
+                myLogger.log(Logger.FINE, "Agent " + name + " - New route sequence number " + routingTable.getSeq() + " asked by " + sender);
+                advertiseRoutes(Collections.singletonList(name), directory.getPredecessors());
+            }
+            return;
+        }
+        RoutingTable.Route route = routingTable.lookup(destination);
+        if (route == null) {
+            // without a route this conveyor already asked its own neighbours
+            return;
+        }
+        if (route.getSeq() > seq) {
+            // the newer route is on its way to the predecessors, it is sent again to the one that missed it
+            if (directory.getPredecessors().contains(sender) && conveyor_status != ConveyorAgent.Status.Down) {
+                advertiseRoutes(Collections.singletonList(destination), Collections.singletonList(sender));
+            }
+            return;
+        }
+        // the same request can arrive from several predecessors, it is forwarded once
+        Long forwarded = refreshesForwarded.get(destination);
+        if (forwarded == null || forwarded < seq) {
+            refreshesForwarded.put(destination, seq);
+            requestRefresh(destination, seq, Collections.singletonList(route.getNextHop()));
+        }
+    }
+
+    // drops the cached routes crossing the conveyor, here and in all the conveyors upstream
+    private void invalidateRoutesThrough(String conveyor) {
+        routeCache.invalidate(conveyor);
+        lastInvalidation.put(name, ++invalidationSeq);
+        JSONObject notice = new JSONObject();
+        notice.put("request_type", "route_invalidate");
+        notice.put("conveyor", conveyor);
+        notice.put("origin", name);
+        notice.put("seq", invalidationSeq);
+        sendToPredecessors(notice);
+    }
+
+    // applies a route invalidation and forwards it upstream, once per notice
+    private void handleRouteInvalidate(JSONObject notice) {
+        String origin = (String) notice.get("origin");
+        long seq = ((Number) notice.get("seq")).longValue();
+        Long last = lastInvalidation.get(origin);
+        if (last != null && seq <= last) {
+            // already seen, the notice went around a ring
+            return;
+        }
+        lastInvalidation.put(origin, seq);
+        int removed = routeCache.invalidate((String) notice.get("conveyor"));
+        if (removed > 0) {
+            myLogger.log(Logger.FINE, "Agent " + name + " - " + removed + " cached routes through " + notice.get("conveyor") + " dropped");
+        }
+        sendToPredecessors(notice);
+    }
+
+    // edge chasing: the probe follows the conveyors waiting for the next one. If it comes back to the conveyor
+    // that started it, all the conveyors crossed wait for each other and none of them will ever move
+    private void startDeadlockProbe() {
+        JSONObject probe = new JSONObject();
+        probe.put("request_type", "deadlock_probe");
+        probe.put("initiator", name);
+        probe.put("cycle", new JSONArray());
+        probe.put("exits", new JSONObject());
+        handleDeadlockProbe(probe);
+    }
+
+    private void handleDeadlockProbe(JSONObject probe) {
+        // only a conveyor waiting for the next one is part of the wait-for graph
+        if ((activeHandOff == null) || !activeHandOff.isBlocked()) {
+            return;
+        }
+        JSONArray cycle = (JSONArray) probe.get("cycle");
+        if (cycle.contains(name)) {
+            if (name.equals(probe.get("initiator"))) {
+                deadlockFound(cycle, (JSONObject) probe.get("exits"));
+            }
+            // else: a cycle not containing the initiator, it will find it on its own
+            return;
+        }
+        cycle.add(name);
+        // the other neighbours of the conveyor: whether one of them leads out of the cycle is only known when the
+        // probe comes back
+        JSONArray others = new JSONArray();
+        for (String n : neighbours) {
+            if (!n.equals(activeHandOff.nextCnv)) {
+                others.add(n);
+            }
+        }
+        if (!others.isEmpty()) {
+            ((JSONObject) probe.get("exits")).put(name, others);
+        }
+        ACLMessage probeMsg = new ACLMessage(ACLMessage.PROPAGATE);
+        probeMsg.addReceiver(directory.aid(activeHandOff.nextCnv));
+        setContent(probeMsg, probe, activeHandOff.nextCnv);
+        send(probeMsg);
+    }
+
+    // every conveyor of the cycle may detect it: all of them choose the same victims, the conveyors with a
+    // neighbour out of the cycle in name order, so the cycle is broken once
+    private void deadlockFound(JSONArray cycle, JSONObject exits) {
+        myLogger.log(Logger.WARNING, "Agent " + name + " - Deadlock detected: " + cycle);
+        List<String> candidates = ConveyorAgent.deadlockCandidates(cycle, exits);
+        if (candidates.isEmpty()) {
+            myLogger.log(Logger.SEVERE, "Agent " + name + " - No conveyor of the cycle can move its pallet elsewhere, the deadlock cannot be resolved");
+            return;
+        }
+        sendResolveDeadlock(cycle, candidates);
+    }
+
+    // asks the first candidate to move its pallet out of the cycle, the others are tried if it cannot
+    private void sendResolveDeadlock(JSONArray cycle, List<String> candidates) {
+        String victim = candidates.get(0);
+        JSONArray next = new JSONArray();
+        next.addAll(candidates.subList(1, candidates.size()));
+        JSONObject resolve = new JSONObject();
+        resolve.put("request_type", "resolve_deadlock");
+        resolve.put("cycle", cycle);
+        resolve.put("candidates", next);
+        ACLMessage resolveMsg = new ACLMessage(ACLMessage.REQUEST);
+        resolveMsg.addReceiver(directory.aid(victim));
+        setContent(resolveMsg, resolve, victim);
+        send(resolveMsg);
+    }
+
+    // Moves the first pallet out of a cycle of waiting conveyors. If its ways out are taken the next candidate
+    // is asked instead
+    private void handleResolveDeadlock(ACLMessage msg, JSONObject request, ACLMessage reply) {
+        JSONArray cycle = (JSONArray) request.get("cycle");
+        // the cycle may have been broken already, by another detection or by a conveyor becoming free
+        if ((activeHandOff == null) || !activeHandOff.isBlocked() || !cycle.contains(activeHandOff.nextCnv)) {
+            reply.setPerformative(ACLMessage.REFUSE);
+            reply.setContent("Not waiting in the cycle");
+        }
+        else if (activeHandOff.escape(cycle)) {
+            reply.setPerformative(ACLMessage.AGREE);
+            reply.setContent("Pallet moved out of the cycle");
+        }
+        else {
+            reply.setPerformative(ACLMessage.REFUSE);
+            reply.setContent("No free way out of the cycle");
+            List<String> candidates = new ArrayList<>();
+            if (request.get("candidates") != null) {
+                for (Object c : (JSONArray) request.get("candidates")) {
+                    candidates.add(c.toString());
+                }
+            }
+            if (candidates.isEmpty()) {
+                myLogger.log(Logger.SEVERE, "Agent " + name + " - No conveyor of the cycle can move its pallet elsewhere, the deadlock cannot be resolved");
+            }
+            else {
+                sendResolveDeadlock(cycle, candidates);
+            }
+        }
+        send(reply);
+    }
+
+    private void sendToPredecessors(JSONObject content) {
+        if (directory.getPredecessors().isEmpty()) {
+            return;
+        }
+        ACLMessage out = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addPredecessorReceivers(out);
+        setContent(out, content, directory.getPredecessors());
+        send(out);
+    }
+
+
+
+    // -------------------------------------------------------------------------------------------------- //
+
+
+    // behaviour moving the pallet to the next conveyor of the route. Every wait is a timed block() on the clock,
+    // so the agent keeps answering the other requests while the pallet travels or the next conveyor is busy
+    private class HandOffBehaviour extends Behaviour {
+        private static final int WAITING_TRANSFER = 0;
+        private static final int WAITING_REPLY = 1;
+        private static final int WAITING_ETA = 2;
+        private static final int WAITING_RETRY = 3;
+        private static final int FINISHED = 4;
+
+        // pallet moved, with the routed_transfer request being executed
+        private final Pallet pallet;
+        private final JSONObject request;
+        // reply to the routed_transfer request, used to report errors
+        private final ACLMessage reply;
+        private final String nextCnv;
+
+        private int state = WAITING_TRANSFER;
+        private long wakeUpTime;
+        // number of load requests sent to the next conveyor
+        private int attempts = 0;
+        private String conversationId;
+        private MessageTemplate replyTemplate;
+        private ACLMessage loadNextConveyor;
+        private long loadSentTime;
+
+        public HandOffBehaviour(Agent a, Pallet pallet) {
+            super(a);
+            this.pallet = pallet;
+            this.request = pallet.request;
+            this.reply = pallet.reply;
+            this.nextCnv = pallet.nextCnv;
+            // the pallet needs transfer_time from its loading to reach the end of the conveyor
+            wakeUpTime = pallet.loadTime + transfer_time * 1000L;
+            if (pipelined) {
+                // a pallet queued behind the previous one still has to cover its entry zone after that one left
+                wakeUpTime = Math.max(wakeUpTime, lastDepartureTime + (long) (entryZone * transfer_time * 1000L));
+            }
+            // a pallet with a booked route leaves at the time booked, when the next conveyor expects it
+            wakeUpTime = Math.max(wakeUpTime, calendar.departure(pallet.id));
+            handOffTime = wakeUpTime;
+        }
+
+        public void action() {
+            switch (state) {
+                case WAITING_TRANSFER:
+                    if (waitUntil(wakeUpTime)) {
+                        return;
+                    }
+                    // check that next conveyor in the route is actually a neighbour
+                    if (!neighbours.contains(nextCnv) && rerouteAllowed()) {
+                        // the link was removed after the route was found
+                        myLogger.log(Logger.WARNING, "Agent " + name + " - " + nextCnv + " is no longer a neighbour");
+                        reroute();
+                        return;
+                    }
+                    if (!neighbours.contains(nextCnv)) {
+                        myLogger.log(Logger.WARNING, "Agent " + name + " - Next conveyor is not a neighbour");
+                        reply.setPerformative(ACLMessage.FAILURE);
+                        reply.setContent("Next conveyor is not a neighbour");
+                        send(reply);
+                        notifyTransferFailed(request, true, reply.getContent());
+                        pallet.request = null;
+                        state = FINISHED;
+                        return;
+                    }
+                    // Simulation: pallet unloaded and loaded on the following conveyor
+                    // all the answers of the next conveyor are received through this conversation
+                    conversationId = name + "-handoff-" + (++conversationCounter);
+                    openConversations.add(conversationId);
+                    replyTemplate = conversation(conversationId);
+                    loadNextConveyor = new ACLMessage(ACLMessage.REQUEST);
+                    JSONObject loadMessage = new JSONObject();
+                    loadMessage.put("request_type", "load");
+                    loadMessage.put("pallet_id", pallet.id);
+                    setContent(loadNextConveyor, loadMessage, nextCnv);
+                    loadNextConveyor.setConversationId(conversationId);
+                    loadNextConveyor.addReceiver(directory.aid(nextCnv));
+                    NeighbourMonitor.Decision decision = monitor.beforeLoad(nextCnv, "true".equals(request.get("reserve")), clock.now());
+                    if (decision.getAction() == NeighbourMonitor.Action.LOAD) {
+                        sendLoad(ConveyorAgent.firstReplyTimeoutMs);
+                    }
+                    else {
+                        follow(decision);
+                    }
+                    break;
+                case WAITING_REPLY:
+                case WAITING_ETA:
+                case WAITING_RETRY:
+                    ACLMessage answer = receiveCounted(replyTemplate);
+                    if (answer != null) {
+                        // an AGREE is accepted even when it arrives late, during the wait before the next try
+                        if (answer.getPerformative() == ACLMessage.AGREE) {
+                            palletHandedOff();
+                        }
+                        // a late answer to get_eta is not a refusal
+                        else if ((state == WAITING_REPLY) && (answer.getPerformative() != ACLMessage.INFORM)) {
+                            loadRefused();
+                        }
+                        else if ((state == WAITING_ETA) && (answer.getPerformative() == ACLMessage.INFORM)) {
+                            etaReceived(answer);
+                        }
+                        return;
+                    }
+                    if (waitUntil(wakeUpTime)) {
+                        return;
+                    }
+                    if (state == WAITING_REPLY) {
+                        // no answer in time
+                        loadRefused();
+                    }
+                    else if (state == WAITING_ETA) {
+                        // the next conveyor does not tell when it will be free, try again later
+                        follow(monitor.afterEta(nextCnv, null, routingTable, (String) request.get("destination"),
+                                rerouteAllowed(), clock.now()));
+                    }
+                    else {
+                        sendLoad(ConveyorAgent.replyTimeoutMs);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        public boolean done() {
+            return state == FINISHED;
+        }
+
+        public int onEnd() {
+            openConversations.remove(conversationId);
+            if (activeHandOff == this) {
+                activeHandOff = null;
+                handOffTime = 0;
+            }
+            return super.onEnd();
+        }
+
+        // the pallet was unloaded by hand, it does not move anymore
+        public void stop() {
+            state = FINISHED;
+            restart();
+        }
+
+        // blocks the behaviour until the given time, returns false if the time has already come
+        private boolean waitUntil(long time) {
+            long now = clock.now();
+            if (now < time) {
+                clock.wakeUpAt(this, time);
+                return true;
+            }
+            return false;
+        }
+
+        private void sendLoad(long replyTimeout) {
+            attempts++;
+            loadSentTime = clock.now();
+            send(loadNextConveyor);
+            myLogger.log(Logger.INFO, "Agent " + name + " - Transferring the pallet to " + nextCnv);
+            state = WAITING_REPLY;
+            wakeUpTime = clock.now() + replyTimeout;
+        }
+
+        // the next conveyor loaded the pallet: send it the transfer, pointing at its hop
+        private void palletHandedOff() {
+            pallets.remove(pallet);
+            calendar.release(pallet.id);
+            lastDepartureTime = clock.now();
+            loadHandshakeLatency.record(lastDepartureTime - loadSentTime);
+            updateOccupancy();
+            ACLMessage truthSpreader = new ACLMessage(ACLMessage.REQUEST);
+            truthSpreader.addReceiver(directory.aid(nextCnv));
+            JSONObject envelope = RouteStore.envelope(request, (int) ConveyorAgent.longField(request, "hop") + 1, !sharedStorePeers.contains(nextCnv));
+            if (attempts > 1) {
+                carryTransferStats(request, envelope, attempts - 1, 0);
+            }
+            setContent(truthSpreader, envelope, nextCnv);
+            send(truthSpreader);
+            myLogger.log(Logger.INFO, "Agent " + name + " - Spreading the truth...");
+            state = FINISHED;
+            // the next pallet can move
+            activeHandOff = null;
+            handOffTime = 0;
+            startNextHandOff();
+        }
+
+        // load refused or not answered: ask the next conveyor when it will be free, three tries in total
+        private void loadRefused() {
+            if (attempts >= ConveyorAgent.maxLoadAttempts) {
+                reroute();
+                return;
+            }
+            // the next conveyor may be waiting for this one, through a cycle
+            startDeadlockProbe();
+            ACLMessage etaRequest = new ACLMessage(ACLMessage.REQUEST);
+            JSONObject etaObj = new JSONObject();
+            etaObj.put("request_type", "get_eta");
+            setContent(etaRequest, etaObj, nextCnv);
+            etaRequest.setConversationId(conversationId);
+            etaRequest.addReceiver(directory.aid(nextCnv));
+            send(etaRequest);
+            state = WAITING_ETA;
+            wakeUpTime = clock.now() + ConveyorAgent.firstReplyTimeoutMs;
+        }
+
+        // waits for the next conveyor to be free, unless another route is faster than waiting
+        private void etaReceived(ACLMessage answer) {
+            follow(monitor.afterEta(nextCnv, parseContent(answer), routingTable, (String) request.get("destination"),
+                    rerouteAllowed(), clock.now()));
+        }
+
+        // waits before the next try, or gives up the next conveyor
+        private void follow(NeighbourMonitor.Decision decision) {
+            if (decision.getAction() == NeighbourMonitor.Action.REROUTE) {
+                myLogger.log(Logger.WARNING, "Agent " + name + " - " + decision.getReason());
+                reroute();
+            }
+            else {
+                scheduleRetry(decision.getDelayMs());
+            }
+        }
+
+        // a single new try when the next conveyor should be free
+        private void scheduleRetry(long delay) {
+            state = WAITING_RETRY;
+            wakeUpTime = clock.now() + delay;
+            handOffTime = wakeUpTime;
+        }
+
+        // the next conveyor pushed a new status while the pallet waits for it: no need to wait for the
+        // answer to get_eta or for the next try
+        public void nextStatusChanged(ConveyorAgent.Status status) {
+            NeighbourMonitor.Decision decision = NeighbourMonitor.statusChanged(nextCnv, status);
+            if (((state != WAITING_ETA) && (state != WAITING_RETRY)) || (decision == null)) {
+                return;
+            }
+            follow(decision);
+            restart();
+        }
+
+        // the next conveyor left, stopped answering or is no longer a neighbour: the pallet does not wait for
+        // an answer that will not come
+        public void nextUnavailable(String reason) {
+            if ((state == WAITING_REPLY) || (state == WAITING_ETA) || (state == WAITING_RETRY)) {
+                myLogger.log(Logger.WARNING, "Agent " + name + " - " + nextCnv + " " + reason);
+                reroute();
+            }
+        }
+
+        // the next conveyor refused the pallet at least once and the pallet is still waiting for it
+        public boolean isBlocked() {
+            return (state == WAITING_ETA) || (state == WAITING_RETRY) || ((state == WAITING_REPLY) && (attempts > 1));
+        }
+
+        // leaves a deadlock cycle: the pallet goes to a neighbour out of the cycle, on the way to its destination
+        // if there is one, otherwise it is parked there. Returns false if no neighbour out of the cycle can take it
+        public boolean escape(JSONArray cycle) {
+            String destination = (String) request.get("destination");
+            List<String> exits = new ArrayList<>();
+            RoutingTable.Route best = null;
+            for (String n : neighbours) {
+                // a neighbour known to be full, down or not responding would refuse the pallet
+                if (n.equals(nextCnv) || cycle.contains(n) || !monitor.mayAccept(n)) {
+                    continue;
+                }
+                exits.add(n);
+                RoutingTable.Route route = routingTable.lookupVia(n, destination);
+                if (route != null && (best == null || route.getCost() < best.getCost())) {
+                    best = route;
+                }
+            }
+            if (exits.isEmpty()) {
+                return false;
+            }
+            String exit = (best != null) ? best.getNextHop() : exits.get(0);
+            JSONArray viaPoints = new JSONArray();
+            viaPoints.add(name);
+            viaPoints.add(exit);
+            JSONObject escapeObj = new JSONObject();
+            escapeObj.put("destination", exit);
+            if (best != null) {
+                // the exit goes on to the destination with the route traced from its own table
+                escapeObj.put("final_destination", destination);
+                myLogger.log(Logger.WARNING, "Agent " + name + " - Breaking the deadlock, " + pallet.id + " rerouted via " + exit);
+            }
+            else {
+                myLogger.log(Logger.WARNING, "Agent " + name + " - Breaking the deadlock, " + pallet.id + " parked on " + exit);
+            }
+            // otherwise the transfer ends on the exit, the agent waiting for the pallet learns it is there
+            if (request.get("notify") != null) {
+                escapeObj.put("notify", request.get("notify"));
+            }
+            abandon();
+            escapeObj.put("request_type", "routed_transfer");
+            escapeObj.put("source", name);
+            escapeObj.put("viaPoints", viaPoints);
+            escapeObj.put("reroute", "true");
+            escapeObj.put("pallet_id", pallet.id);
+            carryTransferStats(request, escapeObj, attempts, 1);
+            ACLMessage escapeMsg = new ACLMessage(ACLMessage.REQUEST);
+            escapeMsg.addReceiver(aid);
+            setContent(escapeMsg, escapeObj, name);
+            send(escapeMsg);
+            return true;
+        }
+
+        // stops waiting for the next conveyor, the pallet stays here without route
+        private void abandon() {
+            state = FINISHED;
+            restart();
+            pallet.request = null;
+            // the new route of the pallet must be able to start its own hand-off at once
+            if (activeHandOff == this) {
+                activeHandOff = null;
+                handOffTime = 0;
+            }
+            // the slots booked further on the route will not be used, and nobody else follows the route
+            JSONArray route = (JSONArray) request.get("viaPoints");
+            List<String> ahead = new ArrayList<>();
+            for (int i = (int) ConveyorAgent.longField(request, "hop") + 1; i < route.size(); i++) {
+                ahead.add((String) route.get(i));
+            }
+            releaseSlots(pallet.id, ahead);
+            RouteStore.remove(request.get("route_id"));
+        }
+
+        private boolean rerouteAllowed() {
+            return (request.get("reroute") != null) && (request.get("reroute").equals("true"));
+        }
+
+        // gives up with the next conveyor and, if allowed, looks for another route
+        private void reroute() {
+            // the pallet waits for its new route
+            abandon();
+            // the routes through the conveyor that refused the pallet must not be served from the caches anymore
+            invalidateRoutesThrough(nextCnv);
+            // if we have rerouting permission, try to find a new route
+            if (rerouteAllowed()) {
+                // sending a transfer message to itself with pathfinding request
+                JSONObject newTransferRequestObj = new JSONObject();
+                newTransferRequestObj.put("request_type", "transfer");
+                newTransferRequestObj.put("source", name);
+                newTransferRequestObj.put("destination", request.get("destination"));
+                newTransferRequestObj.put("pallet_id", pallet.id);
+                carryTransferStats(request, newTransferRequestObj, attempts, 1);
+                if (request.get("reserve") != null) {
+                    newTransferRequestObj.put("reserve", request.get("reserve"));
+                }
+                if (request.get("notify") != null) {
+                    newTransferRequestObj.put("notify", request.get("notify"));
+                }
+                // the new route must not cross the conveyor that refused the pallet
+                JSONArray avoid = new JSONArray();
+                avoid.add(nextCnv);
+                newTransferRequestObj.put("avoid", avoid);
+                ACLMessage newTransferRequestMsg = new ACLMessage(ACLMessage.REQUEST);
+                setContent(newTransferRequestMsg, newTransferRequestObj, name);
+                newTransferRequestMsg.addReceiver(aid);
+                send(newTransferRequestMsg);
+                myLogger.log(Logger.WARNING, "Agent " + name + " - Trying to reroute...");
+            }
+            else {
+                notifyTransferFailed(request, true, nextCnv + " cannot take the pallet");
+            }
+        }
+    }
+
+
+    // behaviour booking a slot on every conveyor of a route, one after the other: each conveyor tells when
+    // the pallet will leave it, that is when it arrives on the next one. If a conveyor is taken, the slots
+    // already booked are released and the whole route is booked again with the pallet leaving later
+    private class ReservationBehaviour extends Behaviour {
+        private static final int WAITING_REPLY = 0;
+        private static final int FINISHED = 1;
+
+        private final String palletId;
+        private final List<String> route = new ArrayList<>();
+        // routed_transfer request sent to this conveyor once the route is booked
+        private final ACLMessage routedTransfer;
+
+        private int state = WAITING_REPLY;
+        private int attempts = 0;
+        // time the pallet is kept on this conveyor after its transfer time to find free slots
+        private long delay = 0;
+        // position in the route of the conveyor being booked, and arrival of the pallet on it
+        private int hop;
+        private long arrival;
+        private long wakeUpTime;
+        private String conversationId;
+        private MessageTemplate replyTemplate;
+
+        public ReservationBehaviour(Agent a, JSONObject routedTransferObj, ACLMessage routedTransfer) {
+            super(a);
+            this.palletId = (String) routedTransferObj.get("pallet_id");
+            for (Object c : (JSONArray) routedTransferObj.get("viaPoints")) {
+                route.add((String) c);
+            }
+            this.routedTransfer = routedTransfer;
+            conversationId = name + "-reserve-" + (++conversationCounter);
+            openConversations.add(conversationId);
+            replyTemplate = conversation(conversationId);
+        }
+
+        public void onStart() {
+            startBooking();
+        }
+
+        public void action() {
+            if (state == FINISHED) {
+                return;
+            }
+            ACLMessage answer = receiveCounted(replyTemplate);
+            if (answer == null) {
+                long now = clock.now();
+                if (now < wakeUpTime) {
+                    clock.wakeUpAt(this, wakeUpTime);
+                }
+                else {
+                    // a conveyor of the route does not answer
+                    giveUp();
+                }
+                return;
+            }
+            JSONObject answerObj = parseContent(answer);
+            if (answerObj == null) {
+                giveUp();
+            }
+            else if ((answer.getPerformative() == ACLMessage.AGREE) && (answerObj.get("departure_ms") instanceof Number)) {
+                hop++;
+                arrival = ((Number) answerObj.get("departure_ms")).longValue();
+                bookNextHop();
+            }
+            else if (answerObj.get("free_ms") instanceof Number) {
+                slotTaken(((Number) answerObj.get("free_ms")).longValue());
+            }
+            else {
+                giveUp();
+            }
+        }
+
+        public boolean done() {
+            return state == FINISHED;
+        }
+
+        public int onEnd() {
+            openConversations.remove(conversationId);
+            return super.onEnd();
+        }
+
+        // books the route from the start, the first slot is the one of this conveyor
+        private void startBooking() {
+            Pallet pallet = findPallet(palletId);
+            if (pallet == null) {
+                // unloaded meanwhile
+                state = FINISHED;
+                return;
+            }
+            attempts++;
+            hop = 0;
+            arrival = pallet.loadTime + delay;
+            long departure = reserveSlot(palletId, arrival, route.size() == 1);
+            if (departure < 0) {
+                slotTaken(-departure);
+                return;
+            }
+            hop = 1;
+            arrival = departure;
+            bookNextHop();
+        }
+
+        private void bookNextHop() {
+            if (hop >= route.size()) {
+                myLogger.log(Logger.INFO, "Agent " + name + " - Route booked for " + palletId + ", arrival at " + arrival);
+                send(routedTransfer);
+                state = FINISHED;
+                return;
+            }
+            String conveyor = route.get(hop);
+            JSONObject reserveObj = new JSONObject();
+            reserveObj.put("request_type", "reserve");
+            reserveObj.put("pallet_id", palletId);
+            reserveObj.put("arrival_ms", arrival);
+            if (hop == route.size() - 1) {
+                reserveObj.put("last", "true");
+            }
+            ACLMessage reserveMsg = new ACLMessage(ACLMessage.REQUEST);
+            reserveMsg.addReceiver(directory.aid(conveyor));
+            reserveMsg.setConversationId(conversationId);
+            setContent(reserveMsg, reserveObj, conveyor);
+            send(reserveMsg);
+            wakeUpTime = clock.now() + ConveyorAgent.replyTimeoutMs;
+        }
+
+        // the conveyor being booked is taken until freeTime: book everything again, leaving later
+        private void slotTaken(long freeTime) {
+            releaseSlots(palletId, route.subList(0, hop));
+            if ((freeTime == Long.MAX_VALUE) || (attempts >= maxReservationAttempts)) {
+                giveUp();
+                return;
+            }
+            delay += Math.max(freeTime - arrival, ConveyorAgent.minRetryDelayMs);
+            myLogger.log(Logger.INFO, "Agent " + name + " - " + route.get(hop) + " taken, booking again " + delay + " ms later");
+            startBooking();
+        }
+
+        // the transfer starts anyway, the hand-offs wait for the conveyors as usual
+        private void giveUp() {
+            releaseSlots(palletId, route.subList(0, Math.min(hop + 1, route.size())));
+            myLogger.log(Logger.WARNING, "Agent " + name + " - Cannot book the route for " + palletId + ", starting without reservation");
+            send(routedTransfer);
+            state = FINISHED;
+        }
+    }
+
+
+    // behaviour to ask look for the best path
+    private class BestPath extends Behaviour {
+        // message containing the information about the path: source, destination and viaPoints
+        JSONObject msg;
+        // sender of the original message. Used to communicate the best path and instantiate transfer request
+        AID sender = null;
+        // internal variable for Done() method
+        private boolean isDone = false;
+        // StartOfCommunication flag. Distinguish between the original pathfinding request and the propagation of the message
+        private boolean SOC = false;
+        // flag to request for transfer after finding the best path
+        private boolean transferAfterFindingRoute = false;
+        // conversation shared by all the messages of the same pathfinding
+        private String conversationId = null;
+        // state of the source while it collects the paths
+        private boolean collecting = false;
+        private boolean cancelled = false;
+        private MessageTemplate replyTemplate;
+        private List<JSONObject> messages = new ArrayList<>();
+        // the collection ends at the deadline, or earlier if no reply arrives for quietPeriodMs
+        private long deadline;
+        private long lastReplyTime;
+        // no path can be cheaper than this: a reply with this cost ends the collection at once
+        private long lowerBound;
+        // bounded flood (heuristic mode): the first path received is taken
+        private boolean heuristic = false;
+        // the request follows the next hops of the routing tables instead of being flooded
+        private boolean tracing = false;
+        // the searches already tried, and the next hop traced if the flood finds nothing
+        private boolean traced = false;
+        private boolean flooded = false;
+        private String fallbackHop = null;
+        // the request was binary: every conveyor up to the source accepts the binary content
+        private boolean binaryRequest = false;
+        // the route found can be cached: this conveyor started the search
+        private boolean cacheable = false;
+        // start of the search, on the source
+        private long startTime = 0;
+
+        public BestPath(Agent a, JSONObject s) {
+            super(a);
+            msg = s;
+        }
+
+        public BestPath(Agent a, JSONObject s, boolean SOC) {
+            this(a,s);
+            this.SOC = SOC;
+        }
+
+        public BestPath(Agent a, JSONObject s, AID sender, boolean SOC) {
+            this(a,s,SOC);
+            this.sender = sender;
+        }
+
+        public BestPath(Agent a, JSONObject s, AID sender, boolean SOC, boolean transferAfterFindingRoute) {
+            this(a,s,sender,SOC);
+            this.transferAfterFindingRoute = transferAfterFindingRoute;
+        }
+
+        public void action() {
+            if (cancelled) {
+                isDone = true;
+                return;
+            }
+            if (collecting) {
+                collectReplies();
+                return;
+            }
+            //Check the format of the message
+            if ((msg.get("source") == null) || (msg.get("destination") == null) || (msg.get("viaPoints") == null)) {
+                myLogger.log(Logger.WARNING, name + " - Wrong format");
+                isDone = true;
+                return;
+            }
+
+
+            // Start of conversation: the received message is a CFP
+            if (SOC) {
+                // If I am the source, I can proceed with the algorithm
+                if (msg.get("source").equals(name)) {
+                    // the pallet was unloaded before the search started, there is nothing to transfer anymore
+                    if (transferAfterFindingRoute && (findPallet(msg.get("pallet_id")) == null)) {
+                        myLogger.log(Logger.INFO, name + " - Path finding from " + name + " to " + msg.get("destination") + " cancelled");
+                        isDone = true;
+                        return;
+                    }
+                    startTime = clock.now();
+                    // a route to the same destination, avoiding the same conveyors, was found recently and nothing
+                    // changed on it since
+                    cacheable = true;
+                    RouteCache.Route cachedRoute = routeCache.get((String) msg.get("destination"), (JSONArray) msg.get("avoid"));
+                    if (cachedRoute != null) {
+                        JSONArray viaPoints = new JSONArray();
+                        viaPoints.addAll(cachedRoute.getPath());
+                        msg.put("viaPoints", viaPoints);
+                        msg.put("cost", cachedRoute.getCost());
+                        reportBestPath(msg, cachedRoute.getCost());
+                        isDone = true;
+                        return;
+                    }
+                    // the pallet is already there
+                    if (name.equals(msg.get("destination"))) {
+                        JSONArray viaPoints = new JSONArray();
+                        viaPoints.add(name);
+                        msg.put("viaPoints", viaPoints);
+                        msg.put("cost", 0);
+                        reportBestPath(msg, 0);
+                        isDone = true;
+                        return;
+                    }
+                    String destination = (String) msg.get("destination");
+                    JSONArray avoid = (JSONArray) msg.get("avoid");
+                    if (((avoid != null) && !avoid.isEmpty()) || "true".equals(msg.get("heuristic"))) {
+                        // reroute: the table does not know which conveyors are free around the one to avoid, the
+                        // paths through the idle ones are flooded, bounded by the fastest alternative of the table.
+                        // If none answers (e.g. the destination is busy) the route is traced
+                        List<RoutingTable.Route> alternatives = routingTable.alternatives(destination, avoid);
+                        RoutingTable.Route fallback = routingTable.lookup(destination, avoid);
+                        fallbackHop = (fallback != null) ? fallback.getNextHop() : null;
+                        poll(null, alternatives.isEmpty() ? null : alternatives);
+                    }
+                    else {
+                        // the table knows the next hop: the route is traced along the tables of the conveyors, one
+                        // message per hop. Routes not known yet (e.g. the layout is still starting): the request is flooded
+                        RoutingTable.Route knownRoute = routingTable.lookup(destination);
+                        poll((knownRoute != null) ? knownRoute.getNextHop() : null, null);
+                    }
+                }
+                // SOC was sent to a CNV that is not the source, forward the message to the right agent
+                else {
+                    ACLMessage forward = new ACLMessage(ACLMessage.CFP);
+                    setContent(forward, msg, msg.get("source").toString());
+                    forward.addReceiver(directory.aid(msg.get("source").toString()));
+                    send(forward);
+                    myLogger.log(Logger.WARNING, name + " - The PathFinding request was sent to the wrong agent - Rerouting request ...");
+                    isDone = true;
+                }
+            }
+            // I am destination
+            else if (msg.get("destination").equals(name)) {
+                // Propagate only if the conveyor is idle, if not the path is not valid. A traced route is valid
+                // whatever the status, like the routes of the table
+                if ((conveyor_status == ConveyorAgent.Status.Idle)
+                        || ("true".equals(msg.get("trace")) && (conveyor_status != ConveyorAgent.Status.Down))) {
+                    // destination cnv is added to viaPoints
+                    ((JSONArray) msg.get("viaPoints")).add(name);
+                    // send full list to source
+                    // create message
+                    ACLMessage fullList = new ACLMessage(ACLMessage.INFORM);
+                    fullList.setConversationId(conversationId);
+                    // find target
+                    AID targetAID = directory.aid((String) msg.get("source"));
+                    // send the message
+                    fullList.addReceiver(targetAID);
+                    // a binary request comes from a source that accepts binary replies
+                    if (binaryRequest && binaryContent) {
+                        setBinaryContent(fullList, msg);
+                    }
+                    else {
+                        fullList.setContent(msg.toString());
+                    }
+                    send(fullList);
+
+                    myLogger.log(Logger.INFO, name + " - I am the destination. Sending the full list to source.");
+                }
+                isDone = true;
+            }
+            // I am on the traced route: the request goes on to the next hop of the table, whatever the status
+            else if ("true".equals(msg.get("trace"))) {
+                JSONArray viaPoints = (JSONArray) msg.get("viaPoints");
+                // a next hop to avoid is replaced by the best other neighbour with a route
+                RoutingTable.Route route = routingTable.lookup((String) msg.get("destination"), (JSONArray) msg.get("avoid"));
+                // the routes of the tables do not loop, but they can be changing while the request goes by
+                if ((conveyor_status != ConveyorAgent.Status.Down) && (route != null)
+                        && !viaPoints.contains(name) && !viaPoints.contains(route.getNextHop())) {
+                    viaPoints.add(name);
+                    msg.put("cost", ConveyorAgent.costOf(msg) + transfer_time);
+                    ACLMessage traceMsg = new ACLMessage(ACLMessage.PROPAGATE);
+                    traceMsg.setConversationId(conversationId);
+                    traceMsg.addReceiver(directory.aid(route.getNextHop()));
+                    setContent(traceMsg, msg, route.getNextHop());
+                    send(traceMsg);
+                }
+                isDone = true;
+            }
+            // I am part of the path
+            else {
+                // Propagate only if the conveyor is idle, if not the path is not valid
+                if (conveyor_status == ConveyorAgent.Status.Idle) {
+                    // let's check if the CNV is already in the viaPoints array
+                    if (((JSONArray) msg.get("viaPoints")).contains(name)) {
+                        // already in the array -> pathfinder is stuck in a loop
+                        isDone = true;
+                        return;
+                        // do not send any message
+                    }
+                    // the conveyors to avoid do not take part in the search
+                    if ((msg.get("avoid") instanceof JSONArray) && ((JSONArray) msg.get("avoid")).contains(name)) {
+                        isDone = true;
+                        return;
+                    }
+                    long costSoFar = ConveyorAgent.costOf(msg);
+                    // a cheaper partial path of the same search already went through this conveyor
+                    if (conversationId != null) {
+                        Long forwarded = forwardedCosts.get(conversationId);
+                        if ((forwarded != null) && (forwarded <= costSoFar)) {
+                            isDone = true;
+                            return;
+                        }
+                        forwardedCosts.put(conversationId, costSoFar);
+                    }
+                    // heuristic mode: estimated cost of the complete path through this conveyor
+                    if (msg.get("bound") != null) {
+                        RoutingTable.Route estimate = routingTable.lookup((String) msg.get("destination"));
+                        if ((estimate == null) || (costSoFar + estimate.getCost() > ((Number) msg.get("bound")).longValue())) {
+                            isDone = true;
+                            return;
+                        }
+                    }
+                    // add myself to viaPoints array
+                    ((JSONArray) msg.get("viaPoints")).add(name);
+                    msg.put("cost", costSoFar + transfer_time);
+                    // propagate the message
+                    ACLMessage propagateMsg = new ACLMessage(ACLMessage.PROPAGATE);
+                    propagateMsg.setConversationId(conversationId);
+                    // send the message to all the neighbours
+                    directory.addNeighbourReceivers(propagateMsg);
+                    setContent(propagateMsg, msg, neighbours);
+                    send(propagateMsg);
+                    myLogger.log(Logger.INFO, name + " - Adding myself to the list and propagating the message.");
+                }
+                // a conveyor that is not idle just drops the request
+                isDone = true;
+            }
+        }
+
+        // sends the request to the given next hop, or floods it if null, then collects the paths coming back on the
+        // next runs of action(), woken up by the scheduler. Given the alternatives of the table, the flood is bounded:
+        // it goes to the neighbours whose route fits the bound, and the first path received is taken
+        private void poll(String nextHop, List<RoutingTable.Route> alternatives) {
+            tracing = (nextHop != null);
+            traced |= tracing;
+            flooded |= !tracing;
+            JSONArray viaPoints = new JSONArray();
+            viaPoints.add(name);
+            msg.put("viaPoints", viaPoints);
+            msg.put("cost", transfer_time);
+            // no path can be cheaper than the one in the table (which includes busy conveyors)
+            RoutingTable.Route anyRoute = routingTable.lookup((String) msg.get("destination"));
+            lowerBound = (anyRoute != null) ? anyRoute.getCost() : transfer_time;
+            ACLMessage propagateMsg = new ACLMessage(ACLMessage.PROPAGATE);
+            List<String> receivers;
+            if (tracing) {
+                msg.put("trace", "true");
+                receivers = Collections.singletonList(nextHop);
+                directory.addReceivers(propagateMsg, receivers);
+            }
+            else {
+                msg.remove("trace");
+                msg.remove("bound");
+                heuristic = (alternatives != null);
+                if (heuristic) {
+                    // A*: the intermediate conveyors drop the partial paths whose estimated cost exceeds the bound
+                    long bound = (long) Math.ceil(alternatives.get(0).getCost() * (1 + heuristicSlack));
+                    msg.put("bound", bound);
+                    receivers = new ArrayList<>();
+                    for (RoutingTable.Route alternative : alternatives) {
+                        if (alternative.getCost() <= bound) {
+                            receivers.add(alternative.getNextHop());
+                        }
+                    }
+                    directory.addReceivers(propagateMsg, receivers);
+                }
+                else {
+                    receivers = neighbours;
+                    directory.addNeighbourReceivers(propagateMsg);
+                }
+            }
+            conversationId = name + "-path-" + (++conversationCounter);
+            propagateMsg.setConversationId(conversationId);
+            setContent(propagateMsg, msg, receivers);
+            // the replies of this conversation are not dispatched
+            openConversations.add(conversationId);
+            activeSearches.add(this);
+            replyTemplate = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.INFORM),
+                    conversation(conversationId));
+            messages.clear();
+            deadline = clock.now() + timeoutMs;
+            collecting = true;
+            send(propagateMsg);
+            myLogger.log(Logger.INFO, name + (tracing ? " - Tracing the route via " + nextHop + "..."
+                    : heuristic ? " - Polling paths via " + receivers + "..." : " - Polling paths..."));
+        }
+
+        // reads the paths received so far, then waits for the next one without blocking the agent
+        private void collectReplies() {
+            ACLMessage rec = receiveCounted(replyTemplate);
+            while (rec != null) {
+                // add the path found to the messages list
+                JSONObject path = parseContent(rec);
+                if (path != null) {
+                    messages.add(path);
+                    lastReplyTime = clock.now();
+                    // nothing cheaper can arrive, or in heuristic mode the first path is good enough. A traced
+                    // route is the only reply
+                    if (tracing || heuristic || (ConveyorAgent.costOf(path) <= lowerBound)) {
+                        endCollection();
+                        return;
+                    }
+                }
+                rec = receiveCounted(replyTemplate);
+            }
+            long wakeUpTime = messages.isEmpty() ? deadline : Math.min(deadline, lastReplyTime + quietPeriodMs);
+            long now = clock.now();
+            if (now >= wakeUpTime) {
+                endCollection();
+            }
+            else {
+                // woken up by the next message or when the time is over
+                clock.wakeUpAt(this, wakeUpTime);
+            }
+        }
+
+        // compares the paths received and communicates the best one
+        private void endCollection() {
+            openConversations.remove(conversationId);
+            activeSearches.remove(this);
+            collecting = false;
+            // the trace got lost (a conveyor on the way has no route anymore): the table is stale, the request is
+            // flooded, bounded by the alternatives of the table if any
+            if (tracing && messages.isEmpty() && !flooded) {
+                myLogger.log(Logger.WARNING, name + " - No route traced to " + msg.get("destination") + ", polling paths");
+                List<RoutingTable.Route> alternatives = routingTable.alternatives((String) msg.get("destination"), (JSONArray) msg.get("avoid"));
+                poll(null, alternatives.isEmpty() ? null : alternatives);
+                return;
+            }
+            // no idle path found around the conveyors to avoid: the route of the table is traced
+            if (!tracing && messages.isEmpty() && !traced && (fallbackHop != null)) {
+                myLogger.log(Logger.WARNING, name + " - No path polled to " + msg.get("destination") + ", tracing the route");
+                poll(fallbackHop, null);
+                return;
+            }
+            isDone = true;
+            // if no replies
+            if (messages.isEmpty()) {
+                if(sender != null) {
+                    ACLMessage noPathMsg = new ACLMessage(ACLMessage.FAILURE);
+                    noPathMsg.setContent("Failed to find a path for the request\n" + msg);
+                    noPathMsg.addReceiver(sender);
+                    send(noPathMsg);
+                }
+                // the pallet waiting for this route stays on the source
+                if (transferAfterFindingRoute) {
+                    notifyTransferFailed(msg, true, "No path to " + msg.get("destination"));
+                }
+                myLogger.log(Logger.WARNING, name + " - Received no replies while looking for path from " + msg.get("source") + " to " + msg.get("destination"));
+            }
+            else {
+                // compare all the possible path: the best one takes the least time
+                JSONObject bestPath = ConveyorAgent.cheapestPath(messages);
+                reportBestPath(bestPath, ConveyorAgent.costOf(bestPath));
+            }
+        }
+
+        // stops the search, the replies still to come are discarded
+        public void cancel() {
+            openConversations.remove(conversationId);
+            activeSearches.remove(this);
+            cancelled = true;
+            restart();
+            myLogger.log(Logger.INFO, name + " - Path finding from " + msg.get("source") + " to " + msg.get("destination") + " cancelled");
+        }
+
+        // best path found, if we know who is the sender, we inform it of the result
+        private void reportBestPath(JSONObject bestPath, long cost) {
+            if (startTime > 0) {
+                pathFindingLatency.record(clock.now() - startTime);
+            }
+            if (cacheable) {
+                List<String> path = new ArrayList<>();
+                for (Object hop : (JSONArray) bestPath.get("viaPoints")) {
+                    path.add((String) hop);
+                }
+                routeCache.put(new RouteCache.Route(path, (int) cost), (JSONArray) msg.get("avoid"));
+            }
+            if (sender != null) {
+                ACLMessage pathFound = new ACLMessage();
+                pathFound.addReceiver(sender);
+                // if requested, we ask the sender to start the transfer
+                if (transferAfterFindingRoute) {
+                    pathFound.setPerformative(ACLMessage.REQUEST);
+                    bestPath.put("request_type", "routed_transfer");
+                    bestPath.put("reroute","true");
+                }
+                else {
+                    pathFound.setPerformative(ACLMessage.INFORM);
+                    bestPath.remove("request_type");
+                }
+                bestPath.remove("avoid");
+                bestPath.remove("heuristic");
+                bestPath.remove("bound");
+                bestPath.remove("trace");
+                setContent(pathFound, bestPath, sender.getLocalName());
+                if (transferAfterFindingRoute && "true".equals(bestPath.get("reserve"))) {
+                    // the transfer starts once every conveyor of the route has booked a slot for the pallet
+                    agent.addBehaviour(new ReservationBehaviour(agent, bestPath, pathFound));
+                }
+                else {
+                    send(pathFound);
+                }
+            }
+            myLogger.log(Logger.INFO, name + " - found best path (with cost " + cost + "s): " + bestPath.toString());
+        }
+
+        public boolean done() {
+            return isDone;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.ServiceException;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.core.messaging.MessagingHelper;
+import jade.core.messaging.MessagingService;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.domain.FIPAException;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.util.Logger;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This agent hosts many logical conveyors on a single JADE thread, instead of one agent per conveyor.
+ * Every hosted conveyor is a ConveyorCore, the same one a ConveyorAgent runs: it keeps its own status,
+ * neighbours, pallets, routing table, reservations and route cache, and understands the whole conveyor
+ * protocol, path finding floods and deadlock probes included. The shard registers the names of its conveyors
+ * as aliases and the cores use them as sender, so the other agents cannot tell a hosted conveyor from a
+ * ConveyorAgent.
+ * A message between two conveyors of the same shard is posted straight into the queue of the shard, without
+ * going through the platform; the other messages are sent as usual. The hosted conveyors do not follow each
+ * other through the DF or the heartbeats, since they stop together: they watch their neighbours hosted
+ * elsewhere and send their heartbeats to the predecessors hosted elsewhere.
+ * The arguments are the list of Layout.ConveyorSpec to host and, optionally, the names of the conveyors
+ * holding a pallet at start-up. A remove_conveyor request sent to the shard itself drops a hosted conveyor
+ * removed from the layout, and the shard ends with its last conveyor.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class ConveyorShardAgent extends Agent {
+    private Logger myLogger = Logger.getMyLogger(getClass().getName());
+    private final JSONParser jsonParser = new JSONParser();
+
+    private final Map<String, ConveyorCore> conveyors = new LinkedHashMap<>();
+    // a message sent to several conveyors of this shard by another agent arrives once per conveyor, with all of
+    // them as receivers: the first copy is handled for all of them and the others are dropped
+    private final Map<String, Integer> pendingCopies = new HashMap<>();
+    // messages of the hosted conveyors posted to conveyors of the shard, and sent to other agents
+    private long localMessages = 0;
+    private long remoteMessages = 0;
+
+    // the hosted conveyors send through the shard, which keeps their messages to each other inside it
+    private final ConveyorCore.Host host = new ConveyorCore.Host() {
+        public void send(ACLMessage msg) {
+            deliver(msg);
+        }
+
+        public boolean hosts(String conveyor) {
+            return conveyors.containsKey(conveyor);
+        }
+
+        public boolean watchesDirectory() {
+            return false;
+        }
+    };
+
+    // receives the messages for all the hosted conveyors, except the answers their behaviours are waiting for
+    private class ShardControlBehaviour extends CyclicBehaviour {
+
+        public ShardControlBehaviour(Agent a) {
+            super(a);
+        }
+
+        private final MessageTemplate notInOpenConversation = new MessageTemplate(aclMessage -> !ownedByHosted(aclMessage));
+
+        public void action() {
+            ACLMessage msg = myAgent.receive(notInOpenConversation);
+            if (msg == null) {
+                block();
+                return;
+            }
+            List<ConveyorCore> targets = hostedReceivers(msg);
+            if (targets.size() > 1 && isCopy(msg, targets.size())) {
+                return;
+            }
+            if (targets.isEmpty()) {
+                // sent to the shard itself
+                if (msg.getPerformative() == ACLMessage.REQUEST) {
+                    handleShardRequest(msg);
+                }
+                return;
+            }
+            for (ConveyorCore target : targets) {
+                target.count(msg);
+                target.dispatch(msg);
+            }
+        }
+    }
+
+    protected void setup() {
+        // Registration with the DF, once for all the hosted conveyors
+        DFAgentDescription dfd = new DFAgentDescription();
+        ServiceDescription sd = new ServiceDescription();
+        sd.setType("ConveyorShardAgent");
+        sd.setName(getName());
+        sd.setOwnership("Group 15");
+        dfd.setName(getAID());
+        dfd.addServices(sd);
+        try {
+            DFService.register(this, dfd);
+        } catch (FIPAException e) {
+            myLogger.log(Logger.SEVERE, "Agent " + getLocalName() + " - Cannot register with DF", e);
+            doDelete();
+            return;
+        }
+
+        Object[] args = getArguments();
+        if (args == null || args.length == 0 || !(args[0] instanceof Collection)) {
+            myLogger.log(Logger.SEVERE, "Agent " + getLocalName() + " - The conveyors to host are missing");
+            doDelete();
+            return;
+        }
+        for (Object spec : (Collection<?>) args[0]) {
+            ConveyorCore conveyor = new ConveyorCore(this, host, (Layout.ConveyorSpec) spec);
+            conveyors.put(conveyor.getName(), conveyor);
+        }
+        // the messages sent to the hosted conveyors are delivered to this agent
+        try {
+            MessagingHelper messaging = (MessagingHelper) getHelper(MessagingService.NAME);
+            for (String name : conveyors.keySet()) {
+                messaging.createAlias(name);
+            }
+        } catch (ServiceException | jade.core.IMTPException e) {
+            myLogger.log(Logger.SEVERE, "Agent " + getLocalName() + " - Cannot register the conveyor names", e);
+            doDelete();
+            return;
+        }
+
+        addBehaviour(new ShardControlBehaviour(this));
+        for (ConveyorCore conveyor : conveyors.values()) {
+            conveyor.start();
+        }
+        if (args.length > 1 && args[1] instanceof Collection) {
+            for (Object preloaded : (Collection<?>) args[1]) {
+                if (conveyors.containsKey(String.valueOf(preloaded))) {
+                    // loaded like any other pallet, the answer comes back to the shard and is dropped
+                    ACLMessage loadMsg = new ACLMessage(ACLMessage.REQUEST);
+                    loadMsg.setSender(getAID());
+                    loadMsg.addReceiver(new AID(String.valueOf(preloaded), AID.ISLOCALNAME));
+                    loadMsg.setContent("{\"request_type\":\"load\"}");
+                    postMessage(loadMsg);
+                }
+            }
+        }
+        myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Hosting " + conveyors.size() + " conveyors");
+    }
+
+    protected void takeDown() {
+        myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Messages between the conveyors of the shard: " + localMessages + ", towards other agents: " + remoteMessages);
+        try {
+            MessagingHelper messaging = (MessagingHelper) getHelper(MessagingService.NAME);
+            for (ConveyorCore conveyor : conveyors.values()) {
+                conveyor.stop();
+                messaging.deleteAlias(conveyor.getName());
+            }
+        } catch (ServiceException | jade.core.IMTPException e) {
+            // the platform is shutting down
+        }
+        try {
+            DFService.deregister(this);
+        } catch (FIPAException e) {
+            // the platform is shutting down
+        }
+    }
+
+    // the only request to the shard itself is the removal of a hosted conveyor, sent by the layout builder
+    private void handleShardRequest(ACLMessage msg) {
+        ACLMessage reply = msg.createReply();
+        JSONObject request = parseContent(msg);
+        Object name = (request == null) ? null : request.get("name");
+        if (request == null || !"remove_conveyor".equals(request.get("request_type")) || name == null) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Requests must be sent to the hosted conveyors: " + conveyors.keySet());
+        }
+        else if (!removeHosted(name.toString())) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("Conveyor " + name + " is not hosted by " + getLocalName());
+        }
+        else {
+            reply.setPerformative(ACLMessage.INFORM);
+            reply.setContent("Conveyor " + name + " removed");
+        }
+        send(reply);
+        if (conveyors.isEmpty()) {
+            doDelete();
+        }
+    }
+
+    // drops a conveyor removed from the layout, with the pallets on it. Its neighbours stop sending it their
+    // routes, its predecessors are unlinked by the builder
+    private boolean removeHosted(String name) {
+        ConveyorCore conveyor = conveyors.remove(name);
+        if (conveyor == null) {
+            return false;
+        }
+        conveyor.stop();
+        try {
+            ((MessagingHelper) getHelper(MessagingService.NAME)).deleteAlias(name);
+        } catch (ServiceException | jade.core.IMTPException e) {
+            myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - Cannot release the name " + name, e);
+        }
+        myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Conveyor " + name + " removed, " + conveyors.size() + " left");
+        return true;
+    }
+
+    // posts the message to the receivers hosted here, one copy each, and sends it to the others
+    private void deliver(ACLMessage msg) {
+        List<AID> local = new ArrayList<>();
+        List<AID> remote = new ArrayList<>();
+        jade.util.leap.Iterator it = msg.getAllReceiver();
+        while (it.hasNext()) {
+            AID receiver = (AID) it.next();
+            (conveyors.containsKey(receiver.getLocalName()) ? local : remote).add(receiver);
+        }
+        for (AID receiver : local) {
+            ACLMessage copy = (ACLMessage) msg.clone();
+            copy.clearAllReceiver();
+            copy.addReceiver(receiver);
+            postMessage(copy);
+            localMessages++;
+        }
+        if (remote.isEmpty()) {
+            return;
+        }
+        if (!local.isEmpty()) {
+            msg = (ACLMessage) msg.clone();
+            msg.clearAllReceiver();
+            for (AID receiver : remote) {
+                msg.addReceiver(receiver);
+            }
+        }
+        send(msg);
+        remoteMessages++;
+    }
+
+    // the hosted conveyors among the receivers of the message
+    private List<ConveyorCore> hostedReceivers(ACLMessage msg) {
+        List<ConveyorCore> targets = new ArrayList<>();
+        jade.util.leap.Iterator it = msg.getAllReceiver();
+        while (it.hasNext()) {
+            ConveyorCore target = conveyors.get(((AID) it.next()).getLocalName());
+            if (target != null) {
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    // true if the message answers a conversation of a hosted conveyor, whose behaviour will receive it
+    private boolean ownedByHosted(ACLMessage msg) {
+        if (msg.getConversationId() == null) {
+            return false;
+        }
+        jade.util.leap.Iterator it = msg.getAllReceiver();
+        while (it.hasNext()) {
+            ConveyorCore target = conveyors.get(((AID) it.next()).getLocalName());
+            if ((target != null) && target.owns(msg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // true if the same message was already handled for all the hosted receivers
+    private boolean isCopy(ACLMessage msg, int hostedReceivers) {
+        String key = msg.getSender().getName() + "|" + msg.getPerformative() + "|" + msg.getConversationId() + "|"
+                + ((msg.getContent() != null) ? msg.getContent() : Arrays.hashCode(msg.getByteSequenceContent()));
+        Integer copiesLeft = pendingCopies.get(key);
+        if (copiesLeft == null) {
+            pendingCopies.put(key, hostedReceivers - 1);
+            return false;
+        }
+        if (copiesLeft <= 1) {
+            pendingCopies.remove(key);
+        }
+        else {
+            pendingCopies.put(key, copiesLeft - 1);
+        }
+        return true;
+    }
+
+    // parses the content of a message, JSON or binary, null if it is not a valid object
+    private JSONObject parseContent(ACLMessage msg) {
+        if (ConveyorCodec.LANGUAGE.equals(msg.getLanguage())) {
+            try {
+                return ConveyorCodec.decode(msg.getByteSequenceContent());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        if (msg.getContent() == null) {
+            return null;
+        }
+        try {
+            Object parsed = jsonParser.parse(msg.getContent());
+            return (parsed instanceof JSONObject) ? (JSONObject) parsed : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
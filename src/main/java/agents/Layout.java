@@ -0,0 +1,411 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Description of a plant: the conveyors with their neighbours, transfer time and capacity, the conveyors
+ * holding a pallet at start-up and whether the Sniffer is started. It is read from a JSON file like
+ * <pre>
+ * {"conveyors": [{"name": "CNV1", "neighbours": ["CNV2"], "transfer_time": 5},
+ *                {"name": "CNV2", "neighbours": ["CNV1"], "transfer_time": 8, "capacity": 2}],
+ *  "preload": ["CNV2"], "sniffer": true}
+ * </pre>
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class Layout {
+
+    public static class ConveyorSpec {
+        private final String name;
+        private final List<String> neighbours;
+        private final int transferTime;
+        private final int capacity;
+
+        public ConveyorSpec(String name, List<String> neighbours, int transferTime, int capacity) {
+            this.name = name;
+            this.neighbours = Collections.unmodifiableList(new ArrayList<>(neighbours));
+            this.transferTime = transferTime;
+            this.capacity = capacity;
+        }
+
+        public String getName() {return name;}
+        public List<String> getNeighbours() {return neighbours;}
+        public int getTransferTime() {return transferTime;}
+        public int getCapacity() {return capacity;}
+
+        // arguments of the ConveyorAgent: neighbours, transfer time and capacity
+        public Object[] toArguments() {
+            return new Object[][]{neighbours.toArray(), {transferTime}, {capacity}};
+        }
+    }
+
+    private final Map<String, ConveyorSpec> conveyors = new LinkedHashMap<>();
+    private final List<String> preload = new ArrayList<>();
+    private boolean sniffer = false;
+
+    /**
+     * @throws IllegalArgumentException if a conveyor with the same name is already in the layout
+     */
+    public void addConveyor(String name, List<String> neighbours, int transferTime, int capacity) {
+        if (conveyors.containsKey(name)) {
+            throw new IllegalArgumentException("Conveyor " + name + " defined twice");
+        }
+        conveyors.put(name, new ConveyorSpec(name, neighbours, transferTime, capacity));
+    }
+
+    /**
+     * Adds a conveyor described like in the layout file: name, neighbours, transfer_time and capacity.
+     *
+     * @throws IllegalArgumentException if the description is not valid or the conveyor is already in the layout
+     */
+    public ConveyorSpec addConveyor(JSONObject c) {
+        if (c.get("name") == null || c.get("transfer_time") == null) {
+            throw new IllegalArgumentException("Conveyor without name or transfer_time: " + c);
+        }
+        try {
+            List<String> neighbours = new ArrayList<>();
+            if (c.get("neighbours") != null) {
+                for (Object n : (JSONArray) c.get("neighbours")) {
+                    neighbours.add((String) n);
+                }
+            }
+            int capacity = (c.get("capacity") != null) ? ((Number) c.get("capacity")).intValue() : 1;
+            addConveyor((String) c.get("name"), neighbours, ((Number) c.get("transfer_time")).intValue(), capacity);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("Malformed conveyor: " + c, e);
+        }
+        return conveyors.get(c.get("name"));
+    }
+
+    /**
+     * Removes the conveyor and the links towards it.
+     *
+     * @return the conveyors that had it as neighbour
+     */
+    public List<String> removeConveyor(String name) {
+        List<String> predecessors = getPredecessors(name);
+        conveyors.remove(name);
+        preload.remove(name);
+        for (String p : predecessors) {
+            ConveyorSpec c = conveyors.get(p);
+            List<String> neighbours = new ArrayList<>(c.neighbours);
+            neighbours.remove(name);
+            conveyors.put(p, new ConveyorSpec(p, neighbours, c.transferTime, c.capacity));
+        }
+        return predecessors;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the conveyor is not in the layout
+     */
+    public void addNeighbour(String name, String neighbour) {
+        ConveyorSpec c = conveyors.get(name);
+        if (c == null) {
+            throw new IllegalArgumentException("Conveyor " + name + " is not in the layout");
+        }
+        if (!c.neighbours.contains(neighbour)) {
+            List<String> neighbours = new ArrayList<>(c.neighbours);
+            neighbours.add(neighbour);
+            conveyors.put(name, new ConveyorSpec(name, neighbours, c.transferTime, c.capacity));
+        }
+    }
+
+    /**
+     * Returns the conveyors having the given one as neighbour.
+     */
+    public List<String> getPredecessors(String name) {
+        List<String> predecessors = new ArrayList<>();
+        for (ConveyorSpec c : conveyors.values()) {
+            if (c.neighbours.contains(name)) {
+                predecessors.add(c.name);
+            }
+        }
+        return predecessors;
+    }
+
+    public Collection<ConveyorSpec> getConveyors() {return Collections.unmodifiableCollection(conveyors.values());}
+    public ConveyorSpec getConveyor(String name) {return conveyors.get(name);}
+    public int size() {return conveyors.size();}
+    public List<String> getPreload() {return preload;}
+    public boolean isSniffer() {return sniffer;}
+    public void setSniffer(boolean sniffer) {this.sniffer = sniffer;}
+
+    /**
+     * Checks the layout before any agent is started.
+     *
+     * @return the problems found, empty if the layout is valid
+     */
+    public List<String> validate() {
+        List<String> problems = new ArrayList<>();
+        if (conveyors.isEmpty()) {
+            problems.add("The layout has no conveyor");
+            return problems;
+        }
+        // undirected adjacency, to find the conveyors cut off from the rest of the plant, and the links in both
+        // directions, to find the conveyors the pallets cannot reach or cannot leave
+        Map<String, List<String>> links = new HashMap<>();
+        Map<String, List<String>> successors = new HashMap<>();
+        Map<String, List<String>> predecessors = new HashMap<>();
+        for (ConveyorSpec c : conveyors.values()) {
+            links.computeIfAbsent(c.name, k -> new ArrayList<>());
+            successors.computeIfAbsent(c.name, k -> new ArrayList<>());
+            predecessors.computeIfAbsent(c.name, k -> new ArrayList<>());
+            if (c.transferTime <= 0) {
+                problems.add(c.name + ": transfer_time must be positive");
+            }
+            if (c.capacity <= 0) {
+                problems.add(c.name + ": capacity must be positive");
+            }
+            for (String n : c.neighbours) {
+                if (!conveyors.containsKey(n)) {
+                    problems.add(c.name + ": neighbour " + n + " is not in the layout");
+                }
+                else if (n.equals(c.name)) {
+                    problems.add(c.name + ": a conveyor cannot be its own neighbour");
+                }
+                else {
+                    links.get(c.name).add(n);
+                    links.computeIfAbsent(n, k -> new ArrayList<>()).add(c.name);
+                    successors.get(c.name).add(n);
+                    predecessors.computeIfAbsent(n, k -> new ArrayList<>()).add(c.name);
+                }
+            }
+        }
+        for (String p : preload) {
+            if (!conveyors.containsKey(p)) {
+                problems.add("Preloaded conveyor " + p + " is not in the layout");
+            }
+        }
+        String first = conveyors.keySet().iterator().next();
+        Set<String> connected = reachable(Collections.singletonList(first), links);
+        for (String name : conveyors.keySet()) {
+            if (!connected.contains(name)) {
+                problems.add(name + ": unreachable, not connected to " + first);
+            }
+        }
+        // the pallets enter the plant at the conveyors with no predecessor or on its main loop, the largest group
+        // of conveyors reaching each other, and leave it from the conveyors with no neighbour or from the main
+        // loop: every conveyor must be on the way from the first ones to the last ones. A ring is all main loop,
+        // a line has none
+        List<String> entries = mainLoop(successors, predecessors);
+        List<String> exits = new ArrayList<>(entries);
+        for (String name : conveyors.keySet()) {
+            if (predecessors.get(name).isEmpty()) {
+                entries.add(name);
+            }
+            if (successors.get(name).isEmpty()) {
+                exits.add(name);
+            }
+        }
+        Set<String> fed = reachable(entries, successors);
+        Set<String> drained = reachable(exits, predecessors);
+        for (String name : conveyors.keySet()) {
+            if (!connected.contains(name)) {
+                continue;
+            }
+            if (!fed.contains(name)) {
+                problems.add(name + ": unreachable, neither the main loop nor a conveyor without predecessors leads to it");
+            }
+            if (!drained.contains(name)) {
+                problems.add(name + ": dead end, it leads neither to the main loop nor to a conveyor without neighbours");
+            }
+        }
+        return problems;
+    }
+
+    // the largest strongly connected component (Kosaraju, without recursion so that long lines fit in the stack)
+    private List<String> mainLoop(Map<String, List<String>> successors, Map<String, List<String>> predecessors) {
+        // conveyors in order of completion of a depth first visit along the links
+        List<String> finished = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (String start : conveyors.keySet()) {
+            if (!visited.add(start)) {
+                continue;
+            }
+            Deque<String> path = new ArrayDeque<>();
+            Deque<Integer> nextLink = new ArrayDeque<>();
+            path.push(start);
+            nextLink.push(0);
+            while (!path.isEmpty()) {
+                List<String> links = successors.get(path.peek());
+                int i = nextLink.pop();
+                if (i < links.size()) {
+                    nextLink.push(i + 1);
+                    if (visited.add(links.get(i))) {
+                        path.push(links.get(i));
+                        nextLink.push(0);
+                    }
+                }
+                else {
+                    finished.add(path.pop());
+                }
+            }
+        }
+        // the last finished conveyor reaches back, against the links, exactly its component
+        List<String> largest = new ArrayList<>();
+        Set<String> assigned = new HashSet<>();
+        for (int i = finished.size() - 1; i >= 0; i--) {
+            String root = finished.get(i);
+            if (assigned.contains(root)) {
+                continue;
+            }
+            List<String> component = new ArrayList<>();
+            Deque<String> toVisit = new ArrayDeque<>();
+            assigned.add(root);
+            toVisit.add(root);
+            while (!toVisit.isEmpty()) {
+                String c = toVisit.poll();
+                component.add(c);
+                for (String p : predecessors.get(c)) {
+                    if (assigned.add(p)) {
+                        toVisit.add(p);
+                    }
+                }
+            }
+            if (component.size() > largest.size()) {
+                largest = component;
+            }
+        }
+        // a single conveyor is not a loop
+        return (largest.size() > 1) ? largest : new ArrayList<>();
+    }
+
+    // the conveyors reached from the given ones following the links
+    private static Set<String> reachable(List<String> from, Map<String, List<String>> links) {
+        Set<String> reached = new HashSet<>(from);
+        Deque<String> toVisit = new ArrayDeque<>(from);
+        while (!toVisit.isEmpty()) {
+            for (String n : links.get(toVisit.poll())) {
+                if (reached.add(n)) {
+                    toVisit.add(n);
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the content is not a valid layout
+     */
+    public static Layout fromJSON(JSONObject json) {
+        if (!(json.get("conveyors") instanceof JSONArray)) {
+            throw new IllegalArgumentException("Missing field: conveyors");
+        }
+        Layout layout = new Layout();
+        try {
+            for (Object o : (JSONArray) json.get("conveyors")) {
+                layout.addConveyor((JSONObject) o);
+            }
+            if (json.get("preload") != null) {
+                for (Object p : (JSONArray) json.get("preload")) {
+                    layout.preload.add((String) p);
+                }
+            }
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("Malformed layout", e);
+        }
+        layout.sniffer = Boolean.TRUE.equals(json.get("sniffer"));
+        return layout;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the content is not a valid layout
+     */
+    public static Layout read(Reader reader) throws IOException {
+        try {
+            Object parsed = new JSONParser().parse(reader);
+            if (!(parsed instanceof JSONObject)) {
+                throw new IllegalArgumentException("The layout is not a JSON object");
+            }
+            return fromJSON((JSONObject) parsed);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Layout is not valid JSON: " + e, e);
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONArray list = new JSONArray();
+        for (ConveyorSpec c : conveyors.values()) {
+            JSONObject conveyor = new JSONObject();
+            conveyor.put("name", c.name);
+            JSONArray neighbours = new JSONArray();
+            neighbours.addAll(c.neighbours);
+            conveyor.put("neighbours", neighbours);
+            conveyor.put("transfer_time", c.transferTime);
+            if (c.capacity != 1) {
+                conveyor.put("capacity", c.capacity);
+            }
+            list.add(conveyor);
+        }
+        JSONObject json = new JSONObject();
+        json.put("conveyors", list);
+        if (!preload.isEmpty()) {
+            JSONArray preloaded = new JSONArray();
+            preloaded.addAll(preload);
+            json.put("preload", preloaded);
+        }
+        json.put("sniffer", sniffer);
+        return json;
+    }
+
+    // one conveyor per line, name first, so that large layouts stay readable
+    public void write(Writer writer) throws IOException {
+        writer.write("{\"conveyors\": [\n");
+        int written = 0;
+        for (ConveyorSpec c : conveyors.values()) {
+            writer.write("  {\"name\": " + JSONValue.toJSONString(c.name)
+                    + ", \"neighbours\": " + JSONValue.toJSONString(c.neighbours)
+                    + ", \"transfer_time\": " + c.transferTime
+                    + ((c.capacity != 1) ? ", \"capacity\": " + c.capacity : "")
+                    + ((++written < conveyors.size()) ? "},\n" : "}\n"));
+        }
+        writer.write("],\n");
+        if (!preload.isEmpty()) {
+            writer.write("\"preload\": " + JSONValue.toJSONString(preload) + ",\n");
+        }
+        writer.write("\"sniffer\": " + sniffer + "}\n");
+    }
+}
@@ -26,6 +26,9 @@ package agents;
 
 import jade.core.AID;
 import jade.core.Agent;
+import jade.core.ContainerID;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
 import jade.core.behaviours.CyclicBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
@@ -35,17 +38,88 @@ import jade.lang.acl.ACLMessage;
 import jade.util.Logger;
 import jade.wrapper.AgentController;
 import jade.wrapper.ContainerController;
+import jade.wrapper.ControllerException;
 import jade.wrapper.StaleProxyException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This agent creates all the Conveyor agents, assigning to each CNV its neighbours.
+ * The layout is read from the JSON file given as argument (layout=plant.json), or from the default layout
+ * of the resources. It is checked before any agent is created; the agents are then created and started in
+ * parallel, in batches of batch=n agents (100 by default).
+ * With shard=n the conveyors are hosted n at a time, in the order of the layout, by ConveyorShardAgents
+ * named SHARD1, SHARD2, ... instead of one ConveyorAgent each.
+ * With containers=n the layout is split by the LayoutPartitioner into n parts, each started in its own container
+ * of this JVM (the builder's container and Conveyors-2, Conveyors-3, ...), so that most messages stay inside
+ * a container. A get_partition request measures the share of the messages that crossed the containers so far.
+ * Once the layout is started, add_conveyor and remove_conveyor requests change it without stopping the other
+ * conveyors: the builder starts or kills the agent and tells the conveyors preceding it to add or remove the link.
+ * A conveyor is drained before it is removed, so that the agents following its pallets can unload them.
+ * With shards, a new conveyor runs as its own ConveyorAgent and a hosted one is dropped by its shard; the
+ * partition follows the changes, the new conveyors joining the part of the conveyor they are started next to.
  *
  * @author Luigi Catello, Mario Valentino
  * @version  $Date: 2010-04-08 13:08:55 +0200 (gio, 08 apr 2010) $ $Revision: 6297 $
  */
 public class LayoutBuilderAgent extends Agent{
 
+    private static final String defaultLayout = "/layouts/default.json";
+    private static final int defaultBatchSize = 100;
+    private static final String shardPrefix = "SHARD";
+    private static final String containerPrefix = "Conveyors-";
+    private static final long partitionSeed = 1L;
+    // time given to the conveyors to send their metrics for the partition report
+    private static final long reportTimeoutMs = 3000L;
+    // time given to a conveyor being removed to have its pallets unloaded, before it is removed anyway
+    private static final long drainTimeoutMs = 10000L;
+
     private Logger myLogger = Logger.getMyLogger(getClass().getName());
+    // the parts of the layout, null if all the agents are in the builder's container
+    private LayoutPartitioner.Partition partition;
+    private List<ContainerController> containers = new ArrayList<>();
+    // the layout as changed by add_conveyor and remove_conveyor, and the conveyors hosted by each shard (0 without shards)
+    private Layout layout;
+    private int shardSize = 0;
+    // container of every agent started (conveyor or shard), and shard hosting every hosted conveyor
+    private final Map<String, ContainerController> containerOf = new HashMap<>();
+    private final Map<String, String> shardOf = new HashMap<>();
+    // conveyors drained before their removal, by conversation of the drain request
+    private final Map<String, PendingRemoval> removals = new LinkedHashMap<>();
+    private int removalCounter = 0;
+
+    // a remove_conveyor request waiting for the conveyor to be empty
+    private static class PendingRemoval {
+        final String name;
+        final ACLMessage reply;
+        final long deadline;
+
+        PendingRemoval(String name, ACLMessage reply, long deadline) {
+            this.name = name;
+            this.reply = reply;
+            this.deadline = deadline;
+        }
+    }
 
     protected void setup() {
         // Registration with the DF
@@ -60,68 +134,516 @@ public class LayoutBuilderAgent extends Agent{
         try {
             DFService.register(this,dfd);
 
-            //Agent creation
-            ContainerController containerController = getContainerController();
+            String layoutFile = null;
+            int batchSize = defaultBatchSize;
+            int containerCount = 1;
+            Object[] args = getArguments();
+            if (args != null) {
+                for (Object arg : args) {
+                    String[] keyValue = arg.toString().split("=", 2);
+                    if (keyValue.length == 2 && keyValue[0].trim().equals("batch")) {
+                        batchSize = Math.max(1, Integer.parseInt(keyValue[1].trim()));
+                    }
+                    else if (keyValue.length == 2 && keyValue[0].trim().equals("shard")) {
+                        shardSize = Math.max(0, Integer.parseInt(keyValue[1].trim()));
+                    }
+                    else if (keyValue.length == 2 && keyValue[0].trim().equals("containers")) {
+                        containerCount = Math.max(1, Integer.parseInt(keyValue[1].trim()));
+                    }
+                    else {
+                        // layout=file, or just the file name
+                        layoutFile = keyValue[keyValue.length - 1].trim();
+                    }
+                }
+            }
 
-            AgentController CNV1 = containerController.createNewAgent("CNV1","agents.ConveyorAgent", new Object[][]{ {"CNV2"}, {5}});
-            CNV1.start();
+            layout = readLayout(layoutFile);
+            List<String> problems = layout.validate();
+            if (!problems.isEmpty()) {
+                for (String problem : problems) {
+                    myLogger.log(Logger.SEVERE, "Agent "+getLocalName()+" - Invalid layout: " + problem);
+                }
+                doDelete();
+                return;
+            }
+            containers.add(getContainerController());
+            if (containerCount > 1) {
+                partition = new LayoutPartitioner(partitionSeed).partition(layout, containerCount);
+                createContainers(containerCount - 1);
+                myLogger.log(Logger.INFO, "Agent "+getLocalName()+" - Layout split in " + containerCount + " containers "
+                        + Arrays.toString(partition.getSizes()) + ", " + partition.getCutLinks() + " of " + partition.getLinks()
+                        + " links across containers, expected cross-container messages " + percent(partition.getCrossRatio()));
+            }
+            List<String> agentNames = (shardSize > 0) ? createShards(layout, shardSize, batchSize) : createConveyors(layout, batchSize);
 
-            AgentController CNV2 = containerController.createNewAgent("CNV2","agents.ConveyorAgent", new Object[][]{{"CNV3"}, {5}});
-            CNV2.start();
+            if (layout.isSniffer()) {
+                // the sniffer follows all the conveyors, or the shards hosting them
+                StringBuilder sniffed = new StringBuilder();
+                for (String name : agentNames) {
+                    sniffed.append((sniffed.length() == 0) ? "" : ";").append(name);
+                }
+                AgentController Sniffer = getContainerController().createNewAgent("Sniffer", "jade.tools.sniffer.Sniffer", new Object[]{sniffed.toString()});
+                Sniffer.start();
+            }
 
-            AgentController CNV3 = containerController.createNewAgent("CNV3","agents.ConveyorAgent", new Object[][]{{"CNV4", "CNV13"}, {5}});
-            CNV3.start();
+            // conveyors holding a pallet at start-up. The shards load their own, their conveyors
+            // cannot receive messages before the shards are set up
+            for (String preloaded : (shardSize > 0) ? new ArrayList<String>() : layout.getPreload()) {
+                ACLMessage loadMsg = new ACLMessage(ACLMessage.REQUEST);
+                loadMsg.addReceiver(new AID(preloaded, AID.ISLOCALNAME));
+                loadMsg.setContent("{\"request_type\":\"load\"}");
+                send(loadMsg);
+            }
+            addBehaviour(new BuilderRequestBehaviour(this));
 
-            AgentController CNV4 = containerController.createNewAgent("CNV4","agents.ConveyorAgent", new Object[][]{{"CNV5"}, {8}});
-            CNV4.start();
+        } catch (FIPAException e) {
+            myLogger.log(Logger.SEVERE, "Agent "+getLocalName()+" - Cannot register with DF", e);
+            doDelete();
+        } catch (IOException | IllegalArgumentException e) {
+            myLogger.log(Logger.SEVERE, "Agent "+getLocalName()+" - Cannot read the layout", e);
+            doDelete();
+        } catch (StaleProxyException e) {
+            myLogger.log(Logger.SEVERE, "Agent "+getLocalName()+" - Cannot create the agents", e);
+            doDelete();
+        }
+    }
 
-            AgentController CNV5 = containerController.createNewAgent("CNV5","agents.ConveyorAgent", new Object[][]{{"CNV6"}, {5}});
-            CNV5.start();
+    private Layout readLayout(String layoutFile) throws IOException {
+        if (layoutFile != null) {
+            try (Reader reader = new FileReader(layoutFile)) {
+                return Layout.read(reader);
+            }
+        }
+        InputStream in = getClass().getResourceAsStream(defaultLayout);
+        if (in == null) {
+            throw new IOException("Default layout " + defaultLayout + " not found");
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return Layout.read(reader);
+        }
+    }
 
-            AgentController CNV6 = containerController.createNewAgent("CNV6","agents.ConveyorAgent", new Object[][]{{"CNV7"}, {3}});
-            CNV6.start();
+    // creates and starts one agent per conveyor, returns the names of the agents
+    private List<String> createConveyors(Layout layout, int batchSize) throws StaleProxyException {
+        List<String> names = new ArrayList<>();
+        List<String> classes = new ArrayList<>();
+        List<Object[]> arguments = new ArrayList<>();
+        List<ContainerController> placement = new ArrayList<>();
+        for (Layout.ConveyorSpec c : layout.getConveyors()) {
+            names.add(c.getName());
+            classes.add("agents.ConveyorAgent");
+            arguments.add(c.toArguments());
+            placement.add(containers.get((partition != null) ? partition.getPart(c.getName()) : 0));
+        }
+        long start = System.currentTimeMillis();
+        startAgents(names, classes, arguments, placement, batchSize);
+        myLogger.log(Logger.INFO, "Agent "+getLocalName()+" - " + names.size() + " conveyors started in "
+                + (System.currentTimeMillis() - start) + " ms (batches of " + batchSize + ")");
+        return names;
+    }
 
-            AgentController CNV7 = containerController.createNewAgent("CNV7","agents.ConveyorAgent", new Object[][]{{"CNV8"}, {5}});
-            CNV7.start();
+    // creates and starts the shards, each hosting shardSize conveyors of the same part, returns the names of the shards
+    private List<String> createShards(Layout layout, int shardSize, int batchSize) throws StaleProxyException {
+        List<String> names = new ArrayList<>();
+        List<String> classes = new ArrayList<>();
+        List<Object[]> arguments = new ArrayList<>();
+        List<ContainerController> placement = new ArrayList<>();
+        for (int part = 0; part < containers.size(); part++) {
+            List<Layout.ConveyorSpec> conveyors = new ArrayList<>();
+            for (Layout.ConveyorSpec c : layout.getConveyors()) {
+                if (partition == null || partition.getPart(c.getName()) == part) {
+                    conveyors.add(c);
+                }
+            }
+            for (int first = 0; first < conveyors.size(); first += shardSize) {
+                String shard = shardPrefix + (names.size() + 1);
+                List<Layout.ConveyorSpec> hosted = new ArrayList<>(conveyors.subList(first, Math.min(first + shardSize, conveyors.size())));
+                for (Layout.ConveyorSpec c : hosted) {
+                    shardOf.put(c.getName(), shard);
+                }
+                names.add(shard);
+                classes.add("agents.ConveyorShardAgent");
+                arguments.add(new Object[]{hosted, new ArrayList<>(layout.getPreload())});
+                placement.add(containers.get(part));
+            }
+        }
+        long start = System.currentTimeMillis();
+        startAgents(names, classes, arguments, placement, batchSize);
+        myLogger.log(Logger.INFO, "Agent "+getLocalName()+" - " + layout.size() + " conveyors started in "
+                + (System.currentTimeMillis() - start) + " ms (" + names.size() + " shards of " + shardSize + ")");
+        return names;
+    }
 
-            AgentController CNV8 = containerController.createNewAgent("CNV8","agents.ConveyorAgent", new Object[][]{{"CNV9", "CNV14"}, {5}});
-            CNV8.start();
+    // creates and starts the agents, the agents of a batch in parallel
+    private void startAgents(List<String> names, List<String> classes, List<Object[]> arguments, List<ContainerController> placement,
+                             int batchSize) throws StaleProxyException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(batchSize, Runtime.getRuntime().availableProcessors() * 2));
+        try {
+            for (int first = 0; first < names.size(); first += batchSize) {
+                List<Callable<Void>> batch = new ArrayList<>();
+                for (int i = first; i < Math.min(first + batchSize, names.size()); i++) {
+                    final int agent = i;
+                    batch.add(() -> {
+                        placement.get(agent).createNewAgent(names.get(agent), classes.get(agent), arguments.get(agent)).start();
+                        return null;
+                    });
+                }
+                for (Future<Void> created : executor.invokeAll(batch)) {
+                    created.get();
+                }
+            }
+            for (int i = 0; i < names.size(); i++) {
+                containerOf.put(names.get(i), placement.get(i));
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StaleProxyException) {
+                throw (StaleProxyException) e.getCause();
+            }
+            throw new StaleProxyException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StaleProxyException("Interrupted while creating the conveyors");
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-            AgentController CNV9 = containerController.createNewAgent("CNV9","agents.ConveyorAgent", new Object[][]{{"CNV10"}, {5}});
-            CNV9.start();
+    // starts a new conveyor and links the predecessors to it. The routes towards it spread from its neighbours as
+    // routing updates, the other conveyors keep working
+    private void addConveyor(JSONObject request, ACLMessage reply) {
+        String failure = null;
+        List<String> predecessors = new ArrayList<>();
+        Layout.ConveyorSpec spec = null;
+        try {
+            if (request.get("predecessors") != null) {
+                for (Object p : (JSONArray) request.get("predecessors")) {
+                    predecessors.add((String) p);
+                }
+            }
+            spec = layout.addConveyor(request);
+            for (String p : predecessors) {
+                layout.addNeighbour(p, spec.getName());
+            }
+            List<String> problems = layout.validate();
+            if (!problems.isEmpty()) {
+                failure = "Invalid layout: " + problems;
+            }
+        } catch (IllegalArgumentException | ClassCastException e) {
+            failure = e.getMessage();
+        }
+        ContainerController container = containers.get(0);
+        if (failure == null) {
+            // next to its first neighbour, or to its first predecessor. With shards too, it runs as its own agent
+            List<String> linked = new ArrayList<>(spec.getNeighbours());
+            linked.addAll(predecessors);
+            if (partition != null && partition.getPart(linked.get(0)) >= 0) {
+                container = containers.get(partition.getPart(linked.get(0)));
+            }
+            try {
+                container.createNewAgent(spec.getName(), "agents.ConveyorAgent", spec.toArguments()).start();
+            } catch (StaleProxyException e) {
+                failure = "Cannot create the agent: " + e.getMessage();
+            }
+        }
+        if (failure == null && partition != null) {
+            Map<String, Integer> parts = new HashMap<>(partition.getParts());
+            parts.put(spec.getName(), containers.indexOf(container));
+            partition = new LayoutPartitioner(partitionSeed).assign(layout, parts, partition.getPartCount());
+        }
+        if (failure != null) {
+            if (spec != null) {
+                layout.removeConveyor(spec.getName());
+            }
+            myLogger.log(Logger.WARNING, "Agent "+getLocalName()+" - Conveyor not added: " + failure);
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent(failure);
+            send(reply);
+            return;
+        }
+        containerOf.put(spec.getName(), container);
+        for (String p : predecessors) {
+            sendNeighbourChange(p, "add_neighbour", spec.getName());
+        }
+        myLogger.log(Logger.INFO, "Agent "+getLocalName()+" - Conveyor " + spec.getName() + " added");
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent("Conveyor " + spec.getName() + " added");
+        send(reply);
+    }
 
-            AgentController CNV10 = containerController.createNewAgent("CNV10","agents.ConveyorAgent", new Object[][]{{"CNV11"}, {7}});
-            CNV10.start();
+    // unlinks the conveyor from its predecessors and kills it. The pallets waiting to move onto it look for
+    // another route, the ones still on it are removed with it
+    // the conveyor is drained first: it goes down and fails the transfers of its pallets back to the agents
+    // waiting for them, which unload them. It is unlinked and killed once empty, or after drainTimeoutMs
+    private void removeConveyor(JSONObject request, ACLMessage reply) {
+        Object name = request.get("name");
+        String failure = null;
+        if (name == null || layout.getConveyor(name.toString()) == null) {
+            failure = "Conveyor " + name + " is not in the layout";
+        }
+        for (PendingRemoval removal : removals.values()) {
+            if (removal.name.equals(name)) {
+                failure = "Conveyor " + name + " is already being removed";
+            }
+        }
+        if (failure != null) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent(failure);
+            send(reply);
+            return;
+        }
+        String conversationId = getLocalName() + "-drain-" + (++removalCounter);
+        removals.put(conversationId, new PendingRemoval(name.toString(), reply, System.currentTimeMillis() + drainTimeoutMs));
+        ACLMessage drainMsg = new ACLMessage(ACLMessage.REQUEST);
+        drainMsg.addReceiver(new AID(name.toString(), AID.ISLOCALNAME));
+        drainMsg.setConversationId(conversationId);
+        drainMsg.setContent("{\"request_type\":\"drain\"}");
+        send(drainMsg);
+    }
 
-            AgentController CNV11 = containerController.createNewAgent("CNV11","agents.ConveyorAgent", new Object[][]{{"CNV12"}, {5}});
-            CNV11.start();
+    // the conveyor being removed is empty, or did not get empty in time
+    private void finishRemoval(PendingRemoval pending, boolean drained) {
+        String name = pending.name;
+        ACLMessage reply = pending.reply;
+        if (!drained) {
+            myLogger.log(Logger.WARNING, "Agent "+getLocalName()+" - Conveyor " + name + " not drained, removing it with its pallets");
+        }
+        List<String> predecessors = layout.removeConveyor(name);
+        for (String p : predecessors) {
+            sendNeighbourChange(p, "remove_neighbour", name);
+        }
+        for (String problem : layout.validate()) {
+            myLogger.log(Logger.WARNING, "Agent "+getLocalName()+" - Layout without " + name + ": " + problem);
+        }
+        if (partition != null) {
+            Map<String, Integer> parts = new HashMap<>(partition.getParts());
+            parts.remove(name);
+            partition = new LayoutPartitioner(partitionSeed).assign(layout, parts, partition.getPartCount());
+        }
+        String shard = shardOf.remove(name);
+        ContainerController container = containerOf.remove(name);
+        boolean removed = false;
+        if (shard != null) {
+            // the shard drops the conveyor and releases its name
+            JSONObject removal = new JSONObject();
+            removal.put("request_type", "remove_conveyor");
+            removal.put("name", name);
+            ACLMessage removalMsg = new ACLMessage(ACLMessage.REQUEST);
+            removalMsg.addReceiver(new AID(shard, AID.ISLOCALNAME));
+            removalMsg.setContent(removal.toString());
+            send(removalMsg);
+            removed = true;
+        }
+        else if (container != null) {
+            try {
+                container.getAgent(name).kill();
+                removed = true;
+            } catch (ControllerException e) {
+                // already gone
+            }
+        }
+        myLogger.log(Logger.INFO, "Agent "+getLocalName()+" - Conveyor " + name + " removed" + ((shard != null) ? " from " + shard : ""));
+        reply.setPerformative(removed ? ACLMessage.INFORM : ACLMessage.FAILURE);
+        reply.setContent(removed ? "Conveyor " + name + " removed" : "Conveyor " + name + " unlinked, but its agent was not found");
+        send(reply);
+    }
 
-            AgentController CNV12 = containerController.createNewAgent("CNV12","agents.ConveyorAgent", new Object[][]{{"CNV1"}, {6}});
-            CNV12.start();
+    private void sendNeighbourChange(String conveyor, String requestType, String neighbour) {
+        JSONObject change = new JSONObject();
+        change.put("request_type", requestType);
+        change.put("neighbour", neighbour);
+        ACLMessage changeMsg = new ACLMessage(ACLMessage.REQUEST);
+        changeMsg.addReceiver(new AID(conveyor, AID.ISLOCALNAME));
+        changeMsg.setContent(change.toString());
+        send(changeMsg);
+    }
 
-            AgentController CNV13 = containerController.createNewAgent("CNV13","agents.ConveyorAgent", new Object[][]{{"CNV9", "CNV14"},{5}});
-            CNV13.start();
+    // starts the other containers in this JVM, joining the platform of the builder
+    private void createContainers(int count) throws StaleProxyException {
+        ContainerID here = (ContainerID) here();
+        String host = getProperty(Profile.MAIN_HOST, here.getAddress());
+        int port = Integer.parseInt(getProperty(Profile.MAIN_PORT, here.getPort()));
+        for (int i = 0; i < count; i++) {
+            String name = containerPrefix + (containers.size() + 1);
+            Profile profile = new ProfileImpl(host, port, null, false);
+            profile.setParameter(Profile.CONTAINER_NAME, name);
+            ContainerController container = jade.core.Runtime.instance().createAgentContainer(profile);
+            if (container == null) {
+                throw new StaleProxyException("Cannot start the container " + name);
+            }
+            containers.add(container);
+        }
+    }
 
-            AgentController CNV14 = containerController.createNewAgent("CNV14","agents.ConveyorAgent", new Object[][]{{"CNV12"},{8}});
-            CNV14.start();
+    private static String percent(double ratio) {
+        return String.format("%.1f%%", ratio * 100);
+    }
 
-            AgentController Sniffer = containerController.createNewAgent("Sniffer", "jade.tools.sniffer.Sniffer", new Object[]{"CNV1;CNV2;CNV3;CNV4;CNV5;CNV6;CNV7;CNV8;CNV9;CNV10;CNV11;CNV12;CNV13;CNV14"});
-            Sniffer.start();
+    // answers the requests to the builder. get_partition collects the messages received by each conveyor, by sender,
+    // and counts the ones that came from a conveyor of another container
+    private class BuilderRequestBehaviour extends CyclicBehaviour {
+        private final JSONParser jsonParser = new JSONParser();
+        private ACLMessage pendingRequest;
+        private String conversationId;
+        private int reportCounter = 0;
+        private long deadline;
+        private int expected;
+        private int answered;
+        private long messages;
+        private long crossMessages;
 
+        public BuilderRequestBehaviour(Agent a) {
+            super(a);
+        }
 
-            // load CNV2 by default
-            ACLMessage loadMsg = new ACLMessage(ACLMessage.REQUEST);
-            loadMsg.addReceiver(new AID("CNV2", AID.ISLOCALNAME));
-            loadMsg.setContent("{\"request_type\":\"load\"}");
-            send(loadMsg);
+        public void action() {
+            ACLMessage msg = myAgent.receive();
+            if (msg == null) {
+                long now = System.currentTimeMillis();
+                if (pendingRequest != null && now >= deadline) {
+                    sendReport();
+                }
+                long wakeUp = (pendingRequest != null) ? deadline : Long.MAX_VALUE;
+                for (PendingRemoval removal : new ArrayList<>(removals.values())) {
+                    if (now >= removal.deadline) {
+                        removals.values().remove(removal);
+                        finishRemoval(removal, false);
+                    }
+                    else {
+                        wakeUp = Math.min(wakeUp, removal.deadline);
+                    }
+                }
+                if (wakeUp == Long.MAX_VALUE) {
+                    block();
+                }
+                else {
+                    block(wakeUp - now);
+                }
+                return;
+            }
+            if (msg.getPerformative() == ACLMessage.REQUEST) {
+                handleRequest(msg);
+            }
+            else if (msg.getConversationId() != null && removals.containsKey(msg.getConversationId())) {
+                // a conveyor already gone cannot be drained, and is removed all the same
+                finishRemoval(removals.remove(msg.getConversationId()), msg.getPerformative() == ACLMessage.INFORM);
+            }
+            else if (pendingRequest != null && conversationId.equals(msg.getConversationId())) {
+                // the shards do not keep the metrics, their failure only counts as an answer
+                if (msg.getPerformative() == ACLMessage.INFORM) {
+                    countMessages(msg);
+                }
+                if (++answered == expected) {
+                    sendReport();
+                }
+            }
+            // the other answers (e.g. to the preloads) need no reply
+        }
 
+        private void handleRequest(ACLMessage msg) {
+            ACLMessage reply = msg.createReply();
+            Object request = null;
+            try {
+                if (msg.getContent() != null) {
+                    request = jsonParser.parse(msg.getContent());
+                }
+            } catch (ParseException e) {
+                // answered below as not understood
+            }
+            Object requestType = (request instanceof JSONObject) ? ((JSONObject) request).get("request_type") : null;
+            if ("add_conveyor".equals(requestType)) {
+                addConveyor((JSONObject) request, reply);
+                return;
+            }
+            if ("remove_conveyor".equals(requestType)) {
+                removeConveyor((JSONObject) request, reply);
+                return;
+            }
+            if (!"get_partition".equals(requestType)) {
+                reply.setPerformative(ACLMessage.FAILURE);
+                reply.setContent("Could not understand the request");
+                send(reply);
+                return;
+            }
+            if (partition == null) {
+                reply.setPerformative(ACLMessage.FAILURE);
+                reply.setContent("All the conveyors are in the same container");
+                send(reply);
+                return;
+            }
+            if (pendingRequest != null) {
+                reply.setPerformative(ACLMessage.FAILURE);
+                reply.setContent("A partition report is already being collected");
+                send(reply);
+                return;
+            }
+            pendingRequest = msg;
+            conversationId = getLocalName() + "-partition-" + (++reportCounter);
+            deadline = System.currentTimeMillis() + reportTimeoutMs;
+            expected = 0;
+            answered = 0;
+            messages = 0;
+            crossMessages = 0;
+            ACLMessage metricsMsg = new ACLMessage(ACLMessage.REQUEST);
+            metricsMsg.setConversationId(conversationId);
+            metricsMsg.setContent("{\"request_type\":\"get_metrics\"}");
+            for (int part = 0; part < partition.getPartCount(); part++) {
+                for (String conveyor : partition.getMembers(part)) {
+                    metricsMsg.clearAllReceiver();
+                    metricsMsg.addReceiver(new AID(conveyor, AID.ISLOCALNAME));
+                    send(metricsMsg);
+                    expected++;
+                }
+            }
+        }
 
-        } catch (FIPAException e) {
-            myLogger.log(Logger.SEVERE, "Agent "+getLocalName()+" - Cannot register with DF", e);
-            doDelete();
-        } catch (StaleProxyException e) {
-            myLogger.log(Logger.SEVERE, "Agent "+getLocalName()+" - Cannot create the agents", e);
-            doDelete();
+        private void countMessages(ACLMessage msg) {
+            int part = partition.getPart(msg.getSender().getLocalName());
+            try {
+                JSONObject metrics = (JSONObject) jsonParser.parse(msg.getContent());
+                JSONObject received = (JSONObject) metrics.get("messages_from");
+                if (part < 0 || received == null) {
+                    return;
+                }
+                for (Object sender : received.keySet()) {
+                    int senderPart = partition.getPart((String) sender);
+                    // only the messages between conveyors count, not the requests of the other agents
+                    if (senderPart >= 0) {
+                        long count = ((Number) received.get(sender)).longValue();
+                        messages += count;
+                        if (senderPart != part) {
+                            crossMessages += count;
+                        }
+                    }
+                }
+            } catch (ParseException | ClassCastException e) {
+                myLogger.log(Logger.WARNING, "Agent "+getLocalName()+" - Invalid metrics from " + msg.getSender().getLocalName());
+            }
+        }
+
+        private void sendReport() {
+            JSONObject report = new JSONObject();
+            report.put("containers", partition.getPartCount());
+            JSONArray sizes = new JSONArray();
+            for (int size : partition.getSizes()) {
+                sizes.add(size);
+            }
+            report.put("conveyors", sizes);
+            report.put("links", partition.getLinks());
+            report.put("cross_links", partition.getCutLinks());
+            report.put("expected_cross_ratio", partition.getCrossRatio());
+            report.put("answered", answered);
+            report.put("messages", messages);
+            report.put("cross_messages", crossMessages);
+            double ratio = (messages > 0) ? (double) crossMessages / messages : 0;
+            report.put("cross_ratio", ratio);
+            myLogger.log(Logger.INFO, "Agent "+getLocalName()+" - " + crossMessages + " of " + messages
+                    + " messages between conveyors crossed the containers (" + percent(ratio) + ", "
+                    + answered + "/" + expected + " conveyors answered)");
+            ACLMessage reply = pendingRequest.createReply();
+            reply.setPerformative(ACLMessage.INFORM);
+            reply.setContent(report.toString());
+            send(reply);
+            pendingRequest = null;
         }
     }
-}
\ No newline at end of file
+}
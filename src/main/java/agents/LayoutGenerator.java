@@ -0,0 +1,222 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates large synthetic layouts to test how the system scales. The topologies are:
+ * <ul>
+ * <li>grid: rows x cols conveyors, the rows and the columns go in alternating directions like one-way streets
+ * and wrap around at the borders</li>
+ * <li>ring: a ring of conveyors with some random shortcuts</li>
+ * <li>tree: a tree of diverts from a root conveyor, whose leaves merge back in a mirrored tree that returns to the root</li>
+ * <li>dag: a random acyclic layout, every conveyor goes to one to degree conveyors further on</li>
+ * </ul>
+ * The transfer times are random between min_tt and max_tt; the same seed gives the same layout. Usage:
+ * <pre>
+ * java agents.LayoutGenerator topology=ring conveyors=10000 shortcuts=500 seed=42 out=plant.json
+ * </pre>
+ * and then builder:agents.LayoutBuilderAgent(layout=plant.json).
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LayoutGenerator {
+    private final Random random;
+    private final int minTransferTime;
+    private final int maxTransferTime;
+
+    public LayoutGenerator(long seed, int minTransferTime, int maxTransferTime) {
+        if (minTransferTime <= 0 || maxTransferTime < minTransferTime) {
+            throw new IllegalArgumentException("Transfer times must be positive, min_tt <= max_tt");
+        }
+        this.random = new Random(seed);
+        this.minTransferTime = minTransferTime;
+        this.maxTransferTime = maxTransferTime;
+    }
+
+    public Layout grid(int rows, int cols) {
+        if (rows < 2 || cols < 2) {
+            throw new IllegalArgumentException("A grid needs at least 2 rows and 2 columns");
+        }
+        List<List<String>> neighbours = emptyLists(rows * cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int i = r * cols + c;
+                // even rows go right, odd rows go left; even columns go down, odd columns go up.
+                // the edges wrap around, so every row and column is a loop and no conveyor is a dead end
+                int nextC = (r % 2 == 0) ? (c + 1) % cols : (c + cols - 1) % cols;
+                neighbours.get(i).add(name(r * cols + nextC));
+                int nextR = (c % 2 == 0) ? (r + 1) % rows : (r + rows - 1) % rows;
+                neighbours.get(i).add(name(nextR * cols + c));
+            }
+        }
+        return toLayout(neighbours);
+    }
+
+    public Layout ring(int conveyors, int shortcuts) {
+        if (conveyors < 2) {
+            throw new IllegalArgumentException("A ring needs at least 2 conveyors");
+        }
+        List<List<String>> neighbours = emptyLists(conveyors);
+        for (int i = 0; i < conveyors; i++) {
+            neighbours.get(i).add(name((i + 1) % conveyors));
+        }
+        for (int s = 0; s < shortcuts; s++) {
+            int from = random.nextInt(conveyors);
+            int to = random.nextInt(conveyors);
+            if (to != from && !neighbours.get(from).contains(name(to))) {
+                neighbours.get(from).add(name(to));
+            }
+        }
+        return toLayout(neighbours);
+    }
+
+    public Layout tree(int depth, int fanout) {
+        if (depth < 1 || fanout < 2) {
+            throw new IllegalArgumentException("A tree needs depth >= 1 and fanout >= 2");
+        }
+        // divert tree: node i has children i * fanout + 1 ... i * fanout + fanout
+        int diverts = 0;
+        int level = 1;
+        for (int d = 0; d <= depth; d++) {
+            diverts += level;
+            level *= fanout;
+        }
+        int leaves = level / fanout;
+        int firstLeaf = diverts - leaves;
+        // merge tree: the mirror of the divert tree without its leaves, its root goes back to the divert root
+        int merges = firstLeaf;
+        List<List<String>> neighbours = emptyLists(diverts + merges);
+        for (int i = 0; i < firstLeaf; i++) {
+            for (int k = 1; k <= fanout; k++) {
+                neighbours.get(i).add(name(i * fanout + k));
+            }
+        }
+        for (int i = firstLeaf; i < diverts; i++) {
+            // a leaf joins the merge of its parent
+            neighbours.get(i).add(name(diverts + (i - 1) / fanout));
+        }
+        for (int m = 1; m < merges; m++) {
+            neighbours.get(diverts + m).add(name(diverts + (m - 1) / fanout));
+        }
+        neighbours.get(diverts).add(name(0));
+        return toLayout(neighbours);
+    }
+
+    public Layout dag(int conveyors, int degree) {
+        if (conveyors < 2 || degree < 1) {
+            throw new IllegalArgumentException("A dag needs at least 2 conveyors and degree >= 1");
+        }
+        List<List<String>> neighbours = emptyLists(conveyors);
+        // links only go forward, to a conveyor close enough to keep the layout connected
+        int window = Math.max(2, degree * 4);
+        for (int i = 0; i < conveyors - 1; i++) {
+            int links = 1 + random.nextInt(degree);
+            for (int l = 0; l < links; l++) {
+                int to = i + 1 + random.nextInt(Math.min(window, conveyors - 1 - i));
+                if (!neighbours.get(i).contains(name(to))) {
+                    neighbours.get(i).add(name(to));
+                }
+            }
+        }
+        return toLayout(neighbours);
+    }
+
+    private Layout toLayout(List<List<String>> neighbours) {
+        Layout layout = new Layout();
+        for (int i = 0; i < neighbours.size(); i++) {
+            int transferTime = minTransferTime + random.nextInt(maxTransferTime - minTransferTime + 1);
+            layout.addConveyor(name(i), neighbours.get(i), transferTime, 1);
+        }
+        return layout;
+    }
+
+    private static List<List<String>> emptyLists(int size) {
+        List<List<String>> lists = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lists.add(new ArrayList<>());
+        }
+        return lists;
+    }
+
+    private static String name(int index) {
+        return "CNV" + (index + 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2) {
+                System.err.println("Argument not understood: " + arg);
+                System.exit(1);
+            }
+            options.put(keyValue[0], keyValue[1]);
+        }
+        try {
+            LayoutGenerator generator = new LayoutGenerator(Long.parseLong(options.getOrDefault("seed", "1")),
+                    Integer.parseInt(options.getOrDefault("min_tt", "3")), Integer.parseInt(options.getOrDefault("max_tt", "8")));
+            Layout layout;
+            String topology = options.getOrDefault("topology", "ring");
+            switch (topology) {
+                case "grid":
+                    layout = generator.grid(Integer.parseInt(options.getOrDefault("rows", "10")), Integer.parseInt(options.getOrDefault("cols", "10")));
+                    break;
+                case "ring":
+                    layout = generator.ring(Integer.parseInt(options.getOrDefault("conveyors", "100")), Integer.parseInt(options.getOrDefault("shortcuts", "0")));
+                    break;
+                case "tree":
+                    layout = generator.tree(Integer.parseInt(options.getOrDefault("depth", "3")), Integer.parseInt(options.getOrDefault("fanout", "2")));
+                    break;
+                case "dag":
+                    layout = generator.dag(Integer.parseInt(options.getOrDefault("conveyors", "100")), Integer.parseInt(options.getOrDefault("degree", "2")));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown topology " + topology + " (grid, ring, tree, dag)");
+            }
+            Writer writer = options.containsKey("out") ? new FileWriter(options.get("out"))
+                    : new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            layout.write(writer);
+            writer.flush();
+            if (options.containsKey("out")) {
+                writer.close();
+            }
+            System.err.println(layout.size() + " conveyors generated");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
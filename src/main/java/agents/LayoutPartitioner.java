@@ -0,0 +1,366 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Splits a layout into parts of about the same size, keeping the links carrying the most traffic inside a part.
+ * Every link weighs 1 for the routing messages it carries, plus its share of the pallet traffic: the number of
+ * cheapest routes crossing it, relative to the average link, estimated from the routes of a sample of sources.
+ * The parts are grown one at a time from a conveyor, adding the conveyor most tied to the part, and then
+ * improved by moving single conveyors to the part they are most tied to while the sizes stay balanced.
+ * The same seed always gives the same partition.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LayoutPartitioner {
+    // sources sampled to estimate the traffic of the links
+    private static final int defaultSamples = 32;
+    // a part can exceed the average size by this fraction
+    private static final double maxImbalance = 0.03;
+    // passes of the improvement phase
+    private static final int maxPasses = 10;
+
+    private final long seed;
+    private final int samples;
+
+    /**
+     * The conveyors of each part, and the weight of the links inside and across the parts.
+     */
+    public static class Partition {
+        private final List<String> names;
+        private final int[] parts;
+        private final int partCount;
+        private final int links;
+        private final int cutLinks;
+        private final double weight;
+        private final double cutWeight;
+        private final Map<String, Integer> partOf = new HashMap<>();
+
+        Partition(List<String> names, int[] parts, int partCount, int links, int cutLinks, double weight, double cutWeight) {
+            this.names = names;
+            this.parts = parts;
+            this.partCount = partCount;
+            this.links = links;
+            this.cutLinks = cutLinks;
+            this.weight = weight;
+            this.cutWeight = cutWeight;
+            for (int i = 0; i < names.size(); i++) {
+                partOf.put(names.get(i), parts[i]);
+            }
+        }
+
+        public int getPartCount() {return partCount;}
+        public Map<String, Integer> getParts() {return Collections.unmodifiableMap(partOf);}
+        public int getLinks() {return links;}
+        public int getCutLinks() {return cutLinks;}
+
+        /**
+         * Returns the part of the conveyor, or -1 if it is not in the layout.
+         */
+        public int getPart(String conveyor) {
+            Integer part = partOf.get(conveyor);
+            return (part != null) ? part : -1;
+        }
+
+        /**
+         * Returns the conveyors of the part, in the order of the layout.
+         */
+        public List<String> getMembers(int part) {
+            List<String> members = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                if (parts[i] == part) {
+                    members.add(names.get(i));
+                }
+            }
+            return members;
+        }
+
+        public int[] getSizes() {
+            int[] sizes = new int[partCount];
+            for (int part : parts) {
+                sizes[part]++;
+            }
+            return sizes;
+        }
+
+        /**
+         * Returns the expected fraction of the messages exchanged between conveyors of different parts.
+         */
+        public double getCrossRatio() {
+            return (weight > 0) ? cutWeight / weight : 0;
+        }
+    }
+
+    public LayoutPartitioner(long seed) {
+        this(seed, defaultSamples);
+    }
+
+    public LayoutPartitioner(long seed, int samples) {
+        this.seed = seed;
+        this.samples = Math.max(1, samples);
+    }
+
+    public Partition partition(Layout layout, int partCount) {
+        if (partCount < 1) {
+            throw new IllegalArgumentException("The number of parts must be positive");
+        }
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> index = new HashMap<>();
+        for (Layout.ConveyorSpec c : layout.getConveyors()) {
+            index.put(c.getName(), names.size());
+            names.add(c.getName());
+        }
+        int n = names.size();
+        // links in both directions, the direction of the conveyors does not matter for the messages
+        List<Map<Integer, Double>> adjacency = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            adjacency.add(new HashMap<>());
+        }
+        Map<Long, Double> traffic = linkTraffic(layout, names, index);
+        double meanTraffic = meanTraffic(traffic);
+        for (Map.Entry<Long, Double> link : traffic.entrySet()) {
+            int from = (int) (link.getKey() >>> 32);
+            int to = (int) (long) link.getKey();
+            double w = linkWeight(link.getValue(), meanTraffic);
+            adjacency.get(from).merge(to, w, Double::sum);
+            adjacency.get(to).merge(from, w, Double::sum);
+        }
+
+        int[] parts = grow(adjacency, Math.min(partCount, Math.max(1, n)));
+        int maxSize = (int) Math.ceil(Math.ceil((double) n / partCount) * (1 + maxImbalance));
+        int minSize = (int) Math.floor(Math.floor((double) n / partCount) * (1 - maxImbalance));
+        refine(adjacency, parts, partCount, minSize, maxSize);
+        return measure(names, parts, partCount, traffic);
+    }
+
+    /**
+     * Returns the given assignment of the conveyors to the parts, with the links weighed on the layout as it is now:
+     * the conveyors added to or removed from a running layout stay where they are started.
+     *
+     * @throws IllegalArgumentException if a conveyor of the layout has no part
+     */
+    public Partition assign(Layout layout, Map<String, Integer> partOf, int partCount) {
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> index = new HashMap<>();
+        int[] parts = new int[layout.size()];
+        for (Layout.ConveyorSpec c : layout.getConveyors()) {
+            Integer part = partOf.get(c.getName());
+            if (part == null || part < 0 || part >= partCount) {
+                throw new IllegalArgumentException(c.getName() + " has no part");
+            }
+            parts[names.size()] = part;
+            index.put(c.getName(), names.size());
+            names.add(c.getName());
+        }
+        return measure(names, parts, partCount, linkTraffic(layout, names, index));
+    }
+
+    // counts the links and their weight, in total and across the parts
+    private static Partition measure(List<String> names, int[] parts, int partCount, Map<Long, Double> traffic) {
+        double meanTraffic = meanTraffic(traffic);
+        int links = 0;
+        double weight = 0;
+        int cutLinks = 0;
+        double cutWeight = 0;
+        for (Map.Entry<Long, Double> link : traffic.entrySet()) {
+            int from = (int) (link.getKey() >>> 32);
+            int to = (int) (long) link.getKey();
+            double w = linkWeight(link.getValue(), meanTraffic);
+            links++;
+            weight += w;
+            if (parts[from] != parts[to]) {
+                cutLinks++;
+                cutWeight += w;
+            }
+        }
+        return new Partition(names, parts, partCount, links, cutLinks, weight, cutWeight);
+    }
+
+    private static double meanTraffic(Map<Long, Double> traffic) {
+        double meanTraffic = 0;
+        for (double t : traffic.values()) {
+            meanTraffic += t;
+        }
+        return traffic.isEmpty() ? 1 : meanTraffic / traffic.size();
+    }
+
+    // 1 for the routing messages, plus the traffic of the link relative to the average link
+    private static double linkWeight(double traffic, double meanTraffic) {
+        return 1 + ((meanTraffic > 0) ? traffic / meanTraffic : 0);
+    }
+
+    // number of cheapest routes crossing each link (from << 32 | to), from the routes of the sampled sources
+    private Map<Long, Double> linkTraffic(Layout layout, List<String> names, Map<String, Integer> index) {
+        int n = names.size();
+        int[][] successors = new int[n][];
+        int[] cost = new int[n];
+        Map<Long, Double> traffic = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Layout.ConveyorSpec c = layout.getConveyor(names.get(i));
+            cost[i] = c.getTransferTime();
+            List<Integer> next = new ArrayList<>();
+            for (String neighbour : c.getNeighbours()) {
+                Integer j = index.get(neighbour);
+                if (j != null && j != i) {
+                    next.add(j);
+                    traffic.put(((long) i << 32) | j, 0.0);
+                }
+            }
+            successors[i] = new int[next.size()];
+            for (int k = 0; k < next.size(); k++) {
+                successors[i][k] = next.get(k);
+            }
+        }
+        List<Integer> sources = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            sources.add(i);
+        }
+        Collections.shuffle(sources, new Random(seed));
+        long[] distance = new long[n];
+        int[] parent = new int[n];
+        double[] routes = new double[n];
+        for (int source : sources.subList(0, Math.min(samples, n))) {
+            // cheapest routes from the source, a hop costs the transfer time of the conveyor it leaves
+            Arrays.fill(distance, Long.MAX_VALUE);
+            Arrays.fill(parent, -1);
+            List<Integer> settled = new ArrayList<>();
+            PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+            distance[source] = 0;
+            queue.add(new long[]{0, source});
+            while (!queue.isEmpty()) {
+                long[] head = queue.poll();
+                int u = (int) head[1];
+                if (head[0] > distance[u]) {
+                    continue;
+                }
+                settled.add(u);
+                for (int v : successors[u]) {
+                    long d = distance[u] + cost[u];
+                    if (d < distance[v]) {
+                        distance[v] = d;
+                        parent[v] = u;
+                        queue.add(new long[]{d, v});
+                    }
+                }
+            }
+            // a link carries the routes to the conveyor it reaches and to all the conveyors reached through it
+            Arrays.fill(routes, 1);
+            for (int k = settled.size() - 1; k > 0; k--) {
+                int v = settled.get(k);
+                routes[parent[v]] += routes[v];
+                traffic.merge(((long) parent[v] << 32) | v, routes[v], Double::sum);
+            }
+        }
+        return traffic;
+    }
+
+    // grows the parts one at a time, each from the first conveyor not yet assigned
+    private int[] grow(List<Map<Integer, Double>> adjacency, int partCount) {
+        int n = adjacency.size();
+        int[] parts = new int[n];
+        Arrays.fill(parts, -1);
+        double[] tie = new double[n];
+        int next = 0;
+        int assigned = 0;
+        for (int part = 0; part < partCount; part++) {
+            int size = (n - assigned) / (partCount - part);
+            Arrays.fill(tie, 0);
+            // conveyors next to the part, the most tied first
+            PriorityQueue<double[]> frontier = new PriorityQueue<>((a, b) -> (a[0] != b[0]) ? Double.compare(b[0], a[0]) : Double.compare(a[1], b[1]));
+            int members = 0;
+            while (members < size) {
+                int u = -1;
+                while (!frontier.isEmpty() && u < 0) {
+                    double[] head = frontier.poll();
+                    int candidate = (int) head[1];
+                    if (parts[candidate] < 0 && head[0] == tie[candidate]) {
+                        u = candidate;
+                    }
+                }
+                if (u < 0) {
+                    // nothing left next to the part: start again from the first free conveyor
+                    while (parts[next] >= 0) {
+                        next++;
+                    }
+                    u = next;
+                }
+                parts[u] = part;
+                members++;
+                for (Map.Entry<Integer, Double> link : adjacency.get(u).entrySet()) {
+                    int v = link.getKey();
+                    if (parts[v] < 0) {
+                        tie[v] += link.getValue();
+                        frontier.add(new double[]{tie[v], v});
+                    }
+                }
+            }
+            assigned += members;
+        }
+        return parts;
+    }
+
+    // moves single conveyors to the part they are most tied to, as long as it reduces the cut and keeps the sizes balanced
+    private void refine(List<Map<Integer, Double>> adjacency, int[] parts, int partCount, int minSize, int maxSize) {
+        int[] sizes = new int[partCount];
+        for (int part : parts) {
+            sizes[part]++;
+        }
+        double[] tie = new double[partCount];
+        for (int pass = 0; pass < maxPasses; pass++) {
+            int moves = 0;
+            for (int u = 0; u < parts.length; u++) {
+                Arrays.fill(tie, 0);
+                for (Map.Entry<Integer, Double> link : adjacency.get(u).entrySet()) {
+                    tie[parts[link.getKey()]] += link.getValue();
+                }
+                int current = parts[u];
+                int best = current;
+                for (int part = 0; part < partCount; part++) {
+                    if (tie[part] > tie[best] && sizes[part] < maxSize) {
+                        best = part;
+                    }
+                }
+                if (best != current && sizes[current] > minSize) {
+                    parts[u] = best;
+                    sizes[current]--;
+                    sizes[best]++;
+                    moves++;
+                }
+            }
+            if (moves == 0) {
+                break;
+            }
+        }
+    }
+}
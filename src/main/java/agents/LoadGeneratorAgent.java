@@ -0,0 +1,473 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.Behaviour;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.domain.FIPAException;
+import jade.lang.acl.ACLMessage;
+import jade.util.Logger;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This agent injects pallets in the layout: it loads a pallet on a source conveyor, asks for its transfer
+ * to a destination and unloads it when the destination tells the transfer is finished, or from the conveyor
+ * where it stopped when a conveyor tells the transfer failed.
+ * The pallets arrive at a fixed rate, as a Poisson process, or in closed loop (a new pallet as soon as
+ * one is delivered). The arguments are key=value strings, e.g.
+ * gen:agents.LoadGeneratorAgent(mode=poisson,rate=0.2,sources=CNV2;CNV5,destinations=CNV12:3;CNV1:1)
+ * <ul>
+ * <li>mode: fixed, poisson or closed (default fixed)</li>
+ * <li>rate: pallets per second, for fixed and poisson (default 0.1)</li>
+ * <li>concurrency: pallets travelling at the same time, for closed (default 1)</li>
+ * <li>sources: conveyors where the pallets are loaded, chosen at random</li>
+ * <li>destinations: destination conveyors, with an optional weight after the colon</li>
+ * <li>pallets: number of pallets to inject, 0 for no limit (default 0)</li>
+ * <li>reserve: book the routes before the transfers (default false)</li>
+ * <li>seed: seed of the random choices</li>
+ * </ul>
+ * The submit and delivery time of every pallet are recorded; a get_stats request answers with the totals.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LoadGeneratorAgent extends Agent {
+    enum Mode {
+        Fixed,
+        Poisson,
+        Closed
+    }
+
+    // a pallet injected by the generator
+    private static class PalletRecord {
+        final String id;
+        final String source;
+        final String destination;
+        final long submitTime;
+        // the source agreed to load the pallet: from then on it must be unloaded, wherever the transfer ends
+        boolean loaded = false;
+
+        PalletRecord(String id, String source, String destination, long submitTime) {
+            this.id = id;
+            this.source = source;
+            this.destination = destination;
+            this.submitTime = submitTime;
+        }
+    }
+
+    // pause before trying again to load a pallet on a full source, in closed loop
+    private static final long retryDelayMs = 1000L;
+
+    private Logger myLogger = Logger.getMyLogger(getClass().getName());
+    private final ConveyorClock clock = ConveyorClock.getInstance();
+    private final JSONParser jsonParser = new JSONParser();
+
+    private Mode mode = Mode.Fixed;
+    private double rate = 0.1;
+    private int concurrency = 1;
+    private int maxPallets = 0;
+    private boolean reserve = false;
+    private List<String> sources = new ArrayList<>();
+    private List<String> destinations = new ArrayList<>();
+    // cumulative weights of the destinations, the last one is the total
+    private List<Double> cumulativeWeights = new ArrayList<>();
+    private Random random = new Random();
+
+    // ids of the pallets, never reused
+    private long palletSequence = 0;
+    // pallets counting in the limit: the ones rejected by a full source in closed loop do not
+    private int palletCounter = 0;
+    // pallets loaded or travelling, by id
+    private Map<String, PalletRecord> inFlight = new LinkedHashMap<>();
+    private long startTime;
+    private long rejected = 0;
+    private long failed = 0;
+    private long completed = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
+    private class InjectionBehaviour extends Behaviour {
+        private long nextArrival;
+        private boolean finished = false;
+
+        public InjectionBehaviour(Agent a) {
+            super(a);
+            nextArrival = clock.now();
+        }
+
+        public void action() {
+            if (clock.now() < nextArrival) {
+                clock.wakeUpAt(this, nextArrival);
+                return;
+            }
+            if (limitReached()) {
+                finished = true;
+                return;
+            }
+            inject();
+            // fixed rate, or exponential inter-arrival times for the Poisson process
+            double interval = (mode == Mode.Poisson) ? -Math.log(1 - random.nextDouble()) / rate : 1 / rate;
+            nextArrival += (long) (interval * 1000);
+        }
+
+        public boolean done() {
+            return finished;
+        }
+    }
+
+    private class ReplyBehaviour extends CyclicBehaviour {
+
+        public ReplyBehaviour(Agent a) {
+            super(a);
+        }
+
+        public void action() {
+            ACLMessage msg = myAgent.receive();
+            if (msg == null) {
+                block();
+                return;
+            }
+            clock.activity();
+            PalletRecord pallet = (msg.getConversationId() == null) ? null : inFlight.get(msg.getConversationId());
+            switch (msg.getPerformative()) {
+                case ACLMessage.AGREE:
+                    // the source loaded the pallet, it can go
+                    if (pallet != null && !pallet.loaded) {
+                        pallet.loaded = true;
+                        requestTransfer(pallet);
+                    }
+                    break;
+                case ACLMessage.FAILURE:
+                case ACLMessage.REFUSE:
+                    if (pallet != null && pallet.loaded) {
+                        // the transfer could not start, the pallet is still on the source
+                        transferFailed(pallet, pallet.source, msg.getContent());
+                    }
+                    else if (pallet != null) {
+                        palletRejected(pallet, msg.getContent());
+                    }
+                    break;
+                case ACLMessage.INFORM:
+                    JSONObject event = parse(msg.getContent());
+                    if (event == null) {
+                        break;
+                    }
+                    if ("transfer_finished".equals(event.get("event"))) {
+                        palletDelivered((String) event.get("pallet_id"), (String) event.get("destination"));
+                    }
+                    else if ("transfer_failed".equals(event.get("event"))) {
+                        pallet = inFlight.get(event.get("pallet_id"));
+                        if (pallet != null) {
+                            transferFailed(pallet, (event.get("conveyor") != null) ? (String) event.get("conveyor") : pallet.source,
+                                    (String) event.get("reason"));
+                        }
+                    }
+                    break;
+                case ACLMessage.REQUEST:
+                    JSONObject request = parse(msg.getContent());
+                    ACLMessage reply = msg.createReply();
+                    if ((request != null) && "get_stats".equals(request.get("request_type"))) {
+                        reply.setPerformative(ACLMessage.INFORM);
+                        reply.setContent(stats().toString());
+                    }
+                    else {
+                        reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
+                        reply.setContent("Request not understood");
+                    }
+                    send(reply);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    protected void setup() {
+        // Registration with the DF
+        DFAgentDescription dfd = new DFAgentDescription();
+        ServiceDescription sd = new ServiceDescription();
+        sd.setType("LoadGeneratorAgent");
+        sd.setName(getName());
+        sd.setOwnership("Group 15");
+        dfd.setName(getAID());
+        dfd.addServices(sd);
+        try {
+            DFService.register(this, dfd);
+        } catch (FIPAException e) {
+            myLogger.log(Logger.SEVERE, "Agent " + getLocalName() + " - Cannot register with DF", e);
+            doDelete();
+            return;
+        }
+
+        try {
+            readArguments(getArguments());
+        } catch (IllegalArgumentException e) {
+            myLogger.log(Logger.SEVERE, "Agent " + getLocalName() + " - " + e.getMessage());
+            doDelete();
+            return;
+        }
+
+        startTime = clock.now();
+        addBehaviour(new ReplyBehaviour(this));
+        if (mode == Mode.Closed) {
+            for (int i = 0; i < concurrency; i++) {
+                inject();
+            }
+        }
+        else {
+            addBehaviour(new InjectionBehaviour(this));
+        }
+        myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - Injecting pallets (" + mode + ") from " + sources + " to " + destinations);
+    }
+
+    protected void takeDown() {
+        myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - " + stats());
+        try {
+            DFService.deregister(this);
+        } catch (FIPAException e) {
+            // the platform is shutting down
+        }
+    }
+
+    private void readArguments(Object[] args) {
+        if (args != null) {
+            for (Object arg : args) {
+                String[] keyValue = arg.toString().split("=", 2);
+                if (keyValue.length != 2) {
+                    throw new IllegalArgumentException("Argument not understood: " + arg);
+                }
+                String value = keyValue[1].trim();
+                switch (keyValue[0].trim()) {
+                    case "mode":
+                        mode = Mode.valueOf(value.substring(0, 1).toUpperCase() + value.substring(1).toLowerCase());
+                        break;
+                    case "rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "concurrency":
+                        concurrency = Integer.parseInt(value);
+                        break;
+                    case "pallets":
+                        maxPallets = Integer.parseInt(value);
+                        break;
+                    case "reserve":
+                        reserve = Boolean.parseBoolean(value);
+                        break;
+                    case "seed":
+                        random = new Random(Long.parseLong(value));
+                        break;
+                    case "sources":
+                        for (String source : value.split(";")) {
+                            sources.add(source.trim());
+                        }
+                        break;
+                    case "destinations":
+                        double total = 0;
+                        for (String destination : value.split(";")) {
+                            String[] nameWeight = destination.split(":");
+                            total += (nameWeight.length > 1) ? Double.parseDouble(nameWeight[1]) : 1;
+                            destinations.add(nameWeight[0].trim());
+                            cumulativeWeights.add(total);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown argument: " + keyValue[0]);
+                }
+            }
+        }
+        if (sources.isEmpty() || destinations.isEmpty()) {
+            throw new IllegalArgumentException("At least one source and one destination are needed");
+        }
+        if ((mode != Mode.Closed) && (rate <= 0)) {
+            throw new IllegalArgumentException("The rate must be positive");
+        }
+    }
+
+    private boolean limitReached() {
+        return (maxPallets > 0) && (palletCounter >= maxPallets);
+    }
+
+    // loads a new pallet on a source, the transfer is asked once the source agrees
+    private void inject() {
+        if (limitReached()) {
+            return;
+        }
+        String source = sources.get(random.nextInt(sources.size()));
+        String destination = pickDestination(source);
+        if (destination == null) {
+            myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - No destination other than " + source);
+            return;
+        }
+        palletCounter++;
+        PalletRecord pallet = new PalletRecord(getLocalName() + "-" + (++palletSequence), source, destination, clock.now());
+        inFlight.put(pallet.id, pallet);
+        JSONObject loadObj = new JSONObject();
+        loadObj.put("request_type", "load");
+        loadObj.put("pallet_id", pallet.id);
+        ACLMessage loadMsg = new ACLMessage(ACLMessage.REQUEST);
+        loadMsg.addReceiver(new AID(source, AID.ISLOCALNAME));
+        loadMsg.setConversationId(pallet.id);
+        loadMsg.setContent(loadObj.toString());
+        send(loadMsg);
+    }
+
+    // weighted choice, a pallet is not sent to the conveyor it starts from
+    private String pickDestination(String source) {
+        for (int tries = 0; tries < 10; tries++) {
+            double r = random.nextDouble() * cumulativeWeights.get(cumulativeWeights.size() - 1);
+            for (int i = 0; i < destinations.size(); i++) {
+                if (r < cumulativeWeights.get(i)) {
+                    if (!destinations.get(i).equals(source)) {
+                        return destinations.get(i);
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void requestTransfer(PalletRecord pallet) {
+        JSONObject transferObj = new JSONObject();
+        transferObj.put("request_type", "transfer");
+        transferObj.put("source", pallet.source);
+        transferObj.put("destination", pallet.destination);
+        transferObj.put("pallet_id", pallet.id);
+        // the destination tells this agent when the pallet arrives
+        transferObj.put("notify", getLocalName());
+        if (reserve) {
+            transferObj.put("reserve", "true");
+        }
+        ACLMessage transferMsg = new ACLMessage(ACLMessage.REQUEST);
+        transferMsg.addReceiver(new AID(pallet.source, AID.ISLOCALNAME));
+        transferMsg.setConversationId(pallet.id);
+        transferMsg.setContent(transferObj.toString());
+        send(transferMsg);
+    }
+
+    // the source is full (or the transfer could not start): the pallet is dropped, in closed loop another one is tried later
+    private void palletRejected(PalletRecord pallet, String reason) {
+        inFlight.remove(pallet.id);
+        rejected++;
+        myLogger.log(Logger.FINE, "Agent " + getLocalName() + " - " + pallet.id + " rejected by " + pallet.source + ": " + reason);
+        if (mode == Mode.Closed) {
+            // a rejected pallet does not count in the limit
+            palletCounter--;
+            injectLater();
+        }
+    }
+
+    // the transfer will not reach the destination: the pallet is unloaded from the conveyor where it stopped,
+    // and in closed loop another one takes its place
+    private void transferFailed(PalletRecord pallet, String conveyor, String reason) {
+        inFlight.remove(pallet.id);
+        failed++;
+        myLogger.log(Logger.WARNING, "Agent " + getLocalName() + " - " + pallet.id + " from " + pallet.source + " to " + pallet.destination + " failed on " + conveyor + ": " + reason);
+        unload(pallet.id, conveyor);
+        if (mode == Mode.Closed) {
+            injectLater();
+        }
+    }
+
+    private void injectLater() {
+        addBehaviour(new ClockWakerBehaviour(this, retryDelayMs) {
+            protected void onWake() {
+                inject();
+            }
+        });
+    }
+
+    // the pallet reached the end of its transfer: it is unloaded to free the conveyor. A pallet parked elsewhere
+    // to break a deadlock ends its transfer on another conveyor than its destination, it did not arrive
+    private void palletDelivered(String palletId, String conveyor) {
+        PalletRecord pallet = inFlight.get(palletId);
+        if (pallet == null) {
+            return;
+        }
+        if ((conveyor != null) && !conveyor.equals(pallet.destination)) {
+            transferFailed(pallet, conveyor, "ended on " + conveyor);
+            return;
+        }
+        inFlight.remove(palletId);
+        long latency = clock.now() - pallet.submitTime;
+        completed++;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        myLogger.log(Logger.INFO, "Agent " + getLocalName() + " - " + pallet.id + " delivered from " + pallet.source + " to " + pallet.destination + " in " + latency + " ms");
+        unload(pallet.id, pallet.destination);
+        if (mode == Mode.Closed) {
+            inject();
+        }
+    }
+
+    private void unload(String palletId, String conveyor) {
+        JSONObject unloadObj = new JSONObject();
+        unloadObj.put("request_type", "unload");
+        unloadObj.put("pallet_id", palletId);
+        ACLMessage unloadMsg = new ACLMessage(ACLMessage.REQUEST);
+        unloadMsg.addReceiver(new AID(conveyor, AID.ISLOCALNAME));
+        unloadMsg.setContent(unloadObj.toString());
+        send(unloadMsg);
+    }
+
+    private JSONObject stats() {
+        long elapsed = clock.now() - startTime;
+        JSONObject stats = new JSONObject();
+        stats.put("submitted", palletSequence);
+        stats.put("rejected", rejected);
+        stats.put("failed", failed);
+        stats.put("completed", completed);
+        stats.put("in_flight", (long) inFlight.size());
+        stats.put("mean_latency_ms", (completed == 0) ? 0 : totalLatency / completed);
+        stats.put("max_latency_ms", maxLatency);
+        stats.put("elapsed_ms", elapsed);
+        stats.put("throughput_per_hour", (elapsed == 0) ? 0.0 : completed * 3600000.0 / elapsed);
+        return stats;
+    }
+
+    private JSONObject parse(String content) {
+        if (content == null) {
+            return null;
+        }
+        try {
+            Object parsed = jsonParser.parse(content);
+            return (parsed instanceof JSONObject) ? (JSONObject) parsed : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Addresses of the agents a conveyor talks to. The AID of an agent is built the first time it is named and then
+ * reused, and the AIDs of the neighbours and of the predecessors are kept in lists ready for the broadcasts.
+ * The DF notifications keep the directory up to date: a registered neighbour is reached through the AID
+ * published by the DF, and a neighbour leaving the DF is reported as gone.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class NeighbourDirectory {
+    private final Map<String, AID> aids = new HashMap<>();
+    private final List<String> neighbours = new ArrayList<>();
+    private final List<AID> neighbourAIDs = new ArrayList<>();
+    private final List<String> predecessors = new ArrayList<>();
+    private final List<AID> predecessorAIDs = new ArrayList<>();
+    // agents currently registered with the DF, among the ones followed
+    private final Set<String> registered = new HashSet<>();
+
+    /**
+     * Returns the AID of the agent with the given local name.
+     */
+    public AID aid(String name) {
+        AID aid = aids.get(name);
+        if (aid == null) {
+            aid = new AID(name, AID.ISLOCALNAME);
+            aids.put(name, aid);
+        }
+        return aid;
+    }
+
+    public List<String> getNeighbours() {return Collections.unmodifiableList(neighbours);}
+    public List<String> getPredecessors() {return Collections.unmodifiableList(predecessors);}
+    public boolean isNeighbour(String name) {return neighbours.contains(name);}
+
+    /**
+     * Returns false if the conveyor was already a neighbour.
+     */
+    public boolean addNeighbour(String name) {
+        if (neighbours.contains(name)) {
+            return false;
+        }
+        neighbours.add(name);
+        neighbourAIDs.add(aid(name));
+        return true;
+    }
+
+    /**
+     * Returns false if the conveyor was already a predecessor.
+     */
+    public boolean addPredecessor(String name) {
+        if (predecessors.contains(name)) {
+            return false;
+        }
+        predecessors.add(name);
+        predecessorAIDs.add(aid(name));
+        return true;
+    }
+
+    /**
+     * Returns false if the conveyor was not a neighbour.
+     */
+    public boolean removeNeighbour(String name) {
+        if (!neighbours.remove(name)) {
+            return false;
+        }
+        neighbourAIDs.remove(aid(name));
+        return true;
+    }
+
+    /**
+     * Returns false if the conveyor was not a predecessor.
+     */
+    public boolean removePredecessor(String name) {
+        if (!predecessors.remove(name)) {
+            return false;
+        }
+        predecessorAIDs.remove(aid(name));
+        return true;
+    }
+
+    public void addNeighbourReceivers(ACLMessage msg) {
+        for (AID aid : neighbourAIDs) {
+            msg.addReceiver(aid);
+        }
+    }
+
+    public void addPredecessorReceivers(ACLMessage msg) {
+        for (AID aid : predecessorAIDs) {
+            msg.addReceiver(aid);
+        }
+    }
+
+    public void addReceivers(ACLMessage msg, Collection<String> names) {
+        for (String name : names) {
+            msg.addReceiver(aid(name));
+        }
+    }
+
+    /**
+     * Records the AID published by the DF for the agent.
+     *
+     * @return true if the agent was not registered before
+     */
+    public boolean registered(AID published) {
+        String name = published.getLocalName();
+        AID previous = aids.put(name, published);
+        if (previous != null) {
+            // the broadcast lists use the published AID too
+            replace(neighbourAIDs, previous, published);
+            replace(predecessorAIDs, previous, published);
+        }
+        return registered.add(name);
+    }
+
+    /**
+     * Records that the agent left the DF.
+     *
+     * @return true if the agent was registered
+     */
+    public boolean deregistered(String name) {
+        return registered.remove(name);
+    }
+
+    public boolean isRegistered(String name) {return registered.contains(name);}
+
+    private static void replace(List<AID> list, AID previous, AID current) {
+        int i = list.indexOf(previous);
+        if (i >= 0) {
+            list.set(i, current);
+        }
+    }
+}
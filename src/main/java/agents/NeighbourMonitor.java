@@ -0,0 +1,246 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a conveyor knows of the conveyors following it: the status each one pushed, with the time it expects
+ * to be free, and whether it is still alive, judged by a PhiAccrualDetector fed by its heartbeats.
+ * It also takes the decisions of the hand-off of a pallet to one of them: send the load, wait, or look for
+ * another route. The ConveyorAgent and the conveyors hosted by a ConveyorShardAgent both use it, so that a
+ * pallet is handed off the same way whatever agent runs the conveyor.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class NeighbourMonitor {
+
+    /**
+     * Next step of a hand-off: load the pallet on the next conveyor, try again after a delay, or give up
+     * the next conveyor for another route.
+     */
+    public enum Action {LOAD, WAIT, REROUTE}
+
+    public static class Decision {
+        private static final Decision LOAD = new Decision(Action.LOAD, 0, null);
+
+        private final Action action;
+        private final long delayMs;
+        private final String reason;
+
+        private Decision(Action action, long delayMs, String reason) {
+            this.action = action;
+            this.delayMs = delayMs;
+            this.reason = reason;
+        }
+
+        static Decision waitFor(long delayMs) {
+            return new Decision(Action.WAIT, delayMs, null);
+        }
+
+        static Decision reroute(String reason) {
+            return new Decision(Action.REROUTE, 0, reason);
+        }
+
+        public Action getAction() {return action;}
+        public long getDelayMs() {return delayMs;}
+        public String getReason() {return reason;}
+    }
+
+    // status pushed by each neighbour and when it expects to be free (-1 if it cannot tell)
+    private final Map<String, ConveyorAgent.Status> status = new HashMap<>();
+    private final Map<String, Long> freeTime = new HashMap<>();
+    // detector of each neighbour that sent a heartbeat, and the neighbours currently suspected
+    private final Map<String, PhiAccrualDetector> detectors = new HashMap<>();
+    private final Set<String> suspected = new HashSet<>();
+
+    /**
+     * Builds the status a conveyor pushes to its predecessors, as status_event or heartbeat, or gives in the
+     * answer to get_eta when the request type is null.
+     */
+    public static JSONObject statusEvent(String requestType, ConveyorAgent.Status status, long etaMs) {
+        JSONObject event = new JSONObject();
+        if (requestType != null) {
+            event.put("request_type", requestType);
+        }
+        event.put("status", status.toString());
+        event.put("eta_ms", etaMs);
+        return event;
+    }
+
+    /**
+     * Records the status carried by a status_event, a heartbeat or an answer to get_eta. Returns it, null if
+     * the event has no valid status.
+     */
+    public ConveyorAgent.Status statusEvent(String neighbour, JSONObject event, long now) {
+        ConveyorAgent.Status neighbourStatus;
+        try {
+            neighbourStatus = ConveyorAgent.Status.valueOf(String.valueOf(event.get("status")));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        long eta = eta(event);
+        status.put(neighbour, neighbourStatus);
+        freeTime.put(neighbour, (eta >= 0) ? now + eta : -1);
+        return neighbourStatus;
+    }
+
+    /**
+     * Feeds the detector of the neighbour. Returns true if the neighbour was suspected: it is responding again.
+     */
+    public boolean heartbeat(String neighbour, long now) {
+        PhiAccrualDetector detector = detectors.get(neighbour);
+        if (detector == null) {
+            detector = new PhiAccrualDetector(ConveyorAgent.phiThreshold, ConveyorAgent.heartbeatMs,
+                    ConveyorAgent.heartbeatMs / 4, ConveyorAgent.heartbeatPauseMs);
+            detectors.put(neighbour, detector);
+        }
+        detector.heartbeat(now);
+        return suspected.remove(neighbour);
+    }
+
+    /**
+     * Suspects the neighbours whose heartbeats are late. Returns the newly suspected ones, with the time
+     * elapsed since their last heartbeat.
+     */
+    public Map<String, Long> suspectLate(long now) {
+        Map<String, Long> late = new LinkedHashMap<>();
+        for (Map.Entry<String, PhiAccrualDetector> entry : detectors.entrySet()) {
+            String neighbour = entry.getKey();
+            PhiAccrualDetector detector = entry.getValue();
+            if (!suspected.contains(neighbour) && !detector.isAvailable(now)) {
+                suspected.add(neighbour);
+                late.put(neighbour, now - detector.getLastHeartbeat());
+            }
+        }
+        return late;
+    }
+
+    public boolean isSuspected(String neighbour) {
+        return suspected.contains(neighbour);
+    }
+
+    public Set<String> getSuspected() {
+        return Collections.unmodifiableSet(suspected);
+    }
+
+    /**
+     * Returns false if the neighbour is known to be full, down or not responding: it would refuse a pallet.
+     */
+    public boolean mayAccept(String neighbour) {
+        ConveyorAgent.Status neighbourStatus = status.get(neighbour);
+        return !suspected.contains(neighbour) && (neighbourStatus != ConveyorAgent.Status.Busy)
+                && (neighbourStatus != ConveyorAgent.Status.Down);
+    }
+
+    /**
+     * Forgets a conveyor that is no longer a neighbour.
+     */
+    public void remove(String neighbour) {
+        status.remove(neighbour);
+        freeTime.remove(neighbour);
+        detectors.remove(neighbour);
+        suspected.remove(neighbour);
+    }
+
+    /**
+     * First step of a hand-off, when the pallet reaches the end of the conveyor: a next conveyor that already
+     * told it cannot take the pallet gets no load request to refuse.
+     */
+    public Decision beforeLoad(String next, long now) {
+        return beforeLoad(next, false, now);
+    }
+
+    /**
+     * First step of a hand-off for a pallet that may have booked its slot on the next conveyor: a busy
+     * conveyor can be keeping its places for the booked pallets, so the pallet asks to be loaded anyway.
+     */
+    public Decision beforeLoad(String next, boolean booked, long now) {
+        if (suspected.contains(next)) {
+            return Decision.reroute(next + " is not responding");
+        }
+        ConveyorAgent.Status nextStatus = status.get(next);
+        if (nextStatus == ConveyorAgent.Status.Down) {
+            return Decision.reroute(next + " is down");
+        }
+        if ((nextStatus == ConveyorAgent.Status.Busy) && !booked) {
+            // wait for it to push its new status, or until it expects to be free
+            long free = freeTime.get(next);
+            return Decision.waitFor((free >= 0) ? Math.max(free - now, ConveyorAgent.minRetryDelayMs) : ConveyorAgent.retryDelayMs);
+        }
+        return Decision.LOAD;
+    }
+
+    /**
+     * Step following a refused load, once the next conveyor told when it will be free (null if it did not
+     * answer get_eta): the pallet waits for it, unless another route of the table is faster than waiting.
+     */
+    public Decision afterEta(String next, JSONObject etaObj, RoutingTable routingTable, String destination,
+                             boolean rerouteAllowed, long now) {
+        if ((etaObj == null) || !(etaObj.get("eta_ms") instanceof Number)) {
+            return Decision.waitFor(ConveyorAgent.retryDelayMs);
+        }
+        statusEvent(next, etaObj, now);
+        long eta = eta(etaObj);
+        if ("Down".equals(etaObj.get("status"))) {
+            return Decision.reroute(next + " is down");
+        }
+        if (rerouteAllowed && (eta >= 0)) {
+            RoutingTable.Route alternative = routingTable.lookup(destination, Collections.singletonList(next));
+            RoutingTable.Route throughNext = routingTable.lookupVia(next, destination);
+            // both costs include this conveyor, waiting adds the remaining time of the next one
+            if ((alternative != null) && (throughNext != null)
+                    && (alternative.getCost() * 1000L < throughNext.getCost() * 1000L + eta)) {
+                return Decision.reroute(next + " busy for " + eta + " ms, another route is faster");
+            }
+        }
+        return Decision.waitFor((eta >= 0) ? Math.max(eta, ConveyorAgent.minRetryDelayMs) : ConveyorAgent.retryDelayMs);
+    }
+
+    /**
+     * Step of a pallet waiting for the next conveyor when it pushes a new status: try at once when it is idle,
+     * another route when it is down. Returns null if the pallet keeps waiting.
+     */
+    public static Decision statusChanged(String next, ConveyorAgent.Status nextStatus) {
+        if (nextStatus == ConveyorAgent.Status.Down) {
+            return Decision.reroute(next + " is down");
+        }
+        if (nextStatus == ConveyorAgent.Status.Idle) {
+            return Decision.waitFor(0);
+        }
+        return null;
+    }
+
+    private static long eta(JSONObject event) {
+        return (event.get("eta_ms") instanceof Number) ? ((Number) event.get("eta_ms")).longValue() : -1;
+    }
+}
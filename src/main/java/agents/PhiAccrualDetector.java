@@ -0,0 +1,108 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+/**
+ * Failure detector of a conveyor watching one of its neighbours through its heartbeats.
+ * Instead of a fixed timeout it gives a suspicion level phi, growing with the time since the last heartbeat
+ * compared to the intervals seen so far: phi = -log10(probability that a heartbeat arrives that late).
+ * The neighbour is suspected once phi exceeds the threshold, e.g. 8 means one chance in 10^8 of a false
+ * suspicion when the intervals follow a normal distribution.
+ * The acceptable pause is added to the mean interval: a neighbour can be silent that long, for instance while
+ * the agents are flooded with messages, before phi starts to grow.
+ * The detector starts with the expected interval, so that it works from the first heartbeat.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class PhiAccrualDetector {
+    // number of intervals kept, the oldest one is replaced
+    private static final int windowSize = 100;
+
+    private final double threshold;
+    // lower bound of the standard deviation: very regular heartbeats must not make the detector too nervous
+    private final double minStdDevMs;
+    private final long acceptablePauseMs;
+    private final long[] intervals = new long[windowSize];
+    private int count = 0;
+    private int next = 0;
+    private double sum = 0;
+    private double sumOfSquares = 0;
+    private long lastHeartbeat = -1;
+
+    public PhiAccrualDetector(double threshold, long expectedIntervalMs, long minStdDevMs, long acceptablePauseMs) {
+        this.threshold = threshold;
+        this.minStdDevMs = Math.max(1, minStdDevMs);
+        this.acceptablePauseMs = Math.max(0, acceptablePauseMs);
+        // two intervals spread around the expected one: mean expectedIntervalMs, deviation expectedIntervalMs / 4
+        add(expectedIntervalMs - expectedIntervalMs / 4);
+        add(expectedIntervalMs + expectedIntervalMs / 4);
+    }
+
+    public void heartbeat(long now) {
+        if (lastHeartbeat >= 0 && now >= lastHeartbeat) {
+            add(now - lastHeartbeat);
+        }
+        lastHeartbeat = now;
+    }
+
+    /**
+     * Returns the suspicion level at the given time, 0 before the first heartbeat.
+     */
+    public double phi(long now) {
+        if (lastHeartbeat < 0) {
+            return 0;
+        }
+        double mean = sum / count;
+        double stdDev = Math.max(minStdDevMs, Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean)));
+        mean += acceptablePauseMs;
+        double y = ((now - lastHeartbeat) - mean) / stdDev;
+        // logistic approximation of the normal cumulative distribution
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if ((now - lastHeartbeat) > mean) {
+            return -Math.log10(e / (1 + e));
+        }
+        return -Math.log10(1 - 1 / (1 + e));
+    }
+
+    public boolean isAvailable(long now) {
+        return phi(now) < threshold;
+    }
+
+    public long getLastHeartbeat() {return lastHeartbeat;}
+
+    private void add(long interval) {
+        if (count == windowSize) {
+            sum -= intervals[next];
+            sumOfSquares -= (double) intervals[next] * intervals[next];
+        }
+        else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % windowSize;
+        sum += interval;
+        sumOfSquares += (double) interval * interval;
+    }
+}
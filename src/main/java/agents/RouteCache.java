@@ -0,0 +1,148 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Full paths found by the traces and the floods of the transfers started by a conveyor, by destination and
+ * conveyors to avoid. The routing table only knows the next hop towards each destination, so a hit saves the
+ * trace along the tables (one message per hop) or the flood, reroutes included.
+ * The least recently used route is dropped when the cache is full. A route is forgotten as soon as
+ * one of the conveyors it crosses changes status or refuses a pallet, or the table changes its next hop,
+ * so a hit never needs a new search.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class RouteCache {
+
+    public static class Route {
+        // conveyors crossed by the pallet, from the owner of the cache to the destination
+        private final List<String> path;
+        private final int cost;
+
+        public Route(List<String> path, int cost) {
+            this.path = Collections.unmodifiableList(path);
+            this.cost = cost;
+        }
+
+        public List<String> getPath() {return path;}
+        public int getCost() {return cost;}
+        public String getDestination() {return path.get(path.size() - 1);}
+    }
+
+    private final Map<String, Route> routes;
+    private long hits = 0;
+    private long misses = 0;
+
+    public RouteCache(final int capacity) {
+        // access order: the first entry is the least recently used one
+        routes = new LinkedHashMap<String, Route>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached route to the destination, or null on a miss.
+     */
+    public Route get(String destination) {
+        return get(destination, null);
+    }
+
+    /**
+     * Returns the cached route to the destination found avoiding the conveyors, or null on a miss.
+     */
+    public Route get(String destination, Collection<?> avoid) {
+        Route route = routes.get(key(destination, avoid));
+        if (route != null) {
+            hits++;
+        }
+        else {
+            misses++;
+        }
+        return route;
+    }
+
+    public void put(Route route) {
+        put(route, null);
+    }
+
+    public void put(Route route, Collection<?> avoid) {
+        routes.put(key(route.getDestination(), avoid), route);
+    }
+
+    /**
+     * Forgets the routes to the destination, whatever the conveyors they avoid.
+     */
+    public void remove(String destination) {
+        Iterator<Route> it = routes.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().getDestination().equals(destination)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets all the routes crossing the conveyor.
+     *
+     * @return the number of routes removed
+     */
+    public int invalidate(String conveyor) {
+        int removed = 0;
+        Iterator<Route> it = routes.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().getPath().contains(conveyor)) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // the same conveyors to avoid in any order give the same key
+    private static String key(String destination, Collection<?> avoid) {
+        if ((avoid == null) || avoid.isEmpty()) {
+            return destination;
+        }
+        StringBuilder key = new StringBuilder(destination);
+        for (Object conveyor : new TreeSet<Object>(avoid)) {
+            key.append('\n').append(conveyor);
+        }
+        return key.toString();
+    }
+
+    public long getHits() {return hits;}
+    public long getMisses() {return misses;}
+    public int size() {return routes.size();}
+}
@@ -0,0 +1,116 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes of the pallets moving through the conveyors of this JVM, shared by all the agents.
+ * A routed_transfer between two conveyors is a small envelope: the route id, the index of the hop that receives
+ * it and the fields of the transfer, without the route. The route is sent only to a conveyor that does not share
+ * this store (a conveyor of another JVM, or that did not announce it), which then keeps it in its own.
+ * Every hop thus reads and forwards a message of the same size, however long the route is.
+ * The routes are never modified once stored; the destination removes the route when the pallet arrives.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class RouteStore {
+    // user defined ACL parameter announcing the store of the sender, and the id of the store of this JVM
+    public static final String PARAMETER = "route-store";
+    public static final String ID = UUID.randomUUID().toString();
+
+    // routes kept at most, the oldest ones are dropped: a route left behind by a lost pallet does not stay forever
+    private static final int maxRoutes = 1 << 16;
+    private static final Map<String, JSONArray> routes = Collections.synchronizedMap(new LinkedHashMap<String, JSONArray>() {
+        protected boolean removeEldestEntry(Map.Entry<String, JSONArray> eldest) {
+            return size() > maxRoutes;
+        }
+    });
+    private static final AtomicLong routeCounter = new AtomicLong();
+
+    private RouteStore() {
+    }
+
+    /**
+     * Returns the route of a routed_transfer: the viaPoints it carries, stored under its route_id (a new one is
+     * given to a route without id), or the route stored under its route_id. Null if the route is unknown.
+     */
+    public static JSONArray route(JSONObject request, String conveyor) {
+        Object routeId = request.get("route_id");
+        if (request.get("viaPoints") instanceof JSONArray) {
+            JSONArray route = (JSONArray) request.get("viaPoints");
+            if (routeId == null) {
+                routeId = conveyor + "-route-" + routeCounter.incrementAndGet();
+                request.put("route_id", routeId);
+            }
+            routes.put(routeId.toString(), route);
+            return route;
+        }
+        return (routeId != null) ? routes.get(routeId.toString()) : null;
+    }
+
+    public static void remove(Object routeId) {
+        if (routeId != null) {
+            routes.remove(routeId.toString());
+        }
+    }
+
+    /**
+     * Returns the position of the conveyor in the route: the hop of the request when it points at the conveyor,
+     * otherwise the first position of the conveyor (-1 if it is not in the route).
+     */
+    public static int hopIndex(JSONArray route, JSONObject request, String conveyor) {
+        Object hop = request.get("hop");
+        if (hop instanceof Number) {
+            int i = ((Number) hop).intValue();
+            if (i >= 0 && i < route.size() && conveyor.equals(route.get(i))) {
+                return i;
+            }
+        }
+        return route.indexOf(conveyor);
+    }
+
+    /**
+     * Builds the routed_transfer for the next hop: the fields of the request pointing at that hop, with the
+     * route only if the receiver does not share the store.
+     */
+    public static JSONObject envelope(JSONObject request, int hop, boolean withRoute) {
+        JSONObject envelope = new JSONObject();
+        for (Object field : request.keySet()) {
+            if (withRoute || !"viaPoints".equals(field)) {
+                envelope.put(field, request.get(field));
+            }
+        }
+        envelope.put("hop", hop);
+        return envelope;
+    }
+}
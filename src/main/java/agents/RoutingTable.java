@@ -0,0 +1,332 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Distance-vector routing table of a conveyor, maintained incrementally from the advertisements of its neighbours.
+ * For every known destination it keeps only the next hop and the cost, so the table and the advertisements grow
+ * with the number of conveyors and not with the length of the routes; the whole route of a transfer is traced
+ * on demand by the conveyors it crosses.
+ * Every route carries the sequence number given by its destination. A route is only taken if it is newer than the
+ * routes the table had, or as new and coming from a neighbour closer to the destination than the owner ever was
+ * (feasibility distance): a route coming back through the owner is never closer, so the routes do not loop and
+ * a lost destination is not counted to infinity on the rings. When no route is feasible anymore, the destination
+ * is asked for a newer sequence number (see {@link #refreshFrom}). The link costs must be positive.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class RoutingTable {
+
+    public static class Route {
+        private final String destination;
+        // first conveyor after the owner of the table (the owner itself for the route to itself)
+        private final String nextHop;
+        // cost of the route
+        private final int cost;
+        // sequence number given by the destination: the higher, the newer the route
+        private final long seq;
+
+        public Route(String destination, String nextHop, int cost, long seq) {
+            this.destination = destination;
+            this.nextHop = nextHop;
+            this.cost = cost;
+            this.seq = seq;
+        }
+
+        public String getDestination() {return destination;}
+        public String getNextHop() {return nextHop;}
+        public int getCost() {return cost;}
+        public long getSeq() {return seq;}
+
+        public boolean sameAs(Route other) {
+            return other != null && cost == other.cost && seq == other.seq && nextHop.equals(other.nextHop);
+        }
+    }
+
+    // name of the conveyor owning the table
+    private final String owner;
+    // cost paid by a pallet crossing the owner of the table
+    private int linkCost;
+    // sequence number of the routes to the owner
+    private long seq = 0;
+    // last routes advertised by each neighbour: neighbour -> destination -> route starting at the neighbour
+    private final Map<String, Map<String, Route>> advertised = new HashMap<>();
+    // best route for each destination
+    private final Map<String, Route> best = new HashMap<>();
+    // feasibility distance of each destination: newest sequence number of the routes taken, and their lowest cost
+    private final Map<String, Route> feasibility = new HashMap<>();
+
+    public RoutingTable(String owner, int linkCost) {
+        this.owner = owner;
+        this.linkCost = linkCost;
+        best.put(owner, new Route(owner, owner, 0, seq));
+    }
+
+    public String getOwner() {return owner;}
+    public int getLinkCost() {return linkCost;}
+    public long getSeq() {return seq;}
+
+    /**
+     * Returns the best known route to the destination, or null if the destination is unknown.
+     */
+    public Route lookup(String destination) {
+        return best.get(destination);
+    }
+
+    /**
+     * Returns the best known route to the destination whose next hop is not one of the avoided conveyors,
+     * or null if there is none. Only the next hop of a route is known, the conveyors after it are not checked.
+     */
+    public Route lookup(String destination, Collection<String> avoid) {
+        Route route = best.get(destination);
+        if (avoid == null || avoid.isEmpty() || (route != null && !avoid.contains(route.getNextHop()))) {
+            return route;
+        }
+        return bestFeasible(destination, avoid);
+    }
+
+    /**
+     * Returns the routes towards the destination through every neighbour that advertised one and is not avoided,
+     * the fastest first (least total transfer time). Unlike lookup, the routes that are not feasible are included:
+     * they are estimates of the detours, that can loop back through the owner.
+     */
+    public List<Route> alternatives(String destination, Collection<?> avoid) {
+        List<Route> alternatives = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Route>> entry : advertised.entrySet()) {
+            Route advertisedRoute = entry.getValue().get(destination);
+            if (advertisedRoute != null && (avoid == null || !avoid.contains(entry.getKey()))) {
+                alternatives.add(via(entry.getKey(), advertisedRoute));
+            }
+        }
+        alternatives.sort((a, b) -> (a.getCost() != b.getCost())
+                ? Integer.compare(a.getCost(), b.getCost()) : a.getNextHop().compareTo(b.getNextHop()));
+        return alternatives;
+    }
+
+    /**
+     * Returns the route towards the destination through the given neighbour, or null if the neighbour
+     * did not advertise any.
+     */
+    public Route lookupVia(String neighbour, String destination) {
+        Map<String, Route> routes = advertised.get(neighbour);
+        return routes == null ? null : via(neighbour, routes.get(destination));
+    }
+
+    /**
+     * Applies an advertisement of a neighbour: the routes it can offer and the destinations it cannot reach anymore.
+     *
+     * @return the destinations whose best route changed
+     */
+    public Set<String> update(String neighbour, Map<String, Route> routes, Collection<String> withdrawn) {
+        Map<String, Route> known = advertised.computeIfAbsent(neighbour, k -> new HashMap<>());
+        Set<String> touched = new HashSet<>();
+        if (withdrawn != null) {
+            for (String destination : withdrawn) {
+                if (known.remove(destination) != null) {
+                    touched.add(destination);
+                }
+            }
+        }
+        if (routes != null) {
+            for (Route route : routes.values()) {
+                // the owner is reached without any route
+                if (!route.getDestination().equals(owner)) {
+                    known.put(route.getDestination(), route);
+                    touched.add(route.getDestination());
+                }
+            }
+        }
+        return recompute(touched);
+    }
+
+    /**
+     * Forgets everything a neighbour advertised.
+     *
+     * @return the destinations whose best route changed
+     */
+    public Set<String> removeNeighbour(String neighbour) {
+        Map<String, Route> known = advertised.remove(neighbour);
+        if (known == null) {
+            return Collections.emptySet();
+        }
+        return recompute(new HashSet<>(known.keySet()));
+    }
+
+    /**
+     * Changes the cost of crossing the owner of the table.
+     *
+     * @return the destinations whose best route changed
+     */
+    public Set<String> setLinkCost(int linkCost) {
+        if (this.linkCost == linkCost) {
+            return Collections.emptySet();
+        }
+        this.linkCost = linkCost;
+        return recompute(new HashSet<>(best.keySet()));
+    }
+
+    /**
+     * Gives the routes to the owner a sequence number newer than the one asked by a conveyor that has no feasible
+     * route to it anymore. Does nothing if the routes are already newer.
+     *
+     * @return whether the sequence number changed, and the route to the owner must be advertised
+     */
+    public boolean newSeq(long requested) {
+        if (seq > requested) {
+            return false;
+        }
+        seq = requested + 1;
+        best.put(owner, new Route(owner, owner, 0, seq));
+        return true;
+    }
+
+    /**
+     * Returns the neighbours to ask for a newer route to the destination: the ones advertising a route that
+     * is not feasible. Empty if the table has a route to the destination, or if no neighbour has one.
+     */
+    public List<String> refreshFrom(String destination) {
+        List<String> from = new ArrayList<>();
+        if (!best.containsKey(destination)) {
+            for (Map.Entry<String, Map<String, Route>> entry : advertised.entrySet()) {
+                if (entry.getValue().containsKey(destination)) {
+                    from.add(entry.getKey());
+                }
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Returns the sequence number a newer route to the destination must exceed, -1 if the destination is unknown.
+     */
+    public long feasibleSeq(String destination) {
+        Route distance = feasibility.get(destination);
+        return distance == null ? -1 : distance.getSeq();
+    }
+
+    /**
+     * Returns all the best routes, including the one to the owner itself.
+     */
+    public Map<String, Route> routes() {
+        return Collections.unmodifiableMap(best);
+    }
+
+    /**
+     * Builds the routes field of a route_update: cost and sequence number for each destination.
+     */
+    public static JSONObject routesToJSON(Collection<Route> routes) {
+        JSONObject routesObj = new JSONObject();
+        for (Route route : routes) {
+            JSONObject routeObj = new JSONObject();
+            routeObj.put("cost", route.getCost());
+            routeObj.put("seq", route.getSeq());
+            routesObj.put(route.getDestination(), routeObj);
+        }
+        return routesObj;
+    }
+
+    /**
+     * Reads the routes field of a route_update sent by the neighbour.
+     */
+    public static Map<String, Route> routesFromJSON(JSONObject routesObj, String neighbour) {
+        Map<String, Route> routes = new HashMap<>();
+        if (routesObj != null) {
+            for (Object o : routesObj.entrySet()) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                JSONObject routeObj = (JSONObject) entry.getValue();
+                String destination = (String) entry.getKey();
+                routes.put(destination, new Route(destination, neighbour, ((Number) routeObj.get("cost")).intValue(),
+                        ((Number) routeObj.get("seq")).longValue()));
+            }
+        }
+        return routes;
+    }
+
+    // route from the owner through the neighbour, given the route advertised by the neighbour
+    private Route via(String neighbour, Route advertisedRoute) {
+        if (advertisedRoute == null) {
+            return null;
+        }
+        return new Route(advertisedRoute.getDestination(), neighbour, linkCost + advertisedRoute.getCost(), advertisedRoute.getSeq());
+    }
+
+    // a route cannot come back through the owner if it is newer than the routes the owner took, or if the neighbour
+    // is closer to the destination than the owner ever was. The destination itself is always a safe next hop
+    private boolean feasible(String neighbour, Route advertisedRoute) {
+        Route distance = feasibility.get(advertisedRoute.getDestination());
+        return distance == null || neighbour.equals(advertisedRoute.getDestination())
+                || advertisedRoute.getSeq() > distance.getSeq()
+                || (advertisedRoute.getSeq() == distance.getSeq() && advertisedRoute.getCost() < distance.getCost());
+    }
+
+    // cheapest feasible route to the destination through a neighbour that is not avoided
+    private Route bestFeasible(String destination, Collection<String> avoid) {
+        Route found = null;
+        for (Map.Entry<String, Map<String, Route>> entry : advertised.entrySet()) {
+            Route advertisedRoute = entry.getValue().get(destination);
+            if (advertisedRoute == null || avoid.contains(entry.getKey()) || !feasible(entry.getKey(), advertisedRoute)) {
+                continue;
+            }
+            Route candidate = via(entry.getKey(), advertisedRoute);
+            if (found == null || candidate.getCost() < found.getCost()) {
+                found = candidate;
+            }
+        }
+        return found;
+    }
+
+    private Set<String> recompute(Set<String> destinations) {
+        Set<String> changed = new HashSet<>();
+        for (String destination : destinations) {
+            if (destination.equals(owner)) {
+                continue;
+            }
+            Route found = bestFeasible(destination, Collections.<String>emptySet());
+            if (found != null) {
+                Route distance = feasibility.get(destination);
+                if (distance == null || found.getSeq() > distance.getSeq()
+                        || (found.getSeq() == distance.getSeq() && found.getCost() < distance.getCost())) {
+                    feasibility.put(destination, found);
+                }
+            }
+            Route previous = found == null ? best.remove(destination) : best.put(destination, found);
+            if (found == null ? previous != null : !found.sameAs(previous)) {
+                changed.add(destination);
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,148 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.behaviours.Behaviour;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Virtual clock for the discrete-event simulation of the line. The behaviours waiting for a time are
+ * kept in a single event queue; when the agents have been idle for quiescenceMs of real time (no message
+ * handled, no behaviour woken up), the clock jumps to the first event and wakes up its behaviour.
+ * An hour of line operation then takes as long as the messages exchanged in that hour.
+ * A behaviour waits for one time at most: asking again, when a message woke it up before its time, replaces
+ * its previous event. The simulated time starts at the wall clock time, so the logs keep readable timestamps.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class SimulatedClock extends ConveyorClock {
+    // real time without activity after which the agents are considered done with the current time
+    private static final long quiescenceMs = 20L;
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        // insertion order, so that events at the same time are run in the order they were scheduled
+        final long seq;
+        final Behaviour behaviour;
+
+        Event(long time, long seq, Behaviour behaviour) {
+            this.time = time;
+            this.seq = seq;
+            this.behaviour = behaviour;
+        }
+
+        public int compareTo(Event other) {
+            return (time != other.time) ? Long.compare(time, other.time) : Long.compare(seq, other.seq);
+        }
+    }
+
+    private final TreeSet<Event> events = new TreeSet<>();
+    // the event each waiting behaviour is in the queue for
+    private final Map<Behaviour, Event> pending = new IdentityHashMap<>();
+    private long now = System.currentTimeMillis();
+    private long seq = 0;
+    private long lastActivity = System.currentTimeMillis();
+
+    public SimulatedClock() {
+        this(true);
+    }
+
+    // without the advancer the time only moves on fire(), which lets the tests step through the events
+    SimulatedClock(boolean advancing) {
+        if (advancing) {
+            Thread advancer = new Thread(this::advance, "simulated-clock");
+            advancer.setDaemon(true);
+            advancer.start();
+        }
+    }
+
+    public synchronized long now() {
+        return now;
+    }
+
+    public void wakeUpAt(Behaviour behaviour, long time) {
+        // blocked before its event is queued: the restart by the advancer always comes after the block()
+        behaviour.block();
+        synchronized (this) {
+            Event previous = pending.get(behaviour);
+            if ((previous == null) || (previous.time != time)) {
+                if (previous != null) {
+                    events.remove(previous);
+                }
+                Event event = new Event(time, seq++, behaviour);
+                events.add(event);
+                pending.put(behaviour, event);
+            }
+            lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returns the number of behaviours waiting for a time.
+     */
+    public synchronized int waiting() {
+        return events.size();
+    }
+
+    public synchronized void activity() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    // moves the time to the first event and wakes up all the behaviours waiting for it
+    synchronized void fire() {
+        if (events.isEmpty()) {
+            return;
+        }
+        now = Math.max(now, events.first().time);
+        while (!events.isEmpty() && (events.first().time <= now)) {
+            Event event = events.pollFirst();
+            pending.remove(event.behaviour);
+            event.behaviour.restart();
+        }
+    }
+
+    // moves the time forward each time the agents are quiet
+    private void advance() {
+        while (true) {
+            try {
+                Thread.sleep(quiescenceMs / 2);
+            } catch (InterruptedException e) {
+                // the thread belongs to the agent that first asked for the time, and is interrupted with the agents
+                // of its container when that one shuts down: the clock goes on for the agents of the other containers
+                continue;
+            }
+            synchronized (this) {
+                if (events.isEmpty() || (System.currentTimeMillis() - lastActivity < quiescenceMs)) {
+                    continue;
+                }
+                fire();
+                lastActivity = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Time slots booked on a conveyor by the pallets that will cross it.
+ * A slot goes from the arrival of the pallet to its departure, plus a margin for the hand-off.
+ * A booking is refused when the slots overlapping it already use all the places of the conveyor.
+ * Times are in milliseconds, as given by the ConveyorClock.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class SlotCalendar {
+
+    private static class Booking {
+        final String palletId;
+        final long start;
+        final long departure;
+        final long end;
+
+        Booking(String palletId, long start, long departure, long end) {
+            this.palletId = palletId;
+            this.start = start;
+            this.departure = departure;
+            this.end = end;
+        }
+
+        boolean overlaps(long from, long to) {
+            return (start < to) && (from < end);
+        }
+    }
+
+    private final List<Booking> bookings = new ArrayList<>();
+
+    /**
+     * Books the slot for the pallet, replacing its previous booking.
+     *
+     * @param places number of pallets the conveyor can hold at the same time
+     * @return false if the slot overlaps too many bookings of other pallets
+     */
+    public boolean book(String palletId, long start, long departure, long end, int places) {
+        release(palletId);
+        if (overlapping(start, end, null) >= places) {
+            return false;
+        }
+        bookings.add(new Booking(palletId, start, departure, end));
+        return true;
+    }
+
+    /**
+     * Returns the first time a place is freed among the bookings overlapping the slot, or start if there is none.
+     * Long.MAX_VALUE means that the conveyor is taken by a pallet ending its route there.
+     */
+    public long freeTime(long start, long end) {
+        long free = start;
+        boolean overlapped = false;
+        for (Booking b : bookings) {
+            if (b.overlaps(start, end) && (!overlapped || b.end < free)) {
+                free = b.end;
+                overlapped = true;
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Returns the number of bookings overlapping the slot, not counting the excluded pallets.
+     */
+    public int overlapping(long start, long end, Collection<String> excluded) {
+        int count = 0;
+        for (Booking b : bookings) {
+            if (b.overlaps(start, end) && (excluded == null || !excluded.contains(b.palletId))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the first time from now at which fewer than free places are booked over the next window
+     * milliseconds, not counting the excluded pallets: now if a place is free, otherwise the end of the
+     * reservation blocking the last place. Long.MAX_VALUE means that the places are taken by pallets ending
+     * their route there.
+     */
+    public long freeFrom(long now, long window, int free, Collection<String> excluded) {
+        long time = now;
+        while ((free > 0) && (overlapping(time, time + window, excluded) >= free)) {
+            // the first booking of the window to end frees a place
+            long next = Long.MAX_VALUE;
+            for (Booking b : bookings) {
+                if (b.overlaps(time, time + window) && (excluded == null || !excluded.contains(b.palletId))) {
+                    next = Math.min(next, b.end);
+                }
+            }
+            if (next == Long.MAX_VALUE) {
+                return Long.MAX_VALUE;
+            }
+            time = next;
+        }
+        return time;
+    }
+
+    /**
+     * Returns the departure booked for the pallet, or 0 if it has no booking.
+     */
+    public long departure(String palletId) {
+        for (Booking b : bookings) {
+            if (b.palletId.equals(palletId)) {
+                return b.departure;
+            }
+        }
+        return 0;
+    }
+
+    public boolean isBooked(String palletId) {
+        return departure(palletId) != 0;
+    }
+
+    public void release(String palletId) {
+        Iterator<Booking> it = bookings.iterator();
+        while (it.hasNext()) {
+            if (it.next().palletId.equals(palletId)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets the bookings ended before the given time, e.g. of pallets that never came.
+     */
+    public void purge(long now) {
+        Iterator<Booking> it = bookings.iterator();
+        while (it.hasNext()) {
+            if (it.next().end < now) {
+                it.remove();
+            }
+        }
+    }
+
+    public int size() {return bookings.size();}
+}
@@ -0,0 +1,154 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the path finding of a running conveyor: the source collects the paths without blocking the agent,
+ * finds the fastest path or the one around the conveyors to avoid, and drops the search of a pallet unloaded
+ * meanwhile.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class BestPathTest {
+
+    private TestPlatform platform;
+
+    // A reaches D through B (2 s) or through C (4 s)
+    @Before
+    public void setUp() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("A", 1, 1, "B", "C");
+        platform.conveyor("B", 1, 1, "D");
+        platform.conveyor("C", 3, 1, "D");
+        platform.conveyor("D", 1, 1);
+        platform.awaitRoutes("A", 4);
+        // the route through C may have come first
+        platform.awaitClock(1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        platform.shutDown();
+    }
+
+    private ACLMessage searchFrom(String source, String destination, String... avoid) {
+        JSONObject search = new JSONObject();
+        search.put("source", source);
+        search.put("destination", destination);
+        search.put("viaPoints", new JSONArray());
+        if (avoid.length > 0) {
+            JSONArray avoided = new JSONArray();
+            avoided.addAll(Arrays.asList(avoid));
+            search.put("avoid", avoided);
+        }
+        ACLMessage cfp = new ACLMessage(ACLMessage.CFP);
+        cfp.addReceiver(new AID(source, AID.ISLOCALNAME));
+        cfp.setContent(search.toString());
+        return cfp;
+    }
+
+    // the path found, or the failure to find one, sent back by the source
+    private static Predicate<ACLMessage> searchAnswerFrom(String source) {
+        return msg -> source.equals(msg.getSender().getLocalName())
+                && ((msg.getPerformative() == ACLMessage.INFORM && msg.getContent().contains("viaPoints"))
+                || (msg.getPerformative() == ACLMessage.FAILURE && msg.getContent().startsWith("Failed to find a path")));
+    }
+
+    @Test
+    public void theSourceAnswersTheOtherRequestsWhileItCollectsThePaths() throws Exception {
+        // D drops the requests: the search lasts until the end of the collection
+        JSONObject down = TestPlatform.request("set_status");
+        down.put("status", "Down");
+        assertEquals(ACLMessage.AGREE, platform.request("D", down).getPerformative());
+        long start = TestPlatform.now();
+        platform.send(searchFrom("A", "D"));
+        assertEquals(ACLMessage.INFORM, platform.request("A", TestPlatform.request("get_info")).getPerformative());
+        assertNull(platform.poll(searchAnswerFrom("A"), 0));
+
+        ACLMessage answer = platform.await(searchAnswerFrom("A"));
+        assertEquals(ACLMessage.FAILURE, answer.getPerformative());
+        assertTrue(TestPlatform.now() - start >= 1000);
+    }
+
+    @Test
+    public void theTracedPathIsTheFastest() throws Exception {
+        platform.send(searchFrom("A", "D"));
+        JSONObject path = TestPlatform.content(platform.await(searchAnswerFrom("A")));
+        assertEquals(Arrays.asList("A", "B", "D"), path.get("viaPoints"));
+        assertEquals(2L, path.get("cost"));
+        // the same search again is answered from the cache of the source
+        platform.send(searchFrom("A", "D"));
+        assertEquals(path.get("viaPoints"), TestPlatform.content(platform.await(searchAnswerFrom("A"))).get("viaPoints"));
+        assertEquals(1L, TestPlatform.content(platform.request("A", TestPlatform.request("get_info"))).get("RouteCacheHits"));
+    }
+
+    @Test
+    public void theSearchGoesAroundTheConveyorsToAvoid() throws Exception {
+        platform.send(searchFrom("A", "D", "B"));
+        JSONObject path = TestPlatform.content(platform.await(searchAnswerFrom("A")));
+        assertEquals(Arrays.asList("A", "C", "D"), path.get("viaPoints"));
+        assertEquals(4L, path.get("cost"));
+    }
+
+    @Test
+    public void unloadingThePalletCancelsTheSearchOfItsRoute() throws Exception {
+        JSONObject down = TestPlatform.request("set_status");
+        down.put("status", "Down");
+        assertEquals(ACLMessage.AGREE, platform.request("D", down).getPerformative());
+        JSONObject load = TestPlatform.request("load");
+        load.put("pallet_id", "P1");
+        assertEquals(ACLMessage.AGREE, platform.request("A", load).getPerformative());
+        JSONObject transfer = TestPlatform.request("transfer");
+        transfer.put("source", "A");
+        transfer.put("destination", "D");
+        transfer.put("pallet_id", "P1");
+        transfer.put("notify", "probe");
+        ACLMessage transferMsg = new ACLMessage(ACLMessage.REQUEST);
+        transferMsg.addReceiver(new AID("A", AID.ISLOCALNAME));
+        transferMsg.setContent(transfer.toString());
+        platform.send(transferMsg);
+
+        JSONObject unload = TestPlatform.request("unload");
+        unload.put("pallet_id", "P1");
+        assertEquals(ACLMessage.AGREE, platform.request("A", unload).getPerformative());
+        // the search would have ended with no path to D: nobody is told, the pallet is not there anymore
+        assertNull(platform.poll(msg -> msg.getContent().contains("transfer_failed"), 1000));
+    }
+}
@@ -0,0 +1,356 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the choices a conveyor makes alone: the conveyors that can break a deadlock, the event telling
+ * a transfer failed, the decoding of the requests, and the answers of a running conveyor to the requests
+ * of a probe.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class ConveyorAgentTest {
+
+    private TestPlatform platform;
+
+    @After
+    public void tearDown() throws Exception {
+        if (platform != null) {
+            platform.shutDown();
+        }
+    }
+
+    private static JSONObject palletRequest(String requestType, String palletId) {
+        JSONObject request = TestPlatform.request(requestType);
+        request.put("pallet_id", palletId);
+        return request;
+    }
+
+    private static JSONArray names(String... names) {
+        JSONArray list = new JSONArray();
+        list.addAll(Arrays.asList(names));
+        return list;
+    }
+
+    @Test
+    public void onlyAConveyorWithANeighbourOutOfTheCycleIsACandidate() {
+        // CNV3 and CNV13 fork, but both their branches are on the cycle
+        JSONArray cycle = names("CNV3", "CNV4", "CNV13", "CNV9", "CNV14");
+        JSONObject exits = new JSONObject();
+        exits.put("CNV3", names("CNV4", "CNV13"));
+        exits.put("CNV13", names("CNV9", "CNV14"));
+        assertTrue(ConveyorAgent.deadlockCandidates(cycle, exits).isEmpty());
+        exits.put("CNV9", names("CNV14", "CNV10"));
+        assertEquals(Collections.singletonList("CNV9"), ConveyorAgent.deadlockCandidates(cycle, exits));
+    }
+
+    @Test
+    public void theCandidatesAreInNameOrder() {
+        JSONArray cycle = names("CNV7", "CNV2", "CNV5");
+        JSONObject exits = new JSONObject();
+        exits.put("CNV7", names("CNV2", "CNV8"));
+        exits.put("CNV5", names("CNV7", "CNV6"));
+        exits.put("CNV2", names("CNV5", "CNV1"));
+        assertEquals(Arrays.asList("CNV2", "CNV5", "CNV7"), ConveyorAgent.deadlockCandidates(cycle, exits));
+    }
+
+    @Test
+    public void conveyorsOutOfTheCycleAreIgnored() {
+        // the probe went through CNV1 before finding the cycle
+        JSONArray cycle = names("CNV2", "CNV3");
+        JSONObject exits = new JSONObject();
+        exits.put("CNV1", names("CNV2", "CNV9"));
+        exits.put("CNV3", names("CNV2", "CNV4"));
+        assertEquals(Collections.singletonList("CNV3"), ConveyorAgent.deadlockCandidates(cycle, exits));
+    }
+
+    @Test
+    public void aFailedTransferTellsWhereThePalletStopped() {
+        JSONObject request = new JSONObject();
+        request.put("pallet_id", "GEN-7");
+        request.put("destination", "CNV12");
+        request.put("notify", "GEN");
+        JSONObject failed = ConveyorAgent.transferFailedEvent(request, "CNV4", "No route");
+        assertEquals("transfer_failed", failed.get("event"));
+        assertEquals("GEN-7", failed.get("pallet_id"));
+        assertEquals("CNV12", failed.get("destination"));
+        assertEquals("CNV4", failed.get("conveyor"));
+        assertEquals("No route", failed.get("reason"));
+        // a pallet never loaded is on no conveyor
+        assertFalse(ConveyorAgent.transferFailedEvent(request, null, "No route").containsKey("conveyor"));
+    }
+
+    @Test
+    public void requestsAreDecodedByTheirType() {
+        assertEquals(ConveyorAgent.RequestType.GET_INFO, ConveyorAgent.RequestType.of("get_info"));
+        assertEquals(ConveyorAgent.RequestType.ROUTED_TRANSFER, ConveyorAgent.RequestType.of("routed_transfer"));
+        assertNull(ConveyorAgent.RequestType.of("fly"));
+        assertNull(ConveyorAgent.RequestType.of(3L));
+        assertNull(ConveyorAgent.RequestType.of(null));
+    }
+
+    @Test
+    public void theFirstMissingFieldIsTold() {
+        JSONObject transfer = TestPlatform.request("transfer");
+        assertEquals("source", ConveyorAgent.RequestType.TRANSFER.missingField(transfer));
+        transfer.put("source", "CNV1");
+        assertEquals("destination", ConveyorAgent.RequestType.TRANSFER.missingField(transfer));
+        transfer.put("destination", "CNV2");
+        assertNull(ConveyorAgent.RequestType.TRANSFER.missingField(transfer));
+        assertNull(ConveyorAgent.RequestType.GET_INFO.missingField(TestPlatform.request("get_info")));
+    }
+
+    @Test
+    public void aRequestThatCannotRunIsAnsweredWithTheReason() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 1, 1);
+        ACLMessage notJson = new ACLMessage(ACLMessage.REQUEST);
+        notJson.addReceiver(new AID("CNV1", AID.ISLOCALNAME));
+        notJson.setConversationId("not-json");
+        notJson.setContent("get_info");
+        platform.send(notJson);
+        assertEquals(ACLMessage.NOT_UNDERSTOOD, platform.await(msg -> "not-json".equals(msg.getConversationId())).getPerformative());
+
+        ACLMessage unknown = platform.request("CNV1", TestPlatform.request("fly"));
+        assertEquals(ACLMessage.FAILURE, unknown.getPerformative());
+        assertEquals("Could not understand the request", unknown.getContent());
+        ACLMessage missing = platform.request("CNV1", TestPlatform.request("set_status"));
+        assertEquals(ACLMessage.FAILURE, missing.getPerformative());
+        assertEquals("Missing field: status", missing.getContent());
+        // arrival_ms is not a number
+        JSONObject reserve = palletRequest("reserve", "P1");
+        reserve.put("arrival_ms", "soon");
+        ACLMessage malformed = platform.request("CNV1", reserve);
+        assertEquals(ACLMessage.FAILURE, malformed.getPerformative());
+        assertEquals("Malformed request", malformed.getContent());
+
+        // every decoded request is counted by type, the others together
+        JSONObject requests = (JSONObject) TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_metrics"))).get("requests");
+        assertEquals(1L, requests.get("unknown"));
+        assertEquals(1L, requests.get("set_status"));
+        assertEquals(1L, requests.get("reserve"));
+        assertEquals(1L, requests.get("get_metrics"));
+    }
+
+    @Test
+    public void aConveyorWithItsPlacesBookedIsBusyUntilTheEndOfTheReservation() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 10, 1);
+        JSONObject reserve = palletRequest("reserve", "P1");
+        long arrival = TestPlatform.now() + 5000;
+        reserve.put("arrival_ms", arrival);
+        ACLMessage booked = platform.request("CNV1", reserve);
+        assertEquals(ACLMessage.AGREE, booked.getPerformative());
+        long departure = ((Number) TestPlatform.content(booked).get("departure_ms")).longValue();
+        assertEquals(arrival + 10000, departure);
+
+        // the only place is kept for P1: no Idle with eta 0 for the pallets without a booking
+        JSONObject eta = TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_eta")));
+        assertEquals("Busy", eta.get("status"));
+        long etaMs = ((Number) eta.get("eta_ms")).longValue();
+        assertTrue("eta " + etaMs, etaMs > 10000);
+        assertTrue("eta " + etaMs, TestPlatform.now() + etaMs <= departure + 500);
+        assertEquals(ACLMessage.FAILURE, platform.request("CNV1", palletRequest("load", "P2")).getPerformative());
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P1")).getPerformative());
+
+        // once the booked pallet is gone the place is free again
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("unload", "P1")).getPerformative());
+        eta = TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_eta")));
+        assertEquals("Idle", eta.get("status"));
+        assertEquals(0L, ((Number) eta.get("eta_ms")).longValue());
+    }
+
+    @Test
+    public void aDrainedConveyorFailsItsPalletsBackAndAnswersOnceEmpty() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 1, 1, "CNV2");
+        platform.conveyor("CNV2", 1, 1);
+        platform.awaitRoutes("CNV1", 2);
+        // CNV2 is full: P1 waits on CNV1 for it
+        assertEquals(ACLMessage.AGREE, platform.request("CNV2", palletRequest("load", "P0")).getPerformative());
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P1")).getPerformative());
+        JSONObject transfer = palletRequest("transfer", "P1");
+        transfer.put("source", "CNV1");
+        transfer.put("destination", "CNV2");
+        transfer.put("notify", "probe");
+        platform.send(message("CNV1", transfer, "transfer"));
+
+        platform.send(message("CNV1", TestPlatform.request("drain"), "drain"));
+        JSONObject failed = TestPlatform.content(platform.await(msg -> msg.getContent().contains("transfer_failed")));
+        assertEquals("P1", failed.get("pallet_id"));
+        assertEquals(failed.toString(), "CNV1", failed.get("conveyor"));
+        // still holding P1: down for the others, not drained yet
+        assertEquals(null, platform.poll(msg -> "drain".equals(msg.getConversationId()), 500));
+        assertEquals("Down", TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_eta"))).get("status"));
+        assertEquals(ACLMessage.FAILURE, platform.request("CNV1", palletRequest("load", "P2")).getPerformative());
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("unload", "P1")).getPerformative());
+        assertEquals(ACLMessage.INFORM, platform.await(msg -> "drain".equals(msg.getConversationId())).getPerformative());
+    }
+
+    private static ACLMessage message(String receiver, JSONObject content, String conversationId) {
+        ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+        msg.addReceiver(new AID(receiver, AID.ISLOCALNAME));
+        msg.setConversationId(conversationId);
+        msg.setContent(content.toString());
+        return msg;
+    }
+
+    // sends the pallet loaded on the source to the next conveyor, the probe is told when it arrives
+    private static ACLMessage routedTransfer(String palletId, String source, String next) {
+        JSONObject transfer = palletRequest("routed_transfer", palletId);
+        transfer.put("source", source);
+        transfer.put("destination", next);
+        transfer.put("viaPoints", names(source, next));
+        transfer.put("notify", "probe");
+        return message(source, transfer, "transfer-" + palletId);
+    }
+
+    @Test
+    public void thePalletsLeaveInTheOrderTheyWereLoaded() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 2, 2, "CNV2");
+        platform.conveyor("CNV2", 1, 2);
+        platform.awaitRoutes("CNV1", 2);
+        platform.awaitHeartbeats("CNV1", "CNV2");
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P1")).getPerformative());
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P2")).getPerformative());
+        // no place left
+        ACLMessage refused = platform.request("CNV1", palletRequest("load", "P3"));
+        assertEquals(ACLMessage.FAILURE, refused.getPerformative());
+        assertEquals("Conveyor busy, cannot load!", refused.getContent());
+        JSONObject info = TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_info")));
+        assertEquals(names("P1", "P2"), info.get("Pallets"));
+        assertEquals("Busy", info.get("Status"));
+
+        // P2 has its route first but waits behind P1
+        platform.send(routedTransfer("P2", "CNV1", "CNV2"));
+        platform.send(routedTransfer("P1", "CNV1", "CNV2"));
+        JSONObject first = TestPlatform.content(platform.await(msg -> msg.getContent().contains("transfer_finished")));
+        assertEquals("P1", first.get("pallet_id"));
+        JSONObject second = TestPlatform.content(platform.await(msg -> msg.getContent().contains("transfer_finished")));
+        assertEquals("P2", second.get("pallet_id"));
+        info = TestPlatform.content(platform.request("CNV2", TestPlatform.request("get_info")));
+        assertEquals(names("P1", "P2"), info.get("Pallets"));
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P3")).getPerformative());
+    }
+
+    @Test
+    public void aPipelinedConveyorTakesTheNextPalletOnceTheEntryZoneIsCovered() throws Exception {
+        System.setProperty("conveyor.entryZone", "0.5");
+        try {
+            platform = new TestPlatform();
+            platform.conveyor("CNV1", 10, 1);
+            // the mode is read when the conveyor starts
+            platform.awaitHeartbeats("CNV1");
+        } finally {
+            System.clearProperty("conveyor.entryZone");
+        }
+        long loaded = TestPlatform.now();
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P1")).getPerformative());
+        // P1 is still in the first half of the conveyor
+        JSONObject eta = TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_eta")));
+        assertEquals("Busy", eta.get("status"));
+        long etaMs = ((Number) eta.get("eta_ms")).longValue();
+        assertTrue("eta " + etaMs, (etaMs > 0) && (etaMs <= 5000));
+        assertEquals(ACLMessage.FAILURE, platform.request("CNV1", palletRequest("load", "P2")).getPerformative());
+
+        platform.awaitClock(loaded + 5000 - TestPlatform.now());
+        assertEquals("Idle", TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_eta"))).get("status"));
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P2")).getPerformative());
+        JSONObject info = TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_info")));
+        assertEquals(names("P1", "P2"), info.get("Pallets"));
+        // one pallet per entry zone
+        assertEquals(ACLMessage.FAILURE, platform.request("CNV1", palletRequest("load", "P3")).getPerformative());
+    }
+
+    // the status the conveyor pushed to the probe, once the probe is one of its predecessors
+    private JSONObject pushedStatus(String conveyor) throws Exception {
+        return TestPlatform.content(platform.await(msg -> conveyor.equals(msg.getSender().getLocalName())
+                && msg.getContent().contains("status_event")));
+    }
+
+    @Test
+    public void everyChangeOfStatusIsPushedToThePredecessors() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 10, 1);
+        platform.awaitHeartbeats("CNV1");
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P1")).getPerformative());
+        JSONObject busy = pushedStatus("CNV1");
+        assertEquals("Busy", busy.get("status"));
+        // P1 has no route, nobody knows when it leaves
+        assertEquals(-1L, busy.get("eta_ms"));
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("unload", "P1")).getPerformative());
+        assertEquals("Idle", pushedStatus("CNV1").get("status"));
+
+        JSONObject down = TestPlatform.request("set_status");
+        down.put("status", "Down");
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", down).getPerformative());
+        assertEquals("Down", pushedStatus("CNV1").get("status"));
+        // a request that does not change the status pushes nothing
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", down).getPerformative());
+        JSONObject idle = TestPlatform.request("set_status");
+        idle.put("status", "Idle");
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", idle).getPerformative());
+        assertEquals("Idle", pushedStatus("CNV1").get("status"));
+        assertNull(platform.poll(msg -> msg.getContent().contains("status_event"), 200));
+    }
+
+    @Test
+    public void aNewPredecessorIsToldTheConveyorIsNotIdle() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 10, 1);
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P1")).getPerformative());
+        platform.awaitHeartbeats("CNV1");
+        assertEquals("Busy", pushedStatus("CNV1").get("status"));
+    }
+
+    @Test
+    public void releasingTheBookingFreesThePlace() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 10, 1);
+        JSONObject reserve = palletRequest("reserve", "P1");
+        reserve.put("arrival_ms", TestPlatform.now() + 1000);
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", reserve).getPerformative());
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("release", "P1")).getPerformative());
+        JSONObject eta = TestPlatform.content(platform.request("CNV1", TestPlatform.request("get_eta")));
+        assertEquals("Idle", eta.get("status"));
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", palletRequest("load", "P2")).getPerformative());
+    }
+}
@@ -0,0 +1,153 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the binary codec: round trips of the conveyor messages and rejection of malformed content.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class ConveyorCodecTest {
+
+    private static JSONArray names(String... names) {
+        JSONArray list = new JSONArray();
+        list.addAll(Arrays.asList(names));
+        return list;
+    }
+
+    private static void assertRejected(byte[] content, String reason) {
+        try {
+            ConveyorCodec.decode(content);
+            fail("decoded " + Arrays.toString(content));
+        } catch (IllegalArgumentException e) {
+            assertEquals(reason, e.getMessage());
+        }
+    }
+
+    @Test
+    public void routedTransferRoundTrip() {
+        JSONObject message = new JSONObject();
+        message.put("request_type", "routed_transfer");
+        message.put("source", "CNV1");
+        message.put("destination", "CNV3");
+        message.put("viaPoints", names("CNV1", "CNV2", "CNV3"));
+        message.put("cost", 12L);
+        message.put("reroute", "true");
+        message.put("eta_ms", -1L);
+        // not a well known field: kept as JSON text
+        message.put("pallet_id", "CNV1-P1");
+        JSONObject nested = new JSONObject();
+        nested.put("retries", 2L);
+        message.put("stats", nested);
+        assertEquals(message, ConveyorCodec.decode(ConveyorCodec.encode(message)));
+    }
+
+    @Test
+    public void routeUpdateRoundTrip() {
+        JSONObject route = new JSONObject();
+        route.put("cost", 7L);
+        route.put("seq", 4L);
+        JSONObject routes = new JSONObject();
+        routes.put("CNV9", route);
+        JSONObject message = new JSONObject();
+        message.put("request_type", "route_update");
+        message.put("routes", routes);
+        message.put("withdrawn", names("CNV4"));
+        assertEquals(message, ConveyorCodec.decode(ConveyorCodec.encode(message)));
+    }
+
+    @Test
+    public void aValueNotFittingItsSlotIsKeptAsItIs() {
+        JSONObject message = new JSONObject();
+        message.put("cost", "12");
+        message.put("viaPoints", "CNV1");
+        assertEquals(message, ConveyorCodec.decode(ConveyorCodec.encode(message)));
+    }
+
+    @Test
+    public void rejectsEmptyContentAndUnknownVersions() {
+        assertRejected(new byte[0], "Empty content");
+        assertRejected(new byte[]{3, 0, 0, 0}, "Unknown version");
+    }
+
+    @Test
+    public void rejectsForgedLengths() {
+        // names table of 268 million entries in five bytes
+        assertRejected(new byte[]{2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F}, "Length out of range");
+        // viaPoints longer than the content
+        assertRejected(new byte[]{2, 0, 1 << 3, (byte) 0xFF, (byte) 0xFF, 0x7F}, "Length out of range");
+        // string longer than the content
+        assertRejected(new byte[]{2, 1, 100, 'A'}, "Truncated content");
+        // varint without end
+        assertRejected(new byte[]{2, (byte) 0x80, (byte) 0x80}, "Truncated content");
+    }
+
+    @Test
+    public void rejectsUnknownNames() {
+        // routes field with one route to the fourth name of a table of one
+        assertRejected(new byte[]{2, 1, 1, 'A', (byte) 0x80, 0x10, 1, 3, 0, 0, 0}, "Truncated content");
+        // source pointing at the fourth name of a table of one
+        assertRejected(new byte[]{2, 1, 1, 'A', 1 << 1, 3, 0}, "Truncated content");
+        JSONObject source = ConveyorCodec.decode(new byte[]{2, 1, 1, 'A', 1 << 1, 0, 0});
+        assertEquals("A", source.get("source"));
+    }
+
+    @Test
+    public void theSharedNameTableIsBounded() {
+        String known = "CNV-" + UUID.randomUUID();
+        assertSame(decodeSource(known), decodeSource(known));
+        // more made-up names than the table holds
+        JSONArray made = new JSONArray();
+        String prefix = UUID.randomUUID() + "-";
+        for (int i = 0; i < (1 << 16); i++) {
+            made.add(prefix + i);
+        }
+        JSONObject flood = new JSONObject();
+        flood.put("avoid", made);
+        ConveyorCodec.decode(ConveyorCodec.encode(flood));
+        // a new name is not shared anymore, the ones already there still are
+        String late = "CNV-" + UUID.randomUUID();
+        assertNotSame(decodeSource(late), decodeSource(late));
+        assertSame(decodeSource(known), decodeSource(known));
+    }
+
+    private static Object decodeSource(String name) {
+        JSONObject message = new JSONObject();
+        message.put("source", name);
+        return ConveyorCodec.decode(ConveyorCodec.encode(message)).get("source");
+    }
+}
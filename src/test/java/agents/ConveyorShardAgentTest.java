@@ -0,0 +1,114 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.lang.acl.ACLMessage;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the conveyors hosted by a shard: they answer like conveyor agents, and hand their pallets off to
+ * each other and to the conveyor agents.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class ConveyorShardAgentTest {
+
+    private TestPlatform platform;
+
+    @Before
+    public void setUp() throws Exception {
+        platform = new TestPlatform();
+        // A and B in the shard, C on its own
+        platform.start("SHARD1", ConveyorShardAgent.class, new Object[]{Arrays.asList(
+                new Layout.ConveyorSpec("A", Collections.singletonList("B"), 1, 1),
+                new Layout.ConveyorSpec("B", Collections.singletonList("C"), 1, 1))});
+        platform.conveyor("C", 1, 1);
+        platform.awaitRoutes("A", 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        platform.shutDown();
+    }
+
+    private static JSONObject palletRequest(String requestType, String palletId) {
+        JSONObject request = TestPlatform.request(requestType);
+        request.put("pallet_id", palletId);
+        return request;
+    }
+
+    @Test
+    public void aHostedConveyorAnswersTheRequestsOfAConveyorAgent() throws Exception {
+        ACLMessage metrics = platform.request("B", TestPlatform.request("get_metrics"));
+        assertEquals(ACLMessage.INFORM, metrics.getPerformative());
+        assertTrue(TestPlatform.content(metrics).containsKey("requests"));
+        assertEquals("SHARD1", TestPlatform.content(platform.request("B", TestPlatform.request("get_info"))).get("Shard"));
+
+        JSONObject reserve = palletRequest("reserve", "P9");
+        reserve.put("arrival_ms", TestPlatform.now() + 60000L);
+        ACLMessage booked = platform.request("B", reserve);
+        assertEquals(ACLMessage.AGREE, booked.getPerformative());
+        assertEquals(TestPlatform.now() + 61000L, ((Number) TestPlatform.content(booked).get("departure_ms")).longValue(), 1000L);
+        assertEquals(ACLMessage.AGREE, platform.request("B", palletRequest("release", "P9")).getPerformative());
+
+        JSONObject resolve = TestPlatform.request("resolve_deadlock");
+        JSONArray cycle = new JSONArray();
+        cycle.add("B");
+        resolve.put("cycle", cycle);
+        assertEquals(ACLMessage.REFUSE, platform.request("B", resolve).getPerformative());
+    }
+
+    @Test
+    public void aReservedTransferCrossesTheShard() throws Exception {
+        assertEquals(ACLMessage.AGREE, platform.request("A", palletRequest("load", "P1")).getPerformative());
+        JSONObject transfer = palletRequest("transfer", "P1");
+        transfer.put("source", "A");
+        transfer.put("destination", "C");
+        transfer.put("reserve", "true");
+        transfer.put("notify", "probe");
+        ACLMessage start = new ACLMessage(ACLMessage.REQUEST);
+        start.addReceiver(new jade.core.AID("A", jade.core.AID.ISLOCALNAME));
+        start.setContent(transfer.toString());
+        platform.send(start);
+
+        // the pallet goes from A to B inside the shard, then to C
+        ACLMessage finished = platform.await(msg -> "transfer_finished".equals(TestPlatform.content(msg).get("event")));
+        assertEquals("C", TestPlatform.content(finished).get("destination"));
+        assertEquals("P1", TestPlatform.content(finished).get("pallet_id"));
+        JSONObject requests = (JSONObject) TestPlatform.content(platform.request("B", TestPlatform.request("get_metrics"))).get("requests");
+        assertEquals(1L, requests.get("reserve"));
+        assertEquals(1L, requests.get("load"));
+    }
+}
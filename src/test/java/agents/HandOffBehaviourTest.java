@@ -0,0 +1,202 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the hand-off of a pallet to the next conveyor of its route: the conveyor goes on answering while
+ * the pallet waits, the pallet is loaded once the next conveyor said it is free, and it goes around a next
+ * conveyor that is down or fails its transfer if it may not be rerouted.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class HandOffBehaviourTest {
+
+    private TestPlatform platform;
+
+    @After
+    public void tearDown() throws Exception {
+        if (platform != null) {
+            platform.shutDown();
+        }
+    }
+
+    private static JSONObject palletRequest(String requestType, String palletId) {
+        JSONObject request = TestPlatform.request(requestType);
+        request.put("pallet_id", palletId);
+        return request;
+    }
+
+    // loads the pallet on the first conveyor of the route and sends it along the route, the probe is told
+    // when it arrives or stops
+    private void sendAlong(String palletId, boolean reroute, String... route) throws Exception {
+        assertEquals(ACLMessage.AGREE, platform.request(route[0], palletRequest("load", palletId)).getPerformative());
+        JSONObject transfer = palletRequest("routed_transfer", palletId);
+        JSONArray viaPoints = new JSONArray();
+        viaPoints.addAll(Arrays.asList(route));
+        transfer.put("source", route[0]);
+        transfer.put("destination", route[route.length - 1]);
+        transfer.put("viaPoints", viaPoints);
+        transfer.put("notify", "probe");
+        if (reroute) {
+            transfer.put("reroute", "true");
+        }
+        ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+        msg.addReceiver(new AID(route[0], AID.ISLOCALNAME));
+        msg.setContent(transfer.toString());
+        platform.send(msg);
+    }
+
+    private static Predicate<ACLMessage> event(String event, String palletId) {
+        return msg -> {
+            JSONObject content = TestPlatform.content(msg);
+            return (content != null) && event.equals(content.get("event")) && palletId.equals(content.get("pallet_id"));
+        };
+    }
+
+    private void setStatus(String conveyor, String status) throws Exception {
+        JSONObject request = TestPlatform.request("set_status");
+        request.put("status", status);
+        assertEquals(ACLMessage.AGREE, platform.request(conveyor, request).getPerformative());
+    }
+
+    private static long requestCount(JSONObject metrics, String requestType) {
+        return ((Number) ((JSONObject) metrics.get("requests")).get(requestType)).longValue();
+    }
+
+    @Test
+    public void theConveyorAnswersWhileThePalletWaitsForTheNextOne() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("A", 1, 1, "B");
+        platform.conveyor("B", 30, 1, "C");
+        platform.conveyor("C", 1, 1);
+        platform.awaitRoutes("A", 3);
+        platform.awaitHeartbeats("A", "B", "C");
+        // B is full for 30 s with P0
+        sendAlong("P0", false, "B", "C");
+        platform.awaitClock(1500);
+        sendAlong("P1", false, "A", "B");
+        platform.awaitClock(3000);
+
+        JSONObject info = TestPlatform.content(platform.request("A", TestPlatform.request("get_info")));
+        assertEquals(Arrays.asList("P1"), info.get("Pallets"));
+        assertEquals(ACLMessage.INFORM, platform.request("A", TestPlatform.request("get_eta")).getPerformative());
+        assertNull(platform.poll(event("transfer_finished", "P1"), 0));
+        // P1 goes on once P0 left B
+        platform.await(event("transfer_finished", "P0"));
+        JSONObject finished = TestPlatform.content(platform.await(event("transfer_finished", "P1")));
+        assertEquals("B", finished.get("destination"));
+    }
+
+    @Test
+    public void aNextConveyorDownFailsTheTransferWithoutReroute() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("A", 1, 1, "B");
+        platform.conveyor("B", 1, 1);
+        platform.awaitRoutes("A", 2);
+        platform.awaitHeartbeats("A", "B");
+        setStatus("B", "Down");
+        sendAlong("P1", false, "A", "B");
+        JSONObject failed = TestPlatform.content(platform.await(event("transfer_failed", "P1")));
+        assertEquals("A", failed.get("conveyor"));
+        // the pallet stays where it stopped
+        assertEquals(ACLMessage.AGREE, platform.request("A", palletRequest("unload", "P1")).getPerformative());
+    }
+
+    @Test
+    public void aNextConveyorDownIsGoneAroundWithReroute() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("A", 1, 1, "B", "C");
+        platform.conveyor("B", 1, 1, "D");
+        platform.conveyor("C", 1, 1, "D");
+        platform.conveyor("D", 1, 1);
+        platform.awaitRoutes("A", 4);
+        platform.awaitHeartbeats("A", "B", "C", "D");
+        setStatus("B", "Down");
+        sendAlong("P1", true, "A", "B", "D");
+        JSONObject finished = TestPlatform.content(platform.await(event("transfer_finished", "P1")));
+        assertEquals("D", finished.get("destination"));
+        JSONObject metrics = TestPlatform.content(platform.request("C", TestPlatform.request("get_metrics")));
+        assertEquals(1L, requestCount(metrics, "load"));
+    }
+
+    @Test
+    public void getEtaTellsWhenThePalletAheadLeaves() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("B", 10, 1, "C");
+        platform.conveyor("C", 1, 1);
+        platform.awaitRoutes("B", 2);
+        platform.awaitHeartbeats("B", "C");
+        long loaded = TestPlatform.now();
+        sendAlong("P0", false, "B", "C");
+
+        JSONObject eta = TestPlatform.content(platform.request("B", TestPlatform.request("get_eta")));
+        assertEquals("Busy", eta.get("status"));
+        long etaMs = ((Number) eta.get("eta_ms")).longValue();
+        assertTrue("eta " + etaMs, (etaMs > 0) && (etaMs <= 10000));
+        assertTrue("eta " + etaMs, TestPlatform.now() + etaMs >= loaded + 10000);
+        platform.await(event("transfer_finished", "P0"));
+        eta = TestPlatform.content(platform.request("B", TestPlatform.request("get_eta")));
+        assertEquals("Idle", eta.get("status"));
+        assertEquals(0L, ((Number) eta.get("eta_ms")).longValue());
+    }
+
+    @Test
+    public void aPalletWaitingForABusyConveyorGoesOnWhenItIsFree() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("A", 1, 1, "B");
+        platform.conveyor("B", 30, 1, "C");
+        platform.conveyor("C", 1, 1);
+        platform.awaitRoutes("A", 3);
+        platform.awaitHeartbeats("A", "B", "C");
+        sendAlong("P0", false, "B", "C");
+        // a heartbeat of B tells A when P0 leaves
+        platform.awaitClock(1500);
+        sendAlong("P1", false, "A", "B");
+        platform.await(event("transfer_finished", "P0"));
+        long left = TestPlatform.now();
+        platform.await(event("transfer_finished", "P1"));
+        assertTrue(TestPlatform.now() - left < ConveyorAgent.retryDelayMs);
+
+        // A waited for the time B told instead of trying every retryDelayMs: at most the try at that very time,
+        // before P0 is handed off, is refused
+        JSONObject metrics = TestPlatform.content(platform.request("B", TestPlatform.request("get_metrics")));
+        assertTrue(requestCount(metrics, "load") <= 3);
+        assertTrue(requestCount(metrics, "get_eta") <= 1);
+    }
+}
@@ -0,0 +1,96 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the histogram of the transfer latencies: exact small values, bounded error on the large ones.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void anEmptyHistogramAnswersZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.percentile(0.99));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 10; v++) {
+            histogram.record(v);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(5, histogram.percentile(0.5));
+        assertEquals(10, histogram.percentile(0.99));
+        assertEquals(1, histogram.percentile(0));
+        assertEquals(5.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void largeValuesAreKnownWithinTheBucketWidth() {
+        for (long value : new long[]{17, 100, 1234, 65537, 3600000, 123456789012L}) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(value * 2);
+            long p50 = histogram.percentile(0.5);
+            assertTrue(value + " read as " + p50, Math.abs(p50 - value) <= value / 16);
+        }
+    }
+
+    @Test
+    public void aPercentileNeverExceedsTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        // the middle of the bucket of 1000 is above it
+        assertEquals(1000, histogram.percentile(1));
+        // the largest value has a bucket too
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertTrue(histogram.percentile(1) >= Long.MAX_VALUE - Long.MAX_VALUE / 16);
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(4);
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(2.0, histogram.getMean(), 1e-9);
+        JSONObject json = histogram.toJSON();
+        assertEquals(2L, json.get("count"));
+        assertEquals(4L, json.get("max"));
+        assertEquals(4L, json.get("p99"));
+    }
+}
@@ -0,0 +1,98 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the synthetic layouts: every topology passes the validation and the same seed gives the same layout.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LayoutGeneratorTest {
+
+    @Test
+    public void everyTopologyIsValid() {
+        LayoutGenerator generator = new LayoutGenerator(42, 3, 8);
+        assertEquals(Collections.<String>emptyList(), generator.grid(5, 6).validate());
+        assertEquals(Collections.<String>emptyList(), generator.ring(200, 20).validate());
+        assertEquals(Collections.<String>emptyList(), generator.tree(3, 3).validate());
+        assertEquals(Collections.<String>emptyList(), generator.dag(300, 3).validate());
+    }
+
+    @Test
+    public void theSizesFollowTheArguments() {
+        LayoutGenerator generator = new LayoutGenerator(42, 3, 8);
+        assertEquals(30, generator.grid(5, 6).size());
+        assertEquals(200, generator.ring(200, 20).size());
+        // 1 + 3 + 9 + 27 diverts, the 13 of them that are not leaves are mirrored by the merges
+        assertEquals(40 + 13, generator.tree(3, 3).size());
+        assertEquals(300, generator.dag(300, 3).size());
+    }
+
+    @Test
+    public void theSameSeedGivesTheSameLayout() {
+        assertEquals(new LayoutGenerator(7, 3, 8).ring(100, 30).toJSON(), new LayoutGenerator(7, 3, 8).ring(100, 30).toJSON());
+        assertEquals(new LayoutGenerator(7, 3, 8).dag(100, 3).toJSON(), new LayoutGenerator(7, 3, 8).dag(100, 3).toJSON());
+        assertFalse(new LayoutGenerator(7, 3, 8).dag(100, 3).toJSON().equals(new LayoutGenerator(8, 3, 8).dag(100, 3).toJSON()));
+    }
+
+    @Test
+    public void theTransferTimesStayInTheRange() {
+        for (Layout.ConveyorSpec c : new LayoutGenerator(1, 3, 8).grid(10, 10).getConveyors()) {
+            assertTrue(c.getName() + " " + c.getTransferTime(), (c.getTransferTime() >= 3) && (c.getTransferTime() <= 8));
+        }
+    }
+
+    @Test
+    public void rejectsTooSmallTopologies() {
+        LayoutGenerator generator = new LayoutGenerator(1, 3, 8);
+        try {
+            generator.grid(1, 5);
+            fail("grid of one row");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            generator.tree(2, 1);
+            fail("tree of fanout 1");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new LayoutGenerator(1, 8, 3);
+            fail("min_tt above max_tt");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the partition of a layout across the containers: balanced parts, few links across them, and the
+ * bookkeeping of the conveyors added or removed at runtime.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LayoutPartitionerTest {
+
+    // two rings of six conveyors, A and B, joined both ways by A3 and B3
+    private static Layout twoRings() {
+        Layout layout = new Layout();
+        for (String ring : new String[]{"A", "B"}) {
+            String other = ring.equals("A") ? "B" : "A";
+            for (int i = 1; i <= 6; i++) {
+                List<String> neighbours = new ArrayList<>();
+                neighbours.add(ring + (i % 6 + 1));
+                if (i == 3) {
+                    neighbours.add(other + i);
+                }
+                layout.addConveyor(ring + i, neighbours, 5, 1);
+            }
+        }
+        return layout;
+    }
+
+    @Test
+    public void splitsAlongTheFewestLinks() {
+        LayoutPartitioner.Partition partition = new LayoutPartitioner(1).partition(twoRings(), 2);
+        assertEquals(2, partition.getPartCount());
+        assertEquals(14, partition.getLinks());
+        assertEquals(2, partition.getCutLinks());
+        assertEquals(new HashSet<>(Arrays.asList("A1", "A2", "A3", "A4", "A5", "A6")),
+                new HashSet<>(partition.getMembers(partition.getPart("A1"))));
+        assertTrue(partition.getCrossRatio() > 0 && partition.getCrossRatio() < 0.5);
+        assertEquals(-1, partition.getPart("C1"));
+    }
+
+    @Test
+    public void thePartsHaveAboutTheSameSize() {
+        Layout layout = new LayoutGenerator(5, 3, 8).grid(10, 10);
+        LayoutPartitioner.Partition partition = new LayoutPartitioner(5).partition(layout, 4);
+        int total = 0;
+        for (int size : partition.getSizes()) {
+            assertTrue(Arrays.toString(partition.getSizes()), (size >= 24) && (size <= 26));
+            total += size;
+        }
+        assertEquals(100, total);
+        assertTrue(partition.getCutLinks() < partition.getLinks() / 2);
+    }
+
+    @Test
+    public void theSameSeedGivesTheSamePartition() {
+        Layout layout = new LayoutGenerator(3, 3, 8).ring(300, 60);
+        LayoutPartitioner.Partition first = new LayoutPartitioner(9).partition(layout, 3);
+        LayoutPartitioner.Partition second = new LayoutPartitioner(9).partition(layout, 3);
+        for (int part = 0; part < 3; part++) {
+            assertEquals(first.getMembers(part), second.getMembers(part));
+        }
+    }
+
+    @Test
+    public void aSinglePartCutsNothing() {
+        LayoutPartitioner.Partition partition = new LayoutPartitioner(1).partition(twoRings(), 1);
+        assertArrayEquals(new int[]{12}, partition.getSizes());
+        assertEquals(0, partition.getCutLinks());
+        assertEquals(0.0, partition.getCrossRatio(), 0.0);
+    }
+
+    @Test
+    public void aConveyorAddedAtRuntimeStaysInTheGivenPart() {
+        Layout layout = twoRings();
+        LayoutPartitioner partitioner = new LayoutPartitioner(1);
+        LayoutPartitioner.Partition partition = partitioner.partition(layout, 2);
+        int partOfB = partition.getPart("B1");
+        // a conveyor of the B part linked to A2 adds a link across the parts
+        layout.addConveyor("NEW", Collections.singletonList("B1"), 5, 1);
+        layout.addNeighbour("A2", "NEW");
+        Map<String, Integer> parts = new HashMap<>(partition.getParts());
+        parts.put("NEW", partOfB);
+        LayoutPartitioner.Partition assigned = partitioner.assign(layout, parts, 2);
+        assertEquals(partOfB, assigned.getPart("NEW"));
+        assertEquals(partition.getPart("A1"), assigned.getPart("A1"));
+        assertEquals(16, assigned.getLinks());
+        assertEquals(3, assigned.getCutLinks());
+        // once removed, it has no part and its links are gone
+        layout.removeConveyor("NEW");
+        parts.remove("NEW");
+        LayoutPartitioner.Partition removed = partitioner.assign(layout, parts, 2);
+        assertEquals(-1, removed.getPart("NEW"));
+        assertEquals(14, removed.getLinks());
+        assertEquals(2, removed.getCutLinks());
+    }
+
+    @Test
+    public void everyConveyorMustHaveAPart() {
+        Layout layout = twoRings();
+        Map<String, Integer> parts = new HashMap<>(new LayoutPartitioner(1).partition(layout, 2).getParts());
+        parts.remove("B4");
+        try {
+            new LayoutPartitioner(1).assign(layout, parts, 2);
+            fail("B4 without part");
+        } catch (IllegalArgumentException e) {
+            assertEquals("B4 has no part", e.getMessage());
+        }
+        parts.put("B4", 2);
+        try {
+            new LayoutPartitioner(1).assign(layout, parts, 2);
+            fail("B4 in a part that does not exist");
+        } catch (IllegalArgumentException e) {
+            assertEquals("B4 has no part", e.getMessage());
+        }
+    }
+}
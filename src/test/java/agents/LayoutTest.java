@@ -0,0 +1,143 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the checks of a layout before the agents are started.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LayoutTest {
+
+    private static List<String> none() {
+        return Collections.emptyList();
+    }
+
+    // R1 -> R2 -> R3 -> R4 -> R1
+    private static Layout ring() {
+        Layout layout = new Layout();
+        layout.addConveyor("R1", Collections.singletonList("R2"), 5, 1);
+        layout.addConveyor("R2", Collections.singletonList("R3"), 5, 1);
+        layout.addConveyor("R3", Collections.singletonList("R4"), 5, 1);
+        layout.addConveyor("R4", Collections.singletonList("R1"), 5, 1);
+        return layout;
+    }
+
+    @Test
+    public void theDefaultLayoutIsValid() throws Exception {
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/layouts/default.json"), StandardCharsets.UTF_8)) {
+            assertEquals(none(), Layout.read(reader).validate());
+        }
+    }
+
+    @Test
+    public void linesAndRingsWithBranchesAreValid() {
+        Layout line = new Layout();
+        line.addConveyor("A", Collections.singletonList("B"), 5, 1);
+        line.addConveyor("B", Collections.singletonList("C"), 5, 1);
+        line.addConveyor("C", none(), 5, 1);
+        assertEquals(none(), line.validate());
+        // a source feeding the ring and a sink leaving it
+        Layout layout = ring();
+        layout.addConveyor("IN", Collections.singletonList("R1"), 5, 1);
+        layout.addConveyor("OUT", none(), 5, 1);
+        layout.addNeighbour("R3", "OUT");
+        assertEquals(none(), layout.validate());
+    }
+
+    @Test
+    public void aLoopThePalletsCannotLeaveIsADeadEnd() {
+        Layout layout = ring();
+        layout.addNeighbour("R1", "X");
+        layout.addConveyor("X", Collections.singletonList("Y"), 5, 1);
+        layout.addConveyor("Y", Collections.singletonList("X"), 5, 1);
+        assertEquals(Arrays.asList(
+                "X: dead end, it leads neither to the main loop nor to a conveyor without neighbours",
+                "Y: dead end, it leads neither to the main loop nor to a conveyor without neighbours"),
+                layout.validate());
+    }
+
+    @Test
+    public void aLoopNothingFeedsIsUnreachable() {
+        Layout layout = ring();
+        layout.addConveyor("P", Arrays.asList("Q", "R3"), 5, 1);
+        layout.addConveyor("Q", Collections.singletonList("P"), 5, 1);
+        assertEquals(Arrays.asList(
+                "P: unreachable, neither the main loop nor a conveyor without predecessors leads to it",
+                "Q: unreachable, neither the main loop nor a conveyor without predecessors leads to it"),
+                layout.validate());
+    }
+
+    @Test
+    public void aConveyorCutOffFromThePlantIsReportedOnce() {
+        Layout layout = ring();
+        layout.addConveyor("ALONE", none(), 5, 1);
+        assertEquals(Collections.singletonList("ALONE: unreachable, not connected to R1"), layout.validate());
+    }
+
+    @Test
+    public void reportsTheMalformedConveyors() {
+        Layout layout = Layout.fromJSON((JSONObject) JSONValue.parse(
+                "{\"conveyors\": [{\"name\": \"A\", \"neighbours\": [\"A\", \"B\", \"Z\"], \"transfer_time\": 0, \"capacity\": 0},"
+                + " {\"name\": \"B\", \"neighbours\": [], \"transfer_time\": 5}], \"preload\": [\"W\"]}"));
+        List<String> problems = layout.validate();
+        assertTrue(problems.toString(), problems.containsAll(Arrays.asList(
+                "A: transfer_time must be positive",
+                "A: capacity must be positive",
+                "A: a conveyor cannot be its own neighbour",
+                "A: neighbour Z is not in the layout",
+                "Preloaded conveyor W is not in the layout")));
+        assertEquals(Collections.singletonList("The layout has no conveyor"), new Layout().validate());
+    }
+
+    @Test
+    public void aLayoutSurvivesTheJSONRoundTrip() throws Exception {
+        Layout layout = ring();
+        layout.addConveyor("OUT", none(), 8, 2);
+        layout.addNeighbour("R2", "OUT");
+        StringWriter writer = new StringWriter();
+        layout.write(writer);
+        Layout read = Layout.read(new StringReader(writer.toString()));
+        assertEquals(layout.toJSON(), read.toJSON());
+        assertEquals(Arrays.asList("R3", "OUT"), read.getConveyor("R2").getNeighbours());
+        assertEquals(2, read.getConveyor("OUT").getCapacity());
+    }
+}
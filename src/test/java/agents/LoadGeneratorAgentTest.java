@@ -0,0 +1,160 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.wrapper.AgentContainer;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the generator in closed loop against a source conveyor that refuses a pallet and cannot start the
+ * transfers: the pallet ids are never reused and every failed transfer is unloaded.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class LoadGeneratorAgentTest {
+
+    /**
+     * Source conveyor answering the generator: it holds the load of GEN-1 until GEN-2 is loaded, then
+     * refuses it, and fails every transfer. The requests it gets are put in the queue of its arguments,
+     * as "request_type pallet_id".
+     */
+    public static class StubSource extends Agent {
+        private ACLMessage held;
+
+        protected void setup() {
+            @SuppressWarnings("unchecked")
+            final BlockingQueue<String> requests = (BlockingQueue<String>) getArguments()[0];
+            addBehaviour(new CyclicBehaviour(this) {
+                public void action() {
+                    ACLMessage msg = myAgent.receive();
+                    if (msg == null) {
+                        block();
+                        return;
+                    }
+                    JSONObject request = (JSONObject) JSONValue.parse(msg.getContent());
+                    String requestType = (String) request.get("request_type");
+                    String palletId = (String) request.get("pallet_id");
+                    requests.add(requestType + " " + palletId);
+                    if ("load".equals(requestType) && "GEN-1".equals(palletId)) {
+                        held = msg;
+                    }
+                    else if ("load".equals(requestType)) {
+                        reply(msg, ACLMessage.AGREE, "Loaded");
+                        if (held != null) {
+                            // the oldest pallet is refused after a newer one is loaded
+                            reply(held, ACLMessage.REFUSE, "Conveyor full");
+                            held = null;
+                        }
+                    }
+                    else if ("transfer".equals(requestType)) {
+                        reply(msg, ACLMessage.FAILURE, "No route");
+                    }
+                }
+            });
+        }
+
+        private void reply(ACLMessage msg, int performative, String content) {
+            ACLMessage reply = msg.createReply();
+            reply.setPerformative(performative);
+            reply.setContent(content);
+            send(reply);
+        }
+    }
+
+    private AgentContainer container;
+    private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Runtime runtime = Runtime.instance();
+        runtime.setCloseVM(false);
+        Profile profile = new ProfileImpl();
+        profile.setParameter(Profile.GUI, "false");
+        profile.setParameter(Profile.NO_MTP, "true");
+        profile.setParameter(Profile.FILE_DIR, System.getProperty("java.io.tmpdir") + "/");
+        container = runtime.createMainContainer(profile);
+        container.createNewAgent("SRC", StubSource.class.getName(), new Object[]{requests}).start();
+        container.createNewAgent("GEN", LoadGeneratorAgent.class.getName(),
+                new Object[]{"mode=closed", "concurrency=2", "sources=SRC", "destinations=DST"}).start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.kill();
+        Runtime.instance().shutDown();
+    }
+
+    @Test
+    public void palletIdsAreNotReusedAndFailedTransfersAreUnloaded() throws InterruptedException {
+        // GEN-1 is refused while GEN-2 is loaded, then the pallets taking their places fail in turn
+        List<String> loads = new ArrayList<>();
+        List<String> transfers = new ArrayList<>();
+        List<String> unloads = new ArrayList<>();
+        while (loads.size() < 4) {
+            String request = requests.poll(10, TimeUnit.SECONDS);
+            assertNotNull("The generator stopped after " + loads, request);
+            String[] typeId = request.split(" ");
+            if ("load".equals(typeId[0])) {
+                loads.add(typeId[1]);
+            }
+            else if ("transfer".equals(typeId[0])) {
+                transfers.add(typeId[1]);
+            }
+            else if ("unload".equals(typeId[0])) {
+                unloads.add(typeId[1]);
+            }
+        }
+        assertEquals(loads.toString(), 4, new HashSet<>(loads).size());
+        assertTrue(loads.toString(), loads.containsAll(Arrays.asList("GEN-1", "GEN-2", "GEN-3", "GEN-4")));
+        // the refused pallet was never on the conveyor, the failed one is unloaded from the source
+        assertTrue(transfers.contains("GEN-2"));
+        assertTrue(unloads.contains("GEN-2"));
+        assertFalse(transfers.contains("GEN-1") || unloads.contains("GEN-1"));
+    }
+}
@@ -0,0 +1,164 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import jade.wrapper.AgentController;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the addresses kept by a conveyor: AIDs built once, broadcast lists following the neighbours and the
+ * predecessors, the AIDs published by the DF replacing the ones built from the names, and a running conveyor
+ * following its neighbours through the DF.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class NeighbourDirectoryTest {
+
+    // the AIDs built from a local name take the name of the platform, known once one is running
+    private static TestPlatform platform;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        platform = new TestPlatform();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        platform.shutDown();
+    }
+
+    private static List<AID> receivers(ACLMessage msg) {
+        List<AID> receivers = new ArrayList<>();
+        Iterator<?> it = msg.getAllReceiver();
+        while (it.hasNext()) {
+            receivers.add((AID) it.next());
+        }
+        return receivers;
+    }
+
+    @Test
+    public void theAidOfAnAgentIsBuiltOnce() {
+        NeighbourDirectory directory = new NeighbourDirectory();
+        AID aid = directory.aid("CNV2");
+        assertEquals("CNV2", aid.getLocalName());
+        assertSame(aid, directory.aid("CNV2"));
+    }
+
+    @Test
+    public void theBroadcastsFollowTheNeighboursAndThePredecessors() {
+        NeighbourDirectory directory = new NeighbourDirectory();
+        assertTrue(directory.addNeighbour("CNV2"));
+        assertTrue(directory.addNeighbour("CNV3"));
+        assertFalse(directory.addNeighbour("CNV2"));
+        assertTrue(directory.addPredecessor("CNV1"));
+        assertTrue(directory.removeNeighbour("CNV3"));
+        assertFalse(directory.removeNeighbour("CNV3"));
+        assertEquals(Collections.singletonList("CNV2"), directory.getNeighbours());
+
+        ACLMessage toNeighbours = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addNeighbourReceivers(toNeighbours);
+        assertEquals(Collections.singletonList(directory.aid("CNV2")), receivers(toNeighbours));
+        ACLMessage toPredecessors = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addPredecessorReceivers(toPredecessors);
+        assertSame(directory.aid("CNV1"), receivers(toPredecessors).get(0));
+        assertTrue(directory.removePredecessor("CNV1"));
+        toPredecessors = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addPredecessorReceivers(toPredecessors);
+        assertTrue(receivers(toPredecessors).isEmpty());
+
+        ACLMessage toSome = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addReceivers(toSome, Arrays.asList("CNV2", "CNV9"));
+        assertEquals(Arrays.asList(directory.aid("CNV2"), directory.aid("CNV9")), receivers(toSome));
+    }
+
+    @Test
+    public void theAidPublishedByTheDfIsUsedFromThenOn() {
+        NeighbourDirectory directory = new NeighbourDirectory();
+        directory.addNeighbour("CNV2");
+        directory.addPredecessor("CNV2");
+        AID published = new AID("CNV2@plant:1099/JADE", AID.ISGUID);
+        published.addAddresses("http://plant:7778/acc");
+        assertTrue(directory.registered(published));
+        assertFalse(directory.registered(published));
+        assertTrue(directory.isRegistered("CNV2"));
+        assertSame(published, directory.aid("CNV2"));
+
+        ACLMessage toNeighbours = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addNeighbourReceivers(toNeighbours);
+        assertSame(published, receivers(toNeighbours).get(0));
+        ACLMessage toPredecessors = new ACLMessage(ACLMessage.PROPAGATE);
+        directory.addPredecessorReceivers(toPredecessors);
+        assertSame(published, receivers(toPredecessors).get(0));
+    }
+
+    @Test
+    public void anAgentLeavingTheDfIsReportedOnce() {
+        NeighbourDirectory directory = new NeighbourDirectory();
+        assertFalse(directory.deregistered("CNV2"));
+        directory.registered(new AID("CNV2@plant:1099/JADE", AID.ISGUID));
+        assertTrue(directory.deregistered("CNV2"));
+        assertFalse(directory.deregistered("CNV2"));
+        assertFalse(directory.isRegistered("CNV2"));
+        // it comes back under the same name
+        assertTrue(directory.registered(new AID("CNV2@plant:1099/JADE", AID.ISGUID)));
+    }
+
+    private static long routes(String conveyor) throws Exception {
+        return ((Number) TestPlatform.content(platform.request(conveyor, TestPlatform.request("get_info"))).get("Routes")).longValue();
+    }
+
+    @Test
+    public void aNeighbourLeavingThePlatformIsForgottenUntilItComesBack() throws Exception {
+        platform.conveyor("DF1", 1, 1, "DF2");
+        AgentController next = platform.conveyor("DF2", 1, 1);
+        platform.awaitRoutes("DF1", 2);
+        // the conveyors follow their neighbours through the DF once the routing is done, with the heartbeats
+        platform.awaitHeartbeats("DF1");
+        next.kill();
+        // the DF tells DF1 that DF2 deregistered
+        long deadline = System.currentTimeMillis() + TestPlatform.timeoutMs;
+        while (routes("DF1") > 1) {
+            assertTrue("DF1 still has a route to DF2", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+        platform.conveyor("DF2", 1, 1);
+        platform.awaitRoutes("DF1", 2);
+    }
+}
@@ -0,0 +1,157 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the hand-off decisions taken from what the neighbours pushed, and of their suspicion.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class NeighbourMonitorTest {
+
+    private static JSONObject status(ConveyorAgent.Status status, long etaMs) {
+        return NeighbourMonitor.statusEvent("status_event", status, etaMs);
+    }
+
+    private static void assertDecision(NeighbourMonitor.Action action, long delayMs, NeighbourMonitor.Decision decision) {
+        assertEquals(action, decision.getAction());
+        assertEquals(delayMs, decision.getDelayMs());
+    }
+
+    @Test
+    public void loadsUnlessTheNextConveyorSaidItCannotTakeThePallet() {
+        NeighbourMonitor monitor = new NeighbourMonitor();
+        assertDecision(NeighbourMonitor.Action.LOAD, 0, monitor.beforeLoad("B", 1000));
+        // busy until 4000: the pallet waits for it
+        monitor.statusEvent("B", status(ConveyorAgent.Status.Busy, 3000), 1000);
+        assertDecision(NeighbourMonitor.Action.WAIT, 2500, monitor.beforeLoad("B", 1500));
+        assertDecision(NeighbourMonitor.Action.WAIT, ConveyorAgent.minRetryDelayMs, monitor.beforeLoad("B", 3950));
+        monitor.statusEvent("B", status(ConveyorAgent.Status.Busy, -1), 1000);
+        assertDecision(NeighbourMonitor.Action.WAIT, ConveyorAgent.retryDelayMs, monitor.beforeLoad("B", 1000));
+        monitor.statusEvent("B", status(ConveyorAgent.Status.Down, -1), 1000);
+        NeighbourMonitor.Decision down = monitor.beforeLoad("B", 1000);
+        assertEquals(NeighbourMonitor.Action.REROUTE, down.getAction());
+        assertEquals("B is down", down.getReason());
+        monitor.statusEvent("B", status(ConveyorAgent.Status.Idle, 0), 1000);
+        assertDecision(NeighbourMonitor.Action.LOAD, 0, monitor.beforeLoad("B", 1000));
+    }
+
+    @Test
+    public void aBookedPalletAsksABusyConveyorAnyway() {
+        NeighbourMonitor monitor = new NeighbourMonitor();
+        // busy because its places are kept for the booked pallets
+        monitor.statusEvent("B", status(ConveyorAgent.Status.Busy, 3000), 1000);
+        assertDecision(NeighbourMonitor.Action.LOAD, 0, monitor.beforeLoad("B", true, 1500));
+        assertDecision(NeighbourMonitor.Action.WAIT, 2500, monitor.beforeLoad("B", false, 1500));
+        monitor.statusEvent("B", status(ConveyorAgent.Status.Down, -1), 1000);
+        assertEquals(NeighbourMonitor.Action.REROUTE, monitor.beforeLoad("B", true, 1500).getAction());
+    }
+
+    @Test
+    public void anEventWithoutValidStatusIsIgnored() {
+        NeighbourMonitor monitor = new NeighbourMonitor();
+        monitor.statusEvent("B", status(ConveyorAgent.Status.Busy, 3000), 0);
+        JSONObject event = new JSONObject();
+        event.put("status", "Sleeping");
+        assertNull(monitor.statusEvent("B", event, 0));
+        assertFalse(monitor.mayAccept("B"));
+    }
+
+    @Test
+    public void waitsForTheNextConveyorUnlessAnotherRouteIsFaster() {
+        // through B the destination D costs 5, through C 8: waiting more than 3 s for B is slower
+        RoutingTable table = new RoutingTable("A", 4);
+        Map<String, RoutingTable.Route> fromB = new HashMap<>();
+        fromB.put("D", new RoutingTable.Route("D", "D", 1, 0));
+        table.update("B", fromB, null);
+        Map<String, RoutingTable.Route> fromC = new HashMap<>();
+        fromC.put("D", new RoutingTable.Route("D", "D", 4, 0));
+        table.update("C", fromC, null);
+
+        NeighbourMonitor monitor = new NeighbourMonitor();
+        JSONObject eta = NeighbourMonitor.statusEvent(null, ConveyorAgent.Status.Busy, 3000);
+        assertDecision(NeighbourMonitor.Action.WAIT, 3000, monitor.afterEta("B", eta, table, "D", true, 0));
+        eta = NeighbourMonitor.statusEvent(null, ConveyorAgent.Status.Busy, 5000);
+        NeighbourMonitor.Decision faster = monitor.afterEta("B", eta, table, "D", true, 0);
+        assertEquals(NeighbourMonitor.Action.REROUTE, faster.getAction());
+        assertEquals("B busy for 5000 ms, another route is faster", faster.getReason());
+        // a reserved pallet keeps its route
+        assertDecision(NeighbourMonitor.Action.WAIT, 5000, monitor.afterEta("B", eta, table, "D", false, 0));
+        // the answer is recorded for the next hand-offs
+        assertDecision(NeighbourMonitor.Action.WAIT, 4000, monitor.beforeLoad("B", 1000));
+    }
+
+    @Test
+    public void noAnswerOrADownConveyorAfterARefusal() {
+        NeighbourMonitor monitor = new NeighbourMonitor();
+        RoutingTable table = new RoutingTable("A", 1);
+        assertDecision(NeighbourMonitor.Action.WAIT, ConveyorAgent.retryDelayMs, monitor.afterEta("B", null, table, "D", true, 0));
+        JSONObject down = NeighbourMonitor.statusEvent(null, ConveyorAgent.Status.Down, -1);
+        assertEquals(NeighbourMonitor.Action.REROUTE, monitor.afterEta("B", down, table, "D", true, 0).getAction());
+        JSONObject unknown = NeighbourMonitor.statusEvent(null, ConveyorAgent.Status.Busy, -1);
+        assertDecision(NeighbourMonitor.Action.WAIT, ConveyorAgent.retryDelayMs, monitor.afterEta("B", unknown, table, "D", true, 0));
+    }
+
+    @Test
+    public void aWaitingPalletMovesWhenTheNextConveyorChangesStatus() {
+        assertDecision(NeighbourMonitor.Action.WAIT, 0, NeighbourMonitor.statusChanged("B", ConveyorAgent.Status.Idle));
+        assertEquals(NeighbourMonitor.Action.REROUTE, NeighbourMonitor.statusChanged("B", ConveyorAgent.Status.Down).getAction());
+        assertNull(NeighbourMonitor.statusChanged("B", ConveyorAgent.Status.Busy));
+    }
+
+    @Test
+    public void aSilentNeighbourIsSuspectedUntilItsNextHeartbeat() {
+        NeighbourMonitor monitor = new NeighbourMonitor();
+        long hb = ConveyorAgent.heartbeatMs;
+        for (long t = 0; t <= 5 * hb; t += hb) {
+            assertFalse(monitor.heartbeat("B", t));
+        }
+        assertTrue(monitor.suspectLate(6 * hb).isEmpty());
+        long late = 5 * hb + ConveyorAgent.heartbeatPauseMs + 20 * hb;
+        assertEquals(Collections.singletonMap("B", late - 5 * hb), monitor.suspectLate(late));
+        // suspected once
+        assertTrue(monitor.suspectLate(late + hb).isEmpty());
+        assertTrue(monitor.isSuspected("B"));
+        assertFalse(monitor.mayAccept("B"));
+        assertEquals("B is not responding", monitor.beforeLoad("B", late).getReason());
+        assertTrue(monitor.heartbeat("B", late + 2 * hb));
+        assertTrue(monitor.mayAccept("B"));
+        monitor.remove("B");
+        assertTrue(monitor.getSuspected().isEmpty());
+        assertTrue(monitor.suspectLate(late * 10).isEmpty());
+    }
+}
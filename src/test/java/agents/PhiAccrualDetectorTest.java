@@ -0,0 +1,91 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the suspicion level of a neighbour from the intervals between its heartbeats.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class PhiAccrualDetectorTest {
+
+    private static PhiAccrualDetector regular(long intervalMs, long pauseMs, int heartbeats) {
+        PhiAccrualDetector detector = new PhiAccrualDetector(8, intervalMs, intervalMs / 4, pauseMs);
+        for (int i = 0; i < heartbeats; i++) {
+            detector.heartbeat(i * intervalMs);
+        }
+        return detector;
+    }
+
+    @Test
+    public void nothingIsSuspectedBeforeTheFirstHeartbeat() {
+        PhiAccrualDetector detector = new PhiAccrualDetector(8, 1000, 250, 0);
+        assertEquals(0.0, detector.phi(1000000), 0.0);
+        assertTrue(detector.isAvailable(1000000));
+        assertEquals(-1, detector.getLastHeartbeat());
+    }
+
+    @Test
+    public void phiGrowsWithTheSilence() {
+        PhiAccrualDetector detector = regular(1000, 0, 10);
+        long last = detector.getLastHeartbeat();
+        assertEquals(9000, last);
+        double previous = detector.phi(last);
+        for (long silence = 500; silence <= 5000; silence += 500) {
+            double phi = detector.phi(last + silence);
+            assertTrue(silence + " ms: " + phi + " <= " + previous, phi > previous);
+            previous = phi;
+        }
+        assertTrue(detector.isAvailable(last + 1000));
+        assertFalse(detector.isAvailable(last + 5000));
+    }
+
+    @Test
+    public void theAcceptablePauseDelaysTheSuspicion() {
+        PhiAccrualDetector strict = regular(1000, 0, 10);
+        PhiAccrualDetector patient = regular(1000, 3000, 10);
+        long last = strict.getLastHeartbeat();
+        assertFalse(strict.isAvailable(last + 4000));
+        assertTrue(patient.isAvailable(last + 4000));
+        assertFalse(patient.isAvailable(last + 10000));
+    }
+
+    @Test
+    public void aHeartbeatClearsTheSuspicion() {
+        PhiAccrualDetector detector = regular(1000, 0, 10);
+        long late = detector.getLastHeartbeat() + 10000;
+        assertFalse(detector.isAvailable(late));
+        detector.heartbeat(late);
+        assertTrue(detector.isAvailable(late + 500));
+        // one long interval among the regular ones makes the detector more tolerant
+        assertTrue(detector.phi(late + 3000) < regular(1000, 0, 11).phi(10000 + 3000));
+    }
+}
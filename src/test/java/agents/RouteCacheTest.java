@@ -0,0 +1,112 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the route cache: LRU eviction, invalidation by conveyor, conveyors to avoid and hit counting.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class RouteCacheTest {
+
+    private static RouteCache.Route route(String... path) {
+        return new RouteCache.Route(Arrays.asList(path), path.length);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        RouteCache cache = new RouteCache(4);
+        RouteCache.Route toC = route("A", "B", "C");
+        cache.put(toC);
+        assertSame(toC, cache.get("C"));
+        assertNull(cache.get("D"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void dropsTheLeastRecentlyUsedRoute() {
+        RouteCache cache = new RouteCache(2);
+        cache.put(route("A", "B", "C"));
+        cache.put(route("A", "B", "D"));
+        // C becomes the most recently used, D is evicted by E
+        cache.get("C");
+        cache.put(route("A", "B", "E"));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("D"));
+        assertEquals("C", cache.get("C").getDestination());
+        assertEquals("E", cache.get("E").getDestination());
+    }
+
+    @Test
+    public void invalidationDropsEveryRouteCrossingTheConveyor() {
+        RouteCache cache = new RouteCache(8);
+        cache.put(route("A", "B", "C"));
+        cache.put(route("A", "B", "X", "D"));
+        cache.put(route("A", "E", "X"));
+        assertEquals(2, cache.invalidate("X"));
+        assertEquals(1, cache.size());
+        assertEquals("C", cache.get("C").getDestination());
+        assertEquals(0, cache.invalidate("X"));
+    }
+
+    @Test
+    public void aNewRouteReplacesTheOldOneToTheSameDestination() {
+        RouteCache cache = new RouteCache(8);
+        cache.put(route("A", "B", "C"));
+        RouteCache.Route other = route("A", "E", "C");
+        cache.put(other);
+        assertEquals(1, cache.size());
+        assertSame(other, cache.get("C"));
+        cache.remove("C");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void routesAvoidingConveyorsAreKeptApart() {
+        RouteCache cache = new RouteCache(8);
+        RouteCache.Route direct = route("A", "B", "C");
+        RouteCache.Route aroundB = route("A", "E", "F", "C");
+        cache.put(direct);
+        cache.put(aroundB, Arrays.asList("B", "X"));
+        assertSame(direct, cache.get("C"));
+        assertSame(direct, cache.get("C", Collections.emptyList()));
+        // the order of the conveyors to avoid does not matter
+        assertSame(aroundB, cache.get("C", Arrays.asList("X", "B")));
+        assertNull(cache.get("C", Arrays.asList("B")));
+        // a new next hop in the table drops the routes to the destination whatever they avoid
+        cache.remove("C");
+        assertEquals(0, cache.size());
+    }
+}
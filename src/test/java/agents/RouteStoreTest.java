@@ -0,0 +1,165 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the routes shared by the conveyors of the JVM and of the routed_transfer envelopes, alone and
+ * along a route of running conveyors.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class RouteStoreTest {
+
+    private TestPlatform platform;
+
+    @After
+    public void tearDown() throws Exception {
+        if (platform != null) {
+            platform.shutDown();
+        }
+    }
+
+    private static JSONArray route(String... conveyors) {
+        JSONArray route = new JSONArray();
+        route.addAll(Arrays.asList(conveyors));
+        return route;
+    }
+
+    private static JSONObject routedTransfer(JSONArray viaPoints) {
+        JSONObject request = TestPlatform.request("routed_transfer");
+        request.put("pallet_id", "P1");
+        request.put("viaPoints", viaPoints);
+        return request;
+    }
+
+    @Test
+    public void aRouteIsStoredUnderItsIdUntilRemoved() {
+        JSONArray viaPoints = route("CNV1", "CNV2", "CNV3");
+        JSONObject first = routedTransfer(viaPoints);
+        assertSame(viaPoints, RouteStore.route(first, "CNV1"));
+        // the route gets an id of the conveyor that stored it
+        Object routeId = first.get("route_id");
+        assertTrue(routeId.toString().startsWith("CNV1-route-"));
+
+        JSONObject next = TestPlatform.request("routed_transfer");
+        next.put("route_id", routeId);
+        assertSame(viaPoints, RouteStore.route(next, "CNV2"));
+        RouteStore.remove(routeId);
+        assertNull(RouteStore.route(next, "CNV2"));
+        assertNull(RouteStore.route(TestPlatform.request("routed_transfer"), "CNV2"));
+    }
+
+    @Test
+    public void aRouteComingWithItsIdKeepsIt() {
+        JSONObject request = routedTransfer(route("CNV1", "CNV2"));
+        request.put("route_id", "OTHER-route-7");
+        RouteStore.route(request, "CNV1");
+        assertEquals("OTHER-route-7", request.get("route_id"));
+        JSONObject next = TestPlatform.request("routed_transfer");
+        next.put("route_id", "OTHER-route-7");
+        assertEquals(route("CNV1", "CNV2"), RouteStore.route(next, "CNV2"));
+        RouteStore.remove("OTHER-route-7");
+    }
+
+    @Test
+    public void theHopTellsWhichVisitOfTheConveyorItIs() {
+        // the pallet goes twice through CNV1
+        JSONArray route = route("CNV1", "CNV2", "CNV1", "CNV3");
+        JSONObject request = routedTransfer(route);
+        assertEquals(0, RouteStore.hopIndex(route, request, "CNV1"));
+        request.put("hop", 2L);
+        assertEquals(2, RouteStore.hopIndex(route, request, "CNV1"));
+        // a hop pointing at another conveyor is not trusted
+        assertEquals(3, RouteStore.hopIndex(route, request, "CNV3"));
+        request.put("hop", 9L);
+        assertEquals(1, RouteStore.hopIndex(route, request, "CNV2"));
+        assertEquals(-1, RouteStore.hopIndex(route, request, "CNV4"));
+    }
+
+    @Test
+    public void theEnvelopeCarriesTheRouteOnlyWhenAsked() {
+        JSONObject request = routedTransfer(route("CNV1", "CNV2", "CNV3"));
+        request.put("route_id", "CNV1-route-1");
+        request.put("hop", 0);
+        JSONObject envelope = RouteStore.envelope(request, 1, false);
+        assertFalse(envelope.containsKey("viaPoints"));
+        assertEquals(1, envelope.get("hop"));
+        assertEquals("CNV1-route-1", envelope.get("route_id"));
+        assertEquals("P1", envelope.get("pallet_id"));
+        assertEquals(route("CNV1", "CNV2", "CNV3"), RouteStore.envelope(request, 1, true).get("viaPoints"));
+        // the request of this hop is left as it was
+        assertEquals(0, request.get("hop"));
+    }
+
+    @Test
+    public void thePalletCrossesTheRouteWithItsIdAndTheRouteIsDropped() throws Exception {
+        platform = new TestPlatform();
+        platform.conveyor("CNV1", 1, 1, "CNV2");
+        platform.conveyor("CNV2", 1, 1, "CNV3");
+        platform.conveyor("CNV3", 1, 1);
+        platform.awaitRoutes("CNV1", 3);
+        platform.awaitHeartbeats("CNV1", "CNV2", "CNV3");
+        JSONObject load = TestPlatform.request("load");
+        load.put("pallet_id", "P1");
+        assertEquals(ACLMessage.AGREE, platform.request("CNV1", load).getPerformative());
+        JSONObject transfer = routedTransfer(route("CNV1", "CNV2", "CNV3"));
+        transfer.put("source", "CNV1");
+        transfer.put("destination", "CNV3");
+        transfer.put("notify", "probe");
+        ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+        msg.addReceiver(new AID("CNV1", AID.ISLOCALNAME));
+        msg.setContent(transfer.toString());
+        platform.send(msg);
+
+        JSONObject finished = TestPlatform.content(platform.await(m -> m.getContent().contains("transfer_finished")));
+        assertEquals("CNV3", finished.get("destination"));
+        Object routeId = finished.get("route_id");
+        assertTrue(routeId.toString().startsWith("CNV1-route-"));
+        // the destination dropped the route: a transfer along it is refused
+        JSONObject again = TestPlatform.request("routed_transfer");
+        again.put("source", "CNV3");
+        again.put("destination", "CNV3");
+        again.put("pallet_id", "P1");
+        again.put("route_id", routeId);
+        ACLMessage unknown = platform.request("CNV3", again);
+        assertEquals(ACLMessage.FAILURE, unknown.getPerformative());
+        assertEquals("Unknown route " + routeId, unknown.getContent());
+    }
+}
@@ -0,0 +1,209 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the distance-vector routing table built from the advertisements of the neighbours.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class RoutingTableTest {
+
+    // route advertised by a neighbour: its cost from the neighbour and the sequence number of the destination
+    private static RoutingTable.Route route(String destination, int cost, long seq) {
+        return new RoutingTable.Route(destination, destination, cost, seq);
+    }
+
+    private static Map<String, RoutingTable.Route> advertisement(RoutingTable.Route... routes) {
+        Map<String, RoutingTable.Route> map = new HashMap<>();
+        for (RoutingTable.Route r : routes) {
+            map.put(r.getDestination(), r);
+        }
+        return map;
+    }
+
+    @Test
+    public void routeToItselfCostsNothing() {
+        RoutingTable table = new RoutingTable("A", 5);
+        RoutingTable.Route self = table.lookup("A");
+        assertEquals(0, self.getCost());
+        assertEquals("A", self.getNextHop());
+    }
+
+    @Test
+    public void keepsTheCheapestRouteThroughTheNeighbours() {
+        RoutingTable table = new RoutingTable("A", 2);
+        Set<String> changed = table.update("B", advertisement(route("B", 0, 0), route("D", 10, 0)), null);
+        assertEquals(new HashSet<>(Arrays.asList("B", "D")), changed);
+        table.update("C", advertisement(route("D", 3, 0)), null);
+        RoutingTable.Route best = table.lookup("D");
+        assertEquals("C", best.getNextHop());
+        assertEquals(5, best.getCost());
+    }
+
+    @Test
+    public void aRouteThatMayComeBackThroughTheOwnerIsNotTaken() {
+        RoutingTable table = new RoutingTable("A", 1);
+        table.update("B", advertisement(route("D", 1, 0)), null);
+        // C reaches D through A: its route costs more than the one of A
+        table.update("C", advertisement(route("D", 4, 0)), null);
+        table.update("B", null, Collections.singletonList("D"));
+        assertNull(table.lookup("D"));
+        // the destination is asked for a newer route through C
+        assertEquals(Collections.singletonList("C"), table.refreshFrom("D"));
+        assertEquals(0, table.feasibleSeq("D"));
+        // the newer route of C no longer crosses A
+        assertEquals(Collections.singleton("D"), table.update("C", advertisement(route("D", 4, 1)), null));
+        assertEquals("C", table.lookup("D").getNextHop());
+        assertEquals(1, table.lookup("D").getSeq());
+        assertTrue(table.refreshFrom("D").isEmpty());
+    }
+
+    @Test
+    public void aWithdrawalFallsBackOnAFeasibleNeighbour() {
+        RoutingTable table = new RoutingTable("A", 5);
+        table.update("B", advertisement(route("D", 1, 0)), null);
+        // C is closer to D than A was: it cannot be going through A
+        table.update("C", advertisement(route("D", 4, 0)), null);
+        Set<String> changed = table.update("B", null, Collections.singletonList("D"));
+        assertEquals(Collections.singleton("D"), changed);
+        assertEquals("C", table.lookup("D").getNextHop());
+        assertEquals(9, table.lookup("D").getCost());
+        table.update("C", null, Collections.singletonList("D"));
+        assertNull(table.lookup("D"));
+        assertTrue(table.refreshFrom("D").isEmpty());
+    }
+
+    @Test
+    public void theDestinationIsAlwaysASafeNextHop() {
+        RoutingTable table = new RoutingTable("A", 1);
+        table.update("B", advertisement(route("B", 0, 7)), null);
+        table.removeNeighbour("B");
+        // B started again and counts its sequence numbers from zero
+        table.update("B", advertisement(route("B", 0, 0)), null);
+        assertEquals("B", table.lookup("B").getNextHop());
+    }
+
+    @Test
+    public void newSeqOnlyMovesForward() {
+        RoutingTable table = new RoutingTable("A", 1);
+        assertTrue(table.newSeq(3));
+        assertEquals(4, table.getSeq());
+        assertEquals(4, table.lookup("A").getSeq());
+        assertFalse(table.newSeq(2));
+        assertEquals(4, table.getSeq());
+    }
+
+    @Test
+    public void lookupAvoidsTheGivenNextHops() {
+        RoutingTable table = new RoutingTable("A", 1);
+        table.update("B", advertisement(route("D", 1, 0)), null);
+        table.update("C", advertisement(route("D", 1, 0)), null);
+        String first = table.lookup("D").getNextHop();
+        assertEquals(first, table.lookup("D", Collections.<String>emptyList()).getNextHop());
+        String other = first.equals("B") ? "C" : "B";
+        assertEquals(other, table.lookup("D", Collections.singletonList(first)).getNextHop());
+        assertNull(table.lookup("D", Arrays.asList("B", "C")));
+    }
+
+    @Test
+    public void alternativesAreRankedByTransferTime() {
+        RoutingTable table = new RoutingTable("A", 2);
+        table.update("B", advertisement(route("D", 1, 0)), null);
+        table.update("C", advertisement(route("D", 6, 0)), null);
+        table.update("E", advertisement(route("D", 3, 0)), null);
+        List<RoutingTable.Route> alternatives = table.alternatives("D", null);
+        assertEquals(3, alternatives.size());
+        assertEquals("B", alternatives.get(0).getNextHop());
+        assertEquals(3, alternatives.get(0).getCost());
+        assertEquals("E", alternatives.get(1).getNextHop());
+        assertEquals("C", alternatives.get(2).getNextHop());
+        // the route of C may come back through A, it is still a detour to estimate
+        alternatives = table.alternatives("D", Arrays.asList("B", "E"));
+        assertEquals(1, alternatives.size());
+        assertEquals(8, alternatives.get(0).getCost());
+        assertTrue(table.alternatives("X", null).isEmpty());
+    }
+
+    @Test
+    public void lookupViaGivesTheRouteThroughThatNeighbour() {
+        RoutingTable table = new RoutingTable("A", 2);
+        table.update("B", advertisement(route("D", 1, 0)), null);
+        table.update("C", advertisement(route("D", 5, 0)), null);
+        RoutingTable.Route viaC = table.lookupVia("C", "D");
+        assertEquals(7, viaC.getCost());
+        assertEquals("C", viaC.getNextHop());
+        assertNull(table.lookupVia("E", "D"));
+        assertNull(table.lookupVia("B", "Z"));
+    }
+
+    @Test
+    public void removingANeighbourDropsItsRoutes() {
+        RoutingTable table = new RoutingTable("A", 1);
+        table.update("B", advertisement(route("B", 0, 0), route("D", 1, 0)), null);
+        Set<String> changed = table.removeNeighbour("B");
+        assertEquals(new HashSet<>(Arrays.asList("B", "D")), changed);
+        assertNull(table.lookup("D"));
+        assertTrue(table.removeNeighbour("B").isEmpty());
+    }
+
+    @Test
+    public void theLinkCostIsAddedToEveryRoute() {
+        RoutingTable table = new RoutingTable("A", 1);
+        table.update("B", advertisement(route("D", 3, 0)), null);
+        assertEquals(4, table.lookup("D").getCost());
+        assertEquals(Collections.singleton("D"), table.setLinkCost(6));
+        assertEquals(9, table.lookup("D").getCost());
+        assertTrue(table.setLinkCost(6).isEmpty());
+    }
+
+    @Test
+    public void routesSurviveTheJsonOfARouteUpdate() {
+        JSONObject routesObj = RoutingTable.routesToJSON(Arrays.asList(route("B", 0, 2), route("D", 7, 5)));
+        Map<String, RoutingTable.Route> routes = RoutingTable.routesFromJSON((JSONObject) JSONValue.parse(routesObj.toString()), "B");
+        assertEquals(2, routes.size());
+        assertEquals(7, routes.get("D").getCost());
+        assertEquals(5, routes.get("D").getSeq());
+        assertEquals("B", routes.get("D").getNextHop());
+        assertEquals(2, routes.get("B").getSeq());
+    }
+}
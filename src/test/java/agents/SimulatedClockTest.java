@@ -0,0 +1,203 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.behaviours.Behaviour;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the order in which the simulated clock wakes up the waiting behaviours.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class SimulatedClockTest {
+
+    // records its blocks and restarts instead of telling a scheduler
+    private static class Sleeper extends Behaviour {
+        private final String name;
+        private final List<String> log;
+        volatile boolean runnable = true;
+
+        Sleeper(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        public void action() {
+        }
+
+        public boolean done() {
+            return false;
+        }
+
+        public void block() {
+            runnable = false;
+            log.add("block " + name);
+        }
+
+        public void restart() {
+            runnable = true;
+            log.add("restart " + name);
+        }
+    }
+
+    @Test
+    public void behavioursWakeUpInTimeOrder() {
+        SimulatedClock clock = new SimulatedClock(false);
+        List<String> log = new ArrayList<>();
+        long start = clock.now();
+        Sleeper late = new Sleeper("late", log);
+        Sleeper early = new Sleeper("early", log);
+        clock.wakeUpAt(late, start + 500);
+        clock.wakeUpAt(early, start + 100);
+        log.clear();
+
+        clock.fire();
+        assertEquals(start + 100, clock.now());
+        assertTrue(early.runnable);
+        assertFalse(late.runnable);
+        clock.fire();
+        assertEquals(start + 500, clock.now());
+        assertTrue(late.runnable);
+        assertEquals(2, log.size());
+        assertEquals("restart early", log.get(0));
+        assertEquals("restart late", log.get(1));
+        assertEquals(0, clock.waiting());
+    }
+
+    @Test
+    public void behavioursAtTheSameTimeWakeUpInTheOrderTheyAsked() {
+        SimulatedClock clock = new SimulatedClock(false);
+        List<String> log = new ArrayList<>();
+        long time = clock.now() + 100;
+        clock.wakeUpAt(new Sleeper("first", log), time);
+        clock.wakeUpAt(new Sleeper("second", log), time);
+        log.clear();
+
+        clock.fire();
+        assertEquals(2, log.size());
+        assertEquals("restart first", log.get(0));
+        assertEquals("restart second", log.get(1));
+    }
+
+    @Test
+    public void theBehaviourIsBlockedBeforeItsEventIsQueued() {
+        SimulatedClock clock = new SimulatedClock(false);
+        List<String> log = new ArrayList<>();
+        Sleeper sleeper = new Sleeper("sleeper", log) {
+            public void block() {
+                // nothing can wake it up yet: the event is not in the queue
+                assertEquals(0, clock.waiting());
+                super.block();
+            }
+        };
+        clock.wakeUpAt(sleeper, clock.now() + 100);
+        assertEquals(1, clock.waiting());
+
+        clock.fire();
+        assertTrue(sleeper.runnable);
+        assertEquals("block sleeper", log.get(0));
+        assertEquals("restart sleeper", log.get(1));
+    }
+
+    @Test
+    public void askingAgainReplacesThePendingEvent() {
+        SimulatedClock clock = new SimulatedClock(false);
+        List<String> log = new ArrayList<>();
+        long start = clock.now();
+        Sleeper sleeper = new Sleeper("sleeper", log);
+        // woken up by messages and run again before its time, each run asks for a time
+        clock.wakeUpAt(sleeper, start + 300);
+        clock.wakeUpAt(sleeper, start + 300);
+        clock.wakeUpAt(sleeper, start + 200);
+        assertEquals(1, clock.waiting());
+        log.clear();
+
+        clock.fire();
+        assertEquals(start + 200, clock.now());
+        assertEquals(1, log.size());
+        assertEquals(0, clock.waiting());
+        // nothing left at the old time
+        clock.fire();
+        assertEquals(start + 200, clock.now());
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void theSameTimeKeepsItsPlaceInTheQueue() {
+        SimulatedClock clock = new SimulatedClock(false);
+        List<String> log = new ArrayList<>();
+        long time = clock.now() + 100;
+        Sleeper first = new Sleeper("first", log);
+        clock.wakeUpAt(first, time);
+        clock.wakeUpAt(new Sleeper("second", log), time);
+        clock.wakeUpAt(first, time);
+        log.clear();
+
+        clock.fire();
+        assertEquals("restart first", log.get(0));
+        assertEquals("restart second", log.get(1));
+    }
+
+    @Test
+    public void theClockGoesOnWhenItsThreadIsInterrupted() throws InterruptedException {
+        SimulatedClock clock = new SimulatedClock();
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        Sleeper sleeper = new Sleeper("sleeper", log);
+        // as when the container of the agent that started the clock shuts down
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("simulated-clock")) {
+                thread.interrupt();
+            }
+        }
+        clock.wakeUpAt(sleeper, clock.now() + 100);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!sleeper.runnable && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(sleeper.runnable);
+        assertEquals(0, clock.waiting());
+    }
+
+    @Test
+    public void theTimeNeverGoesBack() {
+        SimulatedClock clock = new SimulatedClock(false);
+        List<String> log = new ArrayList<>();
+        long start = clock.now();
+        Sleeper sleeper = new Sleeper("sleeper", log);
+        clock.wakeUpAt(sleeper, start - 1000);
+        clock.fire();
+        assertEquals(start, clock.now());
+        assertTrue(sleeper.runnable);
+    }
+}
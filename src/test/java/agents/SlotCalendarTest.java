@@ -0,0 +1,119 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the slots booked on a conveyor for the reserved transfers.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+public class SlotCalendarTest {
+
+    @Test
+    public void refusesASlotWhenAllThePlacesAreTaken() {
+        SlotCalendar calendar = new SlotCalendar();
+        assertTrue(calendar.book("P1", 0, 5000, 5500, 1));
+        assertFalse(calendar.book("P2", 5000, 10000, 10500, 1));
+        // the slots touch without overlapping
+        assertTrue(calendar.book("P2", 5500, 10500, 11000, 1));
+        // one more place takes one more pallet
+        assertTrue(calendar.book("P3", 1000, 6000, 6500, 3));
+        assertFalse(calendar.book("P4", 1000, 6000, 6500, 3));
+    }
+
+    @Test
+    public void bookingAgainReplacesThePreviousSlot() {
+        SlotCalendar calendar = new SlotCalendar();
+        calendar.book("P1", 0, 5000, 5500, 1);
+        assertTrue(calendar.book("P1", 1000, 6000, 6500, 1));
+        assertEquals(1, calendar.size());
+        assertEquals(6000, calendar.departure("P1"));
+    }
+
+    @Test
+    public void freeTimeIsTheFirstEndAmongTheOverlappingSlots() {
+        SlotCalendar calendar = new SlotCalendar();
+        assertEquals(100, calendar.freeTime(100, 200));
+        calendar.book("P1", 0, 5000, 5500, 2);
+        calendar.book("P2", 1000, 3000, 3500, 2);
+        assertEquals(3500, calendar.freeTime(2000, 4000));
+        assertEquals(5500, calendar.freeTime(4000, 6000));
+        // a pallet ending its route on the conveyor never frees it
+        calendar.book("P3", 8000, Long.MAX_VALUE, Long.MAX_VALUE, 2);
+        assertEquals(Long.MAX_VALUE, calendar.freeTime(9000, 9500));
+    }
+
+    @Test
+    public void freeFromIsTheEndOfTheReservationBlockingTheLastPlace() {
+        SlotCalendar calendar = new SlotCalendar();
+        assertEquals(0, calendar.freeFrom(0, 1000, 1, null));
+        calendar.book("P1", 500, 1500, 2000, 2);
+        // one place left of two
+        assertEquals(0, calendar.freeFrom(0, 1000, 2, null));
+        assertEquals(2000, calendar.freeFrom(0, 1000, 1, null));
+        // the next reservation starts before the window after P1 is over: the place is free after both
+        calendar.book("P2", 2500, 3500, 4000, 2);
+        assertEquals(4000, calendar.freeFrom(0, 1000, 1, null));
+        // a pallet already on the conveyor does not book a place twice
+        assertEquals(0, calendar.freeFrom(0, 1000, 1, Collections.singletonList("P1")));
+        calendar.book("P3", 5000, Long.MAX_VALUE, Long.MAX_VALUE, 2);
+        assertEquals(Long.MAX_VALUE, calendar.freeFrom(0, 1500, 1, null));
+        // no place left to book
+        assertEquals(0, calendar.freeFrom(0, 1000, 0, null));
+    }
+
+    @Test
+    public void overlappingSkipsTheExcludedPallets() {
+        SlotCalendar calendar = new SlotCalendar();
+        calendar.book("P1", 0, 5000, 5500, 3);
+        calendar.book("P2", 1000, 3000, 3500, 3);
+        assertEquals(2, calendar.overlapping(2000, 2500, null));
+        assertEquals(1, calendar.overlapping(2000, 2500, Collections.singleton("P2")));
+        assertEquals(0, calendar.overlapping(6000, 7000, null));
+    }
+
+    @Test
+    public void releaseAndPurgeForgetTheBookings() {
+        SlotCalendar calendar = new SlotCalendar();
+        calendar.book("P1", 0, 5000, 5500, 2);
+        calendar.book("P2", 1000, 8000, 8500, 2);
+        assertTrue(calendar.isBooked("P1"));
+        calendar.release("P1");
+        assertFalse(calendar.isBooked("P1"));
+        assertEquals(0, calendar.departure("P1"));
+        calendar.purge(8400);
+        assertTrue(calendar.isBooked("P2"));
+        calendar.purge(9000);
+        assertEquals(0, calendar.size());
+    }
+}
@@ -0,0 +1,248 @@
+/*****************************************************************
+ JADE - Java Agent DEvelopment Framework is a framework to develop
+ multi-agent systems in compliance with the FIPA specifications.
+ Copyright (C) 2000 CSELT S.p.A.
+
+ GNU Lesser General Public License
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation,
+ version 2.1 of the License.
+
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the
+ Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ Boston, MA  02111-1307, USA.
+ *****************************************************************/
+
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.wrapper.AgentContainer;
+import jade.wrapper.AgentController;
+import jade.wrapper.StaleProxyException;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JADE platform started in the test JVM, on the simulated clock when the clock was not chosen yet, to run real
+ * conveyors and talk to them through a probe agent: the test thread sends requests with the probe and waits for
+ * the messages it receives.
+ *
+ * @author Luigi Catello, Mario Valentino
+ */
+class TestPlatform {
+
+    static {
+        if (System.getProperty("conveyor.clock") == null) {
+            System.setProperty("conveyor.clock", "simulated");
+        }
+    }
+
+    // real time given to the agents to answer
+    static final long timeoutMs = 20000L;
+
+    private final AgentContainer container;
+    private final List<AgentController> agents = new ArrayList<>();
+    private final List<ACLMessage> inbox = new ArrayList<>();
+    private final CountDownLatch probeReady = new CountDownLatch(1);
+    private final AgentController probe;
+    private int conversationCounter = 0;
+
+    TestPlatform() throws StaleProxyException, InterruptedException {
+        Runtime runtime = Runtime.instance();
+        runtime.setCloseVM(false);
+        Profile profile = new ProfileImpl();
+        profile.setParameter(Profile.GUI, "false");
+        profile.setParameter(Profile.NO_MTP, "true");
+        profile.setParameter(Profile.FILE_DIR, System.getProperty("java.io.tmpdir") + "/");
+        container = runtime.createMainContainer(profile);
+        probe = container.createNewAgent("probe", Probe.class.getName(), new Object[]{this});
+        probe.start();
+        assertTrue("The probe did not start", probeReady.await(timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Sends the messages put by the test thread and keeps the messages received for it.
+     */
+    public static class Probe extends Agent {
+        protected void setup() {
+            final TestPlatform platform = (TestPlatform) getArguments()[0];
+            setEnabledO2ACommunication(true, 0);
+            addBehaviour(new CyclicBehaviour(this) {
+                public void action() {
+                    Object outgoing = getO2AObject();
+                    if (outgoing != null) {
+                        send((ACLMessage) outgoing);
+                        return;
+                    }
+                    ACLMessage msg = receive();
+                    if (msg == null) {
+                        block();
+                        return;
+                    }
+                    synchronized (platform.inbox) {
+                        platform.inbox.add(msg);
+                        platform.inbox.notifyAll();
+                    }
+                }
+            });
+            platform.probeReady.countDown();
+        }
+    }
+
+    void shutDown() throws StaleProxyException {
+        container.kill();
+        Runtime.instance().shutDown();
+    }
+
+    /**
+     * Starts a conveyor with the arguments of the layout files: its neighbours, its transfer time in seconds
+     * and its capacity.
+     */
+    AgentController conveyor(String name, int transferTime, int capacity, String... neighbours) throws StaleProxyException {
+        return start(name, ConveyorAgent.class, new Object[][]{neighbours, {transferTime}, {capacity}});
+    }
+
+    AgentController start(String name, Class<? extends Agent> agentClass, Object[] args) throws StaleProxyException {
+        AgentController agent = container.createNewAgent(name, agentClass.getName(), args);
+        agent.start();
+        agents.add(agent);
+        return agent;
+    }
+
+    /**
+     * Sends the request from the probe, in a conversation of its own, and returns the first answer.
+     */
+    ACLMessage request(String receiver, JSONObject request) throws StaleProxyException, InterruptedException {
+        ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+        msg.addReceiver(new AID(receiver, AID.ISLOCALNAME));
+        String conversationId = "test-" + (++conversationCounter);
+        msg.setConversationId(conversationId);
+        msg.setContent(request.toString());
+        send(msg);
+        return await(answer -> conversationId.equals(answer.getConversationId()));
+    }
+
+    void send(ACLMessage msg) throws StaleProxyException {
+        probe.putO2AObject(msg, AgentController.ASYNC);
+    }
+
+    /**
+     * Waits for a message received by the probe and not taken yet, and takes it.
+     */
+    ACLMessage await(Predicate<ACLMessage> expected) throws InterruptedException {
+        ACLMessage msg = poll(expected, timeoutMs);
+        assertNotNull("No message came", msg);
+        return msg;
+    }
+
+    /**
+     * Returns the first message received within the time (in real milliseconds) that fits, null if none came.
+     */
+    ACLMessage poll(Predicate<ACLMessage> expected, long waitMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMs;
+        synchronized (inbox) {
+            while (true) {
+                Iterator<ACLMessage> it = inbox.iterator();
+                while (it.hasNext()) {
+                    ACLMessage msg = it.next();
+                    if (expected.test(msg)) {
+                        it.remove();
+                        return msg;
+                    }
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return null;
+                }
+                inbox.wait(left);
+            }
+        }
+    }
+
+    /**
+     * Waits until the conveyor knows a route to the given number of conveyors (itself included).
+     */
+    void awaitRoutes(String conveyor, long routes) throws StaleProxyException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        Object known = null;
+        while (System.currentTimeMillis() < deadline) {
+            // the platform answers for a conveyor not started yet
+            ACLMessage info = request(conveyor, request("get_info"));
+            known = (info.getPerformative() == ACLMessage.INFORM) ? content(info).get("Routes") : null;
+            if ((known instanceof Number) && ((Number) known).longValue() >= routes) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError(conveyor + " knows " + known + " routes of " + routes);
+    }
+
+    /**
+     * Waits in real time until the conveyor clock moved by the given time, e.g. for the routes advertised together
+     * to arrive.
+     */
+    void awaitClock(long ms) throws InterruptedException {
+        long until = now() + ms;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (now() < until) {
+            assertTrue("The clock did not move", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Subscribes the probe to the conveyors, as a conveyor preceding them, and waits for a heartbeat of each: the
+     * heartbeats start a while after the routing and, on the simulated clock, keep the time from jumping over the
+     * waits of the pallets.
+     */
+    void awaitHeartbeats(String... conveyors) throws StaleProxyException, InterruptedException {
+        for (String conveyor : conveyors) {
+            ACLMessage subscribe = new ACLMessage(ACLMessage.SUBSCRIBE);
+            subscribe.addReceiver(new AID(conveyor, AID.ISLOCALNAME));
+            subscribe.setContent(request("route_subscribe").toString());
+            send(subscribe);
+        }
+        for (String conveyor : conveyors) {
+            await(msg -> conveyor.equals(msg.getSender().getLocalName()) && msg.getContent().contains("\"heartbeat\""));
+        }
+    }
+
+    static JSONObject request(String requestType) {
+        JSONObject request = new JSONObject();
+        request.put("request_type", requestType);
+        return request;
+    }
+
+    static JSONObject content(ACLMessage msg) {
+        return (JSONObject) JSONValue.parse(msg.getContent());
+    }
+
+    static long now() {
+        return ConveyorClock.getInstance().now();
+    }
+}